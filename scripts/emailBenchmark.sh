@@ -0,0 +1,11 @@
+#!/bin/bash
+# runs the email throughput benchmark against an in-process SMTP server
+# no mail is sent anywhere and no database is needed
+# uses a relative path so you must run this from the root rather than from the scripts folder itself!
+# any options are passed through, e.g.
+#   scripts/emailBenchmark.sh --messages 1000 --threads 8 --connect-delay-ms 100
+set -e
+
+# the benchmark sources are in src/bench/java and compile into target/test-classes
+mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/benchmark.classpath
+java -cp "target/classes:target/test-classes:$(cat target/benchmark.classpath)" com.bookstore.EmailBenchmark "$@"
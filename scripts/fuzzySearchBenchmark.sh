@@ -0,0 +1,13 @@
+#!/bin/bash
+# measures fuzzy search latency of the in-memory index on synthetic catalogs up to 1M titles
+# no database is needed unless --like-url names a scratch database for the LIKE baseline
+# (its books table is replaced, never point it at the real BookStore database)
+# uses a relative path so you must run this from the root rather than from the scripts folder itself!
+# any options are passed through, e.g.
+#   scripts/fuzzySearchBenchmark.sh --sizes 10000,100000 --like-url jdbc:mysql://127.0.0.1:3306/SearchBench
+# set JAVA_OPTS to change the heap; a million titles need a few GB
+set -e
+
+# the benchmark sources are in src/bench/java and compile into target/test-classes
+mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/benchmark.classpath
+java ${JAVA_OPTS:--Xmx4g} -cp "target/classes:target/test-classes:$(cat target/benchmark.classpath)" com.bookstore.db.FuzzySearchBenchmark "$@"
@@ -45,6 +45,10 @@ echo "init VerificationTable"
 mysql -u "$USR" -p"$DBPass" BookStore < src/main/resources/BookStore_Schema/VerificationToken.sql
 echo "init AlterUserTable"
 mysql -u "$USR" -p"$DBPass" BookStore < src/main/resources/BookStore_Schema/AlterUserTable.sql
+echo "init EmailCampaignTable"
+mysql -u "$USR" -p"$DBPass" BookStore < src/main/resources/BookStore_Schema/EmailCampaign_Table.sql
+echo "init EmailOutboxTable"
+mysql -u "$USR" -p"$DBPass" BookStore < src/main/resources/BookStore_Schema/EmailOutbox_Table.sql
 
 # show all tables that have been initialized.
 mysql -u "$USR" -p"$DBPass" -e "USE BookStore; SHOW TABLES;"
@@ -0,0 +1,12 @@
+#!/bin/bash
+# compares the book search backends (memory and fulltext) on the same queries
+# searches the database configured in db.properties, so MySQL must be running;
+# the fulltext backend also needs BookStore_Schema/AlterBooksTable.sql on older databases
+# uses a relative path so you must run this from the root rather than from the scripts folder itself!
+# any options are passed through, e.g.
+#   scripts/searchBenchmark.sh --rounds 10 --threads 4 --fuzzy
+set -e
+
+# the benchmark sources are in src/bench/java and compile into target/test-classes
+mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/benchmark.classpath
+java -cp "target/classes:target/test-classes:$(cat target/benchmark.classpath)" com.bookstore.db.SearchBenchmark "$@"
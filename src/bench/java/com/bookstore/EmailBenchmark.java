@@ -0,0 +1,169 @@
+package com.bookstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+
+import com.bookstore.records.EmailOutboxRecords;
+
+/**
+ * Email throughput benchmark against an in-process SMTP server (LocalSmtpServer).
+ *
+ * Each workload renders its emails with the same Email methods the servlets
+ * use and sends them through an SmtpTransportPool, the production send path:
+ *   single      verification emails, the short transactional send
+ *   campaign    promotional emails, as sent by CampaignEngine
+ *   order       order confirmations, the largest message
+ * Every workload runs with and without connection reuse (reuse off closes the
+ * connection after each message, like the code before pooling) and with one
+ * sender thread and with --threads. For each run it reports messages/sec and
+ * the p50 and p99 latency of a single send, including any wait for a free
+ * connection.
+ *
+ * Options (defaults in brackets):
+ *   --messages N          messages per run [500]
+ *   --threads N           parallel senders and pool size for the parallel runs [4]
+ *   --connect-delay-ms N  server delay before greeting a new connection [50]
+ *   --message-delay-ms N  server delay before accepting each message [5]
+ *
+ * Lives in src/bench/java, which the build compiles with the test sources so
+ * it never ends up in the war. Run with scripts/emailBenchmark.sh, or after
+ * mvn test-compile:
+ *   java -cp target/classes:target/test-classes:<dependencies> com.bookstore.EmailBenchmark --messages 1000
+ */
+public class EmailBenchmark {
+
+    private static final class Result {
+        final String workload;
+        final boolean reuse;
+        final int threads;
+        final int messages;
+        final double messagesPerSecond;
+        final double p50Millis;
+        final double p99Millis;
+        final long connections;
+
+        Result(String workload, boolean reuse, int threads, int messages, double messagesPerSecond,
+               double p50Millis, double p99Millis, long connections) {
+            this.workload = workload;
+            this.reuse = reuse;
+            this.threads = threads;
+            this.messages = messages;
+            this.messagesPerSecond = messagesPerSecond;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.connections = connections;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = intOption(args, "--messages", 500);
+        int threads = intOption(args, "--threads", 4);
+        long connectDelayMs = intOption(args, "--connect-delay-ms", 50);
+        long messageDelayMs = intOption(args, "--message-delay-ms", 5);
+
+        String orderDetails = "- The Pragmatic Programmer x 1 - $39.99\n- Clean Code x 2 - $67.98\n"
+                + "- Refactoring x 1 - $44.50\n- Promotion SUMMER20 - -$30.49\n";
+        List<String> names = Arrays.asList("single", "campaign", "order");
+        List<IntFunction<EmailOutboxRecords>> workloads = Arrays.asList(
+                i -> Email.verificationEmail("user" + i + "@example.com", "User" + i,
+                        "token-" + i, "http://localhost:8080", 1000 + i),
+                i -> Email.promotionalEmail("user" + i + "@example.com", "User" + i,
+                        "Take 20% off every book this week with code SUMMER20.", "Special Promotion: SUMMER20"),
+                i -> Email.orderConfirmationEmail("user" + i + "@example.com", "User" + i, orderDetails,
+                        "Card: **** **** **** 4242\nType: VISA\nExpiry: 12/29",
+                        "1 Main St\nAthens, GA 30601", "1 Main St\nAthens, GA 30601", 121.98));
+
+        System.out.println("Local SMTP server: connect delay " + connectDelayMs + " ms, message delay "
+                + messageDelayMs + " ms; " + messages + " messages per run");
+        List<Result> results = new ArrayList<>();
+        try (LocalSmtpServer server = new LocalSmtpServer(connectDelayMs, messageDelayMs)) {
+            server.start();
+            Session session = Email.createSession(server.getHost(), String.valueOf(server.getPort()),
+                    "benchmark", "benchmark", false);
+            // Warm up class loading and the JIT so the first measured run is not penalized
+            run(server, session, "warmup", workloads.get(0), Math.min(messages, 50), threads, true);
+            for (int w = 0; w < workloads.size(); w++) {
+                for (boolean reuse : new boolean[] {false, true}) {
+                    for (int t : threads > 1 ? new int[] {1, threads} : new int[] {1}) {
+                        results.add(run(server, session, names.get(w), workloads.get(w), messages, t, reuse));
+                    }
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-9s %-6s %7s %9s %11s %9s %9s %12s",
+                "workload", "reuse", "threads", "messages", "msgs/sec", "p50 ms", "p99 ms", "connections"));
+        for (Result r : results) {
+            System.out.println(String.format("%-9s %-6s %7d %9d %11.1f %9.2f %9.2f %12d",
+                    r.workload, r.reuse ? "yes" : "no", r.threads, r.messages, r.messagesPerSecond,
+                    r.p50Millis, r.p99Millis, r.connections));
+        }
+    }
+
+    private static Result run(LocalSmtpServer server, Session session, String name,
+                              IntFunction<EmailOutboxRecords> workload, int messages, int threads, boolean reuse)
+            throws InterruptedException, ExecutionException {
+        Properties poolProps = new Properties();
+        poolProps.setProperty("email.smtp.pool.maxSize", String.valueOf(threads));
+        poolProps.setProperty("email.smtp.pool.maxMessagesPerConnection", reuse ? String.valueOf(Integer.MAX_VALUE) : "1");
+        SmtpTransportPool pool = new SmtpTransportPool(session, server.getHost(), server.getPort(),
+                "benchmark", "benchmark", poolProps);
+        long connectionsBefore = server.getConnectionCount();
+
+        long[] latencies = new long[messages];
+        ExecutorService senders = Executors.newFixedThreadPool(threads);
+        List<Future<?>> sends = new ArrayList<>(messages);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            int index = i;
+            sends.add(senders.submit(() -> {
+                EmailOutboxRecords email = workload.apply(index);
+                long sendStart = System.nanoTime();
+                try {
+                    pool.send(Email.createMessage(session, email.getRecipient(), email.getSubject(), email.getBody()));
+                } catch (MessagingException e) {
+                    throw new IllegalStateException("Send failed in " + name + " run", e);
+                }
+                latencies[index] = System.nanoTime() - sendStart;
+                return null;
+            }));
+        }
+        for (Future<?> send : sends) {
+            send.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        senders.shutdown();
+        pool.close();
+
+        Arrays.sort(latencies);
+        return new Result(name, reuse, threads, messages, messages * 1_000_000_000.0 / elapsed,
+                percentile(latencies, 0.50), percentile(latencies, 0.99),
+                server.getConnectionCount() - connectionsBefore);
+    }
+
+    // Nearest-rank percentile of sorted nanosecond latencies, in milliseconds
+    private static double percentile(long[] sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1_000_000.0;
+    }
+
+    private static int intOption(String[] args, String name, int defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return Integer.parseInt(args[i + 1]);
+            }
+        }
+        return defaultValue;
+    }
+}
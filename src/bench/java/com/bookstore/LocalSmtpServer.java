@@ -0,0 +1,187 @@
+package com.bookstore;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal in-process SMTP server that accepts and discards every message,
+ * for measuring the sending side without a real mail provider.
+ *
+ * It speaks enough ESMTP for Jakarta Mail: EHLO/HELO, AUTH PLAIN and LOGIN
+ * (any credentials), MAIL, RCPT, DATA, RSET, NOOP and QUIT. It does not offer
+ * STARTTLS, so clients must run with email.smtp.starttls=false. Two delays
+ * model a remote provider: connectDelayMs before the greeting stands in for
+ * the TCP, TLS and login round trips of a new connection, and
+ * messageDelayMs before accepting DATA stands in for per-message latency.
+ */
+public class LocalSmtpServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final long connectDelayMs;
+    private final long messageDelayMs;
+    private volatile boolean closed = false;
+
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final AtomicLong messageCount = new AtomicLong();
+
+    /**
+     * Listen on an ephemeral port of the loopback interface; call start() to accept connections
+     */
+    public LocalSmtpServer(long connectDelayMs, long messageDelayMs) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.connectDelayMs = connectDelayMs;
+        this.messageDelayMs = messageDelayMs;
+        this.connections = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "local-smtp");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        connections.execute(this::acceptLoop);
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Local SMTP server accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        connectionCount.incrementAndGet();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+             Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.ISO_8859_1)) {
+            pause(connectDelayMs);
+            reply(out, "220 localhost ESMTP stand-in");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase(Locale.ROOT) : line.toUpperCase(Locale.ROOT);
+                switch (command) {
+                    case "EHLO":
+                        reply(out, "250-localhost\r\n250-AUTH PLAIN LOGIN\r\n250 8BITMIME");
+                        break;
+                    case "HELO":
+                        reply(out, "250 localhost");
+                        break;
+                    case "AUTH":
+                        authenticate(line, in, out);
+                        break;
+                    case "DATA":
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            // Discard the message content
+                        }
+                        pause(messageDelayMs);
+                        messageCount.incrementAndGet();
+                        reply(out, "250 2.0.0 Ok: queued");
+                        break;
+                    case "QUIT":
+                        reply(out, "221 2.0.0 Bye");
+                        return;
+                    case "MAIL":
+                    case "RCPT":
+                    case "RSET":
+                    case "NOOP":
+                        reply(out, "250 2.0.0 Ok");
+                        break;
+                    default:
+                        reply(out, "502 5.5.2 Command not recognized");
+                }
+            }
+        } catch (SocketException e) {
+            // Client went away
+        } catch (IOException | InterruptedException e) {
+            if (!closed) {
+                System.out.println("Local SMTP connection failed: " + e);
+            }
+        }
+    }
+
+    // AUTH PLAIN [response] or AUTH LOGIN; every credential is accepted
+    private static void authenticate(String line, BufferedReader in, Writer out) throws IOException {
+        String[] parts = line.trim().split("\\s+");
+        String mechanism = parts.length > 1 ? parts[1].toUpperCase(Locale.ROOT) : "";
+        if (mechanism.equals("PLAIN")) {
+            if (parts.length < 3) {
+                reply(out, "334 ");
+                in.readLine();
+            }
+        } else if (mechanism.equals("LOGIN")) {
+            if (parts.length < 3) {
+                reply(out, "334 VXNlcm5hbWU6");
+                in.readLine();
+            }
+            reply(out, "334 UGFzc3dvcmQ6");
+            in.readLine();
+        } else {
+            reply(out, "504 5.5.4 Unrecognized authentication type");
+            return;
+        }
+        reply(out, "235 2.7.0 Authentication successful");
+    }
+
+    private static void reply(Writer out, String response) throws IOException {
+        out.write(response);
+        out.write("\r\n");
+        out.flush();
+    }
+
+    private static void pause(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    // Connections accepted so far, i.e. how often clients had to connect and log in
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        connections.shutdownNow();
+        try {
+            connections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
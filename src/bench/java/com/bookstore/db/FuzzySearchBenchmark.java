@@ -0,0 +1,227 @@
+package com.bookstore.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * Fuzzy search latency on synthetic catalogs from a few thousand up to a
+ * million titles, comparing the in-memory BookSearchIndex with the LIKE scan
+ * of BookActions.searchBooks that search used before the index.
+ *
+ * For every catalog size it builds the catalog with SyntheticCatalog, times
+ * building the index and then runs the same queries through searchFuzzy:
+ *   exact   words taken from titles and authors
+ *   typo    the same words with one letter replaced, dropped or swapped
+ * It reports the p50 and p99 latency of a single search and the average
+ * number of hits; for typo queries LIKE finds nothing, which is what the
+ * fuzzy index is for.
+ *
+ * The LIKE baseline needs MySQL and only runs with --like-url, which must
+ * name a scratch database: its books table is dropped and refilled with the
+ * synthetic catalog. The user and password default to db.username and
+ * db.password from db.properties. A LIKE search scans every row, so it runs
+ * --like-queries of the queries only.
+ *
+ * Options (defaults in brackets):
+ *   --sizes N,N,...      catalog sizes [10000,100000,1000000]
+ *   --queries N          queries per kind [200]
+ *   --limit N            results per index search [20]
+ *   --seed N             seed for catalogs and queries [42]
+ *   --like-url URL       scratch database for the LIKE baseline [not run]
+ *   --like-user NAME     [db.username]
+ *   --like-password PW   [db.password]
+ *   --like-queries N     queries per kind for LIKE [20]
+ *
+ * A million-title catalog and its index need a few GB of heap.
+ * Run with scripts/fuzzySearchBenchmark.sh, or after mvn test-compile:
+ *   java -Xmx4g -cp target/classes:target/test-classes:<dependencies> com.bookstore.db.FuzzySearchBenchmark
+ */
+public class FuzzySearchBenchmark {
+
+    private static final int INSERT_BATCH = 1000;
+
+    private static final class Result {
+        final int books;
+        final String engine;
+        final String kind;
+        final int searches;
+        final double p50Millis;
+        final double p99Millis;
+        final double averageHits;
+
+        Result(int books, String engine, String kind, int searches, double p50Millis, double p99Millis,
+               double averageHits) {
+            this.books = books;
+            this.engine = engine;
+            this.kind = kind;
+            this.searches = searches;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.averageHits = averageHits;
+        }
+    }
+
+    private interface Search {
+        int hits(String query) throws SQLException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String sizesOption = SearchBenchmark.stringOption(args, "--sizes", "10000,100000,1000000");
+        int queryCount = SearchBenchmark.intOption(args, "--queries", 200);
+        int limit = SearchBenchmark.intOption(args, "--limit", 20);
+        long seed = SearchBenchmark.intOption(args, "--seed", 42);
+        String likeUrl = SearchBenchmark.stringOption(args, "--like-url", null);
+        int likeQueries = SearchBenchmark.intOption(args, "--like-queries", 20);
+
+        Properties props = loadProperties();
+        if (likeUrl != null && likeUrl.equals(props.getProperty("db.url"))) {
+            System.out.println("--like-url is the application database; its books table would be replaced. "
+                    + "Point it at a scratch database instead.");
+            return;
+        }
+        String likeUser = SearchBenchmark.stringOption(args, "--like-user", props.getProperty("db.username"));
+        String likePassword = SearchBenchmark.stringOption(args, "--like-password", props.getProperty("db.password"));
+
+        List<Result> results = new ArrayList<>();
+        for (String sizeText : sizesOption.split(",")) {
+            int size = Integer.parseInt(sizeText.trim());
+            List<BookRecords> books = SyntheticCatalog.generate(size, seed);
+            Random random = new Random(seed);
+            List<String> exact = new ArrayList<>(queryCount);
+            List<String> typos = new ArrayList<>(queryCount);
+            while (exact.size() < queryCount) {
+                BookRecords book = books.get(random.nextInt(books.size()));
+                List<String> words = BookSearchIndex.tokenize(book.getTitle() + " " + book.getAuthor());
+                String word = words.get(random.nextInt(words.size()));
+                exact.add(word);
+                typos.add(SearchBenchmark.misspell(word, random));
+            }
+
+            BookSearchIndex index = new BookSearchIndex();
+            long buildStart = System.nanoTime();
+            index.rebuild(books);
+            long buildMillis = (System.nanoTime() - buildStart) / 1_000_000L;
+            System.out.println(size + " books: index built in " + buildMillis + " ms, "
+                    + index.getTermCount() + " terms");
+
+            Search indexSearch = query -> index.searchFuzzy(query, limit).getIds().length;
+            // Warm up the JIT on this index before measuring
+            measure(size, "index", "warmup", exact, indexSearch);
+            results.add(measure(size, "index", "exact", exact, indexSearch));
+            results.add(measure(size, "index", "typo", typos, indexSearch));
+
+            if (likeUrl != null) {
+                try (Connection connection = DriverManager.getConnection(likeUrl, likeUser, likePassword)) {
+                    long loadStart = System.nanoTime();
+                    load(connection, books);
+                    System.out.println(size + " books: loaded into " + likeUrl + " in "
+                            + (System.nanoTime() - loadStart) / 1_000_000L + " ms");
+                    Search likeSearch = query -> BookActions.searchBooks(connection, query).size();
+                    likeSearch.hits(exact.get(0));
+                    int n = Math.min(likeQueries, queryCount);
+                    results.add(measure(size, "like", "exact", exact.subList(0, n), likeSearch));
+                    results.add(measure(size, "like", "typo", typos.subList(0, n), likeSearch));
+                }
+            }
+        }
+        if (likeUrl == null) {
+            System.out.println("LIKE baseline skipped; pass --like-url with a scratch database to run it");
+        }
+
+        System.out.println();
+        System.out.println(String.format("%9s %-6s %-6s %9s %10s %10s %9s",
+                "books", "engine", "kind", "searches", "p50 ms", "p99 ms", "avg hits"));
+        for (Result r : results) {
+            System.out.println(String.format("%9d %-6s %-6s %9d %10.3f %10.3f %9.1f",
+                    r.books, r.engine, r.kind, r.searches, r.p50Millis, r.p99Millis, r.averageHits));
+        }
+    }
+
+    private static Result measure(int books, String engine, String kind, List<String> queries, Search search)
+            throws SQLException {
+        long[] latencies = new long[queries.size()];
+        long hits = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            long start = System.nanoTime();
+            hits += search.hits(queries.get(i));
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return new Result(books, engine, kind, queries.size(), SearchBenchmark.percentile(latencies, 0.50),
+                SearchBenchmark.percentile(latencies, 0.99), (double) hits / queries.size());
+    }
+
+    // Replace the scratch database's books table with the synthetic catalog
+    private static void load(Connection connection, List<BookRecords> books) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS books");
+            statement.execute("CREATE TABLE books ("
+                    + "id INT AUTO_INCREMENT PRIMARY KEY, isbn VARCHAR(20) NOT NULL UNIQUE, category VARCHAR(50), "
+                    + "author VARCHAR(100), title VARCHAR(150), coverImage VARCHAR(255), edition VARCHAR(20), "
+                    + "publisher VARCHAR(100), publicationYear INT, quantityInStock INT, minThreshold INT, "
+                    + "buyingPrice DOUBLE, sellingPrice DOUBLE, rating FLOAT, featured BOOLEAN DEFAULT FALSE, "
+                    + "releaseDate DATE, description TEXT)");
+        }
+        String insert = "INSERT INTO books (id, isbn, category, author, title, coverImage, edition, publisher, "
+                + "publicationYear, quantityInStock, minThreshold, buyingPrice, sellingPrice, rating, featured, "
+                + "releaseDate, description) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement ps = connection.prepareStatement(insert)) {
+            int batched = 0;
+            for (BookRecords book : books) {
+                ps.setInt(1, book.getId());
+                ps.setString(2, book.getIsbn());
+                ps.setString(3, book.getCategory());
+                ps.setString(4, book.getAuthor());
+                ps.setString(5, book.getTitle());
+                ps.setString(6, book.getCoverImage());
+                ps.setString(7, book.getEdition());
+                ps.setString(8, book.getPublisher());
+                ps.setInt(9, book.getPublicationYear());
+                ps.setInt(10, book.getQuantityInStock());
+                ps.setInt(11, book.getMinThreshold());
+                ps.setDouble(12, book.getBuyingPrice());
+                ps.setDouble(13, book.getSellingPrice());
+                ps.setFloat(14, book.getRating());
+                ps.setBoolean(15, book.isFeatured());
+                ps.setDate(16, book.getReleaseDate());
+                ps.setString(17, book.getDescription());
+                ps.addBatch();
+                if (++batched == INSERT_BATCH) {
+                    ps.executeBatch();
+                    connection.commit();
+                    batched = 0;
+                }
+            }
+            ps.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static Properties loadProperties() {
+        Properties props = new Properties();
+        try (InputStream input = FuzzySearchBenchmark.class.getClassLoader().getResourceAsStream("db.properties")) {
+            if (input != null) {
+                props.load(input);
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to read db.properties; pass --like-user and --like-password");
+        }
+        return props;
+    }
+}
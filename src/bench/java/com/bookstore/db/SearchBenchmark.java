@@ -0,0 +1,262 @@
+package com.bookstore.db;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * Search latency benchmark comparing the SearchBackend implementations on the
+ * same catalog with the same queries.
+ *
+ * Both backends search the database configured in db.properties: memory
+ * answers from the CatalogCache index, which is loaded before anything is
+ * measured, and fulltext runs MATCH ... AGAINST, which needs the
+ * ft_books_search index (BookStore_Schema/AlterBooksTable.sql). Queries are
+ * read from --queries, one per line, or generated from the catalog: title and
+ * author words, their first three letters and two-word title phrases, plus
+ * the same words with one letter changed when --fuzzy is given.
+ *
+ * Every query runs once to warm up and then --rounds times. For each backend
+ * it reports queries/sec, the p50 and p99 latency of a single search, the
+ * average number of hits and the overlap of its results with the memory
+ * backend's (mean Jaccard similarity of the returned book IDs, 1.00 when both
+ * always return the same books).
+ *
+ * Options (defaults in brackets):
+ *   --queries FILE  one query per line [generated from the catalog]
+ *   --count N       number of generated queries [200]
+ *   --rounds N      measured passes over the queries [5]
+ *   --threads N     parallel searchers [1]
+ *   --limit N       results per search, 0 for all [20]
+ *   --seed N        seed for the generated queries [42]
+ *   --fuzzy         run fuzzy searches
+ *
+ * Run with scripts/searchBenchmark.sh, or after mvn test-compile:
+ *   java -cp target/classes:target/test-classes:<dependencies> com.bookstore.db.SearchBenchmark --fuzzy
+ */
+public class SearchBenchmark {
+
+    private static final class Result {
+        final String backend;
+        final int searches;
+        final int threads;
+        final double searchesPerSecond;
+        final double p50Millis;
+        final double p99Millis;
+        final double averageHits;
+        final double overlap;
+
+        Result(String backend, int searches, int threads, double searchesPerSecond, double p50Millis,
+               double p99Millis, double averageHits, double overlap) {
+            this.backend = backend;
+            this.searches = searches;
+            this.threads = threads;
+            this.searchesPerSecond = searchesPerSecond;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.averageHits = averageHits;
+            this.overlap = overlap;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String queryFile = stringOption(args, "--queries", null);
+        int count = intOption(args, "--count", 200);
+        int rounds = intOption(args, "--rounds", 5);
+        int threads = intOption(args, "--threads", 1);
+        int limit = intOption(args, "--limit", 20);
+        long seed = intOption(args, "--seed", 42);
+        boolean fuzzy = Arrays.asList(args).contains("--fuzzy");
+
+        CatalogCache.Snapshot snapshot = CatalogCache.getInstance().getSnapshot();
+        List<String> queries = queryFile != null
+                ? Files.readAllLines(Paths.get(queryFile)).stream()
+                        .map(String::trim).filter(q -> !q.isEmpty()).collect(Collectors.toList())
+                : generateQueries(snapshot.getBooks(), count, fuzzy, new Random(seed));
+        if (queries.isEmpty()) {
+            System.out.println("No queries to run; is the books table empty?");
+            return;
+        }
+        System.out.println("Catalog: " + snapshot.getBooks().size() + " books; " + queries.size() + " queries, "
+                + rounds + " rounds, " + (fuzzy ? "fuzzy" : "exact") + " search, limit " + limit);
+
+        List<Result> results = new ArrayList<>();
+        List<Set<Integer>> reference = null;
+        for (String name : Arrays.asList(InMemorySearchBackend.NAME, MySqlFullTextSearchBackend.NAME)) {
+            SearchBackend backend = DatabaseFactory.createSearchBackend(name);
+            List<Set<Integer>> found;
+            try {
+                // The warmup pass also records what each query returns, for the overlap column
+                found = warmUp(backend, queries, limit, fuzzy);
+            } catch (SQLException e) {
+                System.out.println("Skipping " + name + ": " + e.getMessage());
+                continue;
+            }
+            if (reference == null) {
+                reference = found;
+            }
+            results.add(run(backend, queries, rounds, threads, limit, fuzzy, found, reference));
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-9s %9s %7s %12s %9s %9s %9s %8s",
+                "backend", "searches", "threads", "searches/sec", "p50 ms", "p99 ms", "avg hits", "overlap"));
+        for (Result r : results) {
+            System.out.println(String.format("%-9s %9d %7d %12.1f %9.3f %9.3f %9.1f %8.2f",
+                    r.backend, r.searches, r.threads, r.searchesPerSecond, r.p50Millis, r.p99Millis,
+                    r.averageHits, r.overlap));
+        }
+    }
+
+    private static List<Set<Integer>> warmUp(SearchBackend backend, List<String> queries, int limit, boolean fuzzy)
+            throws SQLException {
+        List<Set<Integer>> found = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            Set<Integer> ids = new HashSet<>();
+            for (BookRecords book : backend.search(query, limit, fuzzy).getBooks()) {
+                ids.add(book.getId());
+            }
+            found.add(ids);
+        }
+        return found;
+    }
+
+    private static Result run(SearchBackend backend, List<String> queries, int rounds, int threads, int limit,
+                              boolean fuzzy, List<Set<Integer>> found, List<Set<Integer>> reference)
+            throws InterruptedException, ExecutionException {
+        int searches = queries.size() * rounds;
+        long[] latencies = new long[searches];
+        ExecutorService searchers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> tasks = new ArrayList<>(searches);
+        long start = System.nanoTime();
+        for (int i = 0; i < searches; i++) {
+            int index = i;
+            tasks.add(searchers.submit(() -> {
+                long searchStart = System.nanoTime();
+                backend.search(queries.get(index % queries.size()), limit, fuzzy);
+                latencies[index] = System.nanoTime() - searchStart;
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        searchers.shutdown();
+
+        long hits = 0;
+        double similarity = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            hits += found.get(q).size();
+            similarity += jaccard(found.get(q), reference.get(q));
+        }
+        Arrays.sort(latencies);
+        return new Result(backend.getName(), searches, threads, searches * 1_000_000_000.0 / elapsed,
+                percentile(latencies, 0.50), percentile(latencies, 0.99),
+                (double) hits / queries.size(), similarity / queries.size());
+    }
+
+    /**
+     * Queries a shopper might type, drawn from the catalog's own titles and authors
+     */
+    static List<String> generateQueries(List<BookRecords> books, int count, boolean fuzzy, Random random) {
+        List<String> queries = new ArrayList<>(count);
+        if (books.isEmpty()) {
+            return queries;
+        }
+        while (queries.size() < count) {
+            BookRecords book = books.get(random.nextInt(books.size()));
+            List<String> titleWords = BookSearchIndex.tokenize(book.getTitle());
+            List<String> authorWords = BookSearchIndex.tokenize(book.getAuthor());
+            List<String> words = new ArrayList<>(titleWords);
+            words.addAll(authorWords);
+            words.removeIf(w -> w.length() < 3);
+            if (words.isEmpty()) {
+                continue;
+            }
+            String word = words.get(random.nextInt(words.size()));
+            switch (random.nextInt(fuzzy ? 4 : 3)) {
+                case 0:
+                    queries.add(word);
+                    break;
+                case 1:
+                    queries.add(word.substring(0, 3));
+                    break;
+                case 2:
+                    queries.add(titleWords.size() >= 2
+                            ? titleWords.get(0) + " " + titleWords.get(1)
+                            : word);
+                    break;
+                default:
+                    queries.add(misspell(word, random));
+                    break;
+            }
+        }
+        return queries;
+    }
+
+    // The word with one letter replaced, dropped or swapped with its neighbour
+    static String misspell(String word, Random random) {
+        if (word.length() < 4) {
+            return word;
+        }
+        int at = 1 + random.nextInt(word.length() - 2);
+        switch (random.nextInt(3)) {
+            case 0:
+                return word.substring(0, at) + (char) ('a' + random.nextInt(26)) + word.substring(at + 1);
+            case 1:
+                return word.substring(0, at) + word.substring(at + 1);
+            default:
+                return word.substring(0, at - 1) + word.charAt(at) + word.charAt(at - 1) + word.substring(at + 1);
+        }
+    }
+
+    private static double jaccard(Set<Integer> a, Set<Integer> b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return 1.0;
+        }
+        Set<Integer> union = new LinkedHashSet<>(a);
+        union.addAll(b);
+        int common = 0;
+        for (Integer id : a) {
+            if (b.contains(id)) {
+                common++;
+            }
+        }
+        return (double) common / union.size();
+    }
+
+    // Nearest-rank percentile of sorted nanosecond latencies, in milliseconds
+    static double percentile(long[] sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1_000_000.0;
+    }
+
+    static int intOption(String[] args, String name, int defaultValue) {
+        String value = stringOption(args, name, null);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    static String stringOption(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,100 @@
+package com.bookstore.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * Deterministic fake book catalogs of any size for the search benchmarks.
+ *
+ * Titles, authors and publishers are made of pseudo-words built from
+ * syllables, so a large catalog has a realistic number of distinct words
+ * instead of repeating a short list. Words are picked with a skewed
+ * distribution: a few are very common, most are rare, as in real titles.
+ */
+final class SyntheticCatalog {
+
+    private static final String[] SYLLABLES = {
+        "ka", "lor", "ven", "mi", "sto", "ra", "del", "thu", "an", "bri", "co", "dra", "el", "fen", "gal",
+        "hin", "ir", "jo", "kel", "lun", "mor", "nal", "os", "pel", "quin", "ros", "sel", "tor", "ul", "var",
+        "wen", "xan", "yor", "zel", "ber", "cas", "dun", "fal", "gor", "har"
+    };
+    private static final String[] CATEGORIES = {
+        "Fantasy", "Horror", "Mystery", "Romance", "Science Fiction", "Thriller", "Biography", "History",
+        "Poetry", "Travel", "Cooking", "Business", "Self Help", "Young Adult", "Children", "Classics"
+    };
+    private static final String[] EDITIONS = {"1st Edition", "2nd Edition", "3rd Edition", "Special Edition"};
+
+    private SyntheticCatalog() {
+    }
+
+    /**
+     * A catalog of size books with IDs 1..size; the same size and seed always give the same books
+     */
+    static List<BookRecords> generate(int size, long seed) {
+        Random random = new Random(seed);
+        // Vocabulary grows with the catalog, roughly like real title vocabularies do
+        List<String> words = vocabulary(Math.max(500, (int) Math.sqrt(size) * 40), random);
+        List<String> names = vocabulary(Math.max(200, (int) Math.sqrt(size) * 10), random);
+        List<String> publishers = vocabulary(Math.max(50, (int) Math.sqrt(size)), random);
+
+        List<BookRecords> books = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            int titleLength = 1 + random.nextInt(4);
+            StringBuilder title = new StringBuilder();
+            for (int w = 0; w < titleLength; w++) {
+                if (w > 0) {
+                    title.append(' ');
+                }
+                title.append(capitalize(pick(words, random)));
+            }
+            String author = capitalize(pick(names, random)) + " " + capitalize(pick(names, random));
+            books.add(new BookRecords(
+                    id,
+                    String.format("978%010d", id),
+                    CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    author,
+                    title.toString(),
+                    "img/placeholder.png",
+                    EDITIONS[random.nextInt(EDITIONS.length)],
+                    capitalize(pick(publishers, random)) + " Press",
+                    1950 + random.nextInt(76),
+                    random.nextInt(50),
+                    3,
+                    5 + random.nextInt(20),
+                    10 + random.nextInt(30),
+                    1 + random.nextInt(40) / 10f,
+                    false,
+                    null,
+                    ""));
+        }
+        return books;
+    }
+
+    private static List<String> vocabulary(int size, Random random) {
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < size) {
+            int syllables = 2 + random.nextInt(3);
+            StringBuilder word = new StringBuilder();
+            for (int s = 0; s < syllables; s++) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            words.add(word.toString());
+        }
+        return new ArrayList<>(words);
+    }
+
+    // Skewed towards the start of the list: index ~ size * u^3
+    private static String pick(List<String> words, Random random) {
+        double u = random.nextDouble();
+        return words.get((int) (words.size() * u * u * u));
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
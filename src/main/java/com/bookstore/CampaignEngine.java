@@ -0,0 +1,405 @@
+package com.bookstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bookstore.db.AppProperties;
+import com.bookstore.db.DatabaseFactory;
+import com.bookstore.db.EmailCampaignDatabase;
+import com.bookstore.db.PromotionDatabase;
+import com.bookstore.db.UserDatabase;
+import com.bookstore.records.EmailCampaignRecords;
+import com.bookstore.records.UserRecords;
+
+/**
+ * Runs promotional email campaigns in the background.
+ *
+ * start() records the campaign in the EmailCampaign table and returns its ID
+ * at once. A single runner thread works through campaigns in the order they
+ * were started: it reads enrolled users one page at a time, in userID order,
+ * sends the page on a pool of worker threads, and once the whole page is done
+ * saves the page's last userID and the running counts as a checkpoint. Sends
+ * from all workers share one rate limit, so a campaign cannot exceed the SMTP
+ * provider's quota however many workers there are.
+ *
+ * A campaign interrupted by a shutdown or crash keeps status RUNNING;
+ * resumeIncomplete() (called at startup) continues each one after its
+ * checkpoint, so at most the page in flight is sent twice. When the last page
+ * is done the campaign is COMPLETED and, for a pushed promotion, the
+ * promotion is marked as pushed. A database error ends it as FAILED.
+ *
+ * Configured in db.properties:
+ *   email.campaign.workers               concurrent sends (default 4)
+ *   email.campaign.pageSize              users read and checkpointed at a time (default 200)
+ *   email.campaign.maxSendsPerSecond     across all workers, 0 for no limit (default 10)
+ *   email.campaign.drainTimeoutSeconds   how long shutdown waits for the page in flight (default 30)
+ */
+public class CampaignEngine {
+    private static final Logger LOGGER = Logger.getLogger(CampaignEngine.class.getName());
+
+    private static volatile CampaignEngine instance;
+
+    private final ExecutorService runner;
+    private final ThreadPoolExecutor workers;
+    private final RateLimiter rateLimiter;
+    private final int pageSize;
+    private final long drainTimeoutMs;
+    private volatile boolean stopping = false;
+
+    private final AtomicInteger queuedCampaigns = new AtomicInteger();
+    private volatile int activeCampaignID = -1;
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCampaignCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedSendCount = new AtomicLong();
+    private final AtomicLong throttledMillis = new AtomicLong();
+
+    /**
+     * Spaces sends evenly: each caller reserves the next free slot and sleeps
+     * until it arrives, so the rate holds across any number of threads
+     */
+    static final class RateLimiter {
+        private final long intervalNanos;
+        private long nextFreeNanos = System.nanoTime();
+
+        RateLimiter(long permitsPerSecond) {
+            this.intervalNanos = permitsPerSecond <= 0 ? 0 : 1_000_000_000L / permitsPerSecond;
+        }
+
+        /**
+         * Wait for the next send slot
+         * @return milliseconds spent waiting
+         */
+        long acquire() throws InterruptedException {
+            if (intervalNanos == 0) {
+                return 0;
+            }
+            long slot;
+            synchronized (this) {
+                long now = System.nanoTime();
+                slot = Math.max(now, nextFreeNanos);
+                nextFreeNanos = slot + intervalNanos;
+            }
+            long waitNanos = slot - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+                return waitNanos / 1_000_000L;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Get the process wide engine, creating it from db.properties on first use
+     * @return the shared engine
+     */
+    public static CampaignEngine getInstance() {
+        CampaignEngine engine = instance;
+        if (engine == null) {
+            synchronized (CampaignEngine.class) {
+                engine = instance;
+                if (engine == null) {
+                    engine = new CampaignEngine(AppProperties.load("email campaign settings"));
+                    instance = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Stop the shared engine if it was ever started, intended for server shutdown
+     */
+    public static void shutdownInstance() {
+        CampaignEngine engine;
+        synchronized (CampaignEngine.class) {
+            engine = instance;
+        }
+        if (engine != null) {
+            engine.shutdown();
+        }
+    }
+
+    public CampaignEngine(Properties props) {
+        int workerCount = (int) Math.max(1L, AppProperties.longProperty(props, "email.campaign.workers", 4L));
+        this.pageSize = (int) Math.max(1L, AppProperties.longProperty(props, "email.campaign.pageSize", 200L));
+        this.rateLimiter = new RateLimiter(Math.max(0L, AppProperties.longProperty(props, "email.campaign.maxSendsPerSecond", 10L)));
+        this.drainTimeoutMs = Math.max(0L, AppProperties.longProperty(props, "email.campaign.drainTimeoutSeconds", 30L)) * 1000L;
+
+        this.runner = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "email-campaign-runner");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger threadNumber = new AtomicInteger();
+        // The runner submits at most one page at a time, so the queue never needs more room than that
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(pageSize), r -> {
+                    Thread t = new Thread(r, "email-campaign-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Record a new campaign and queue it for sending
+     * @param promoID promotion to mark as pushed when the campaign completes, or null
+     * @param subject email subject
+     * @param message promotional message, wrapped in the standard greeting and footer
+     * @return the campaign ID, or -1 if it could not be saved or the engine is shut down
+     */
+    public int start(Integer promoID, String subject, String message) {
+        if (stopping) {
+            return -1;
+        }
+        EmailCampaignDatabase campaignDb = (EmailCampaignDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_CAMPAIGN);
+        if (!campaignDb.connectDb()) {
+            return -1;
+        }
+        EmailCampaignRecords campaign = new EmailCampaignRecords(promoID, subject, message);
+        try {
+            if (!"Campaign Added.".equals(campaignDb.addCampaign(campaign))) {
+                return -1;
+            }
+        } finally {
+            campaignDb.disconnectDb();
+        }
+        startedCount.incrementAndGet();
+        enqueue(campaign);
+        LOGGER.info("Email campaign " + campaign.getCampaignID() + " started: " + subject);
+        return campaign.getCampaignID();
+    }
+
+    /**
+     * Queue every campaign left RUNNING by a previous process, to continue after its checkpoint
+     * @return the number of campaigns resumed
+     */
+    public int resumeIncomplete() {
+        EmailCampaignDatabase campaignDb = (EmailCampaignDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_CAMPAIGN);
+        if (!campaignDb.connectDb()) {
+            LOGGER.warning("Cannot resume email campaigns: database connection failed");
+            return 0;
+        }
+        List<EmailCampaignRecords> running;
+        try {
+            running = campaignDb.getCampaignsByStatus(EmailCampaignRecords.STATUS_RUNNING);
+        } finally {
+            campaignDb.disconnectDb();
+        }
+        for (EmailCampaignRecords campaign : running) {
+            LOGGER.info("Resuming email campaign " + campaign.getCampaignID() + " after user " + campaign.getLastUserID());
+            enqueue(campaign);
+        }
+        return running.size();
+    }
+
+    private void enqueue(EmailCampaignRecords campaign) {
+        queuedCampaigns.incrementAndGet();
+        runner.execute(() -> {
+            queuedCampaigns.decrementAndGet();
+            activeCampaignID = campaign.getCampaignID();
+            try {
+                run(campaign);
+            } finally {
+                activeCampaignID = -1;
+            }
+        });
+    }
+
+    private void run(EmailCampaignRecords campaign) {
+        int campaignID = campaign.getCampaignID();
+        int lastUserID = campaign.getLastUserID();
+        int sent = campaign.getSentCount();
+        int failed = campaign.getFailedCount();
+        try {
+            while (!stopping) {
+                List<UserRecords> page = nextPage(lastUserID);
+                if (page == null) {
+                    finish(campaign, EmailCampaignRecords.STATUS_FAILED);
+                    return;
+                }
+                if (page.isEmpty()) {
+                    break;
+                }
+
+                List<Future<Boolean>> results = new ArrayList<>(page.size());
+                for (UserRecords user : page) {
+                    results.add(workers.submit(() -> send(user, campaign)));
+                }
+                for (Future<Boolean> result : results) {
+                    boolean ok;
+                    try {
+                        ok = result.get();
+                    } catch (ExecutionException e) {
+                        ok = false;
+                    }
+                    if (ok) {
+                        sent++;
+                    } else {
+                        failed++;
+                    }
+                }
+                lastUserID = page.get(page.size() - 1).getUserID();
+                if (!checkpoint(campaignID, lastUserID, sent, failed)) {
+                    finish(campaign, EmailCampaignRecords.STATUS_FAILED);
+                    return;
+                }
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shutdown timed out mid-page; the last checkpoint still stands
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Email campaign " + campaignID + " failed", e);
+            finish(campaign, EmailCampaignRecords.STATUS_FAILED);
+            return;
+        }
+        if (stopping) {
+            LOGGER.info("Email campaign " + campaignID + " paused at user " + lastUserID + " for shutdown");
+            return;
+        }
+        finish(campaign, EmailCampaignRecords.STATUS_COMPLETED);
+        LOGGER.info("Email campaign " + campaignID + " completed. Sent: " + sent + ", Failed: " + failed);
+    }
+
+    private boolean send(UserRecords user, EmailCampaignRecords campaign) throws InterruptedException {
+        throttledMillis.addAndGet(rateLimiter.acquire());
+        boolean ok = Email.sendPromotionalEmail(user.getEmail(), user.getFirstName(), campaign.getMessage(), campaign.getSubject());
+        if (ok) {
+            sentCount.incrementAndGet();
+        } else {
+            failedSendCount.incrementAndGet();
+        }
+        return ok;
+    }
+
+    // The connection is held only for the query, not while the page is sent; null on error
+    private List<UserRecords> nextPage(int afterUserID) {
+        UserDatabase userDb = (UserDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
+        if (!userDb.connectDb()) {
+            LOGGER.warning("Email campaign cannot read users: database connection failed");
+            return null;
+        }
+        try {
+            return userDb.getUsersEnrolledForPromotions(afterUserID, pageSize);
+        } finally {
+            userDb.disconnectDb();
+        }
+    }
+
+    private boolean checkpoint(int campaignID, int lastUserID, int sent, int failed) {
+        EmailCampaignDatabase campaignDb = (EmailCampaignDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_CAMPAIGN);
+        if (!campaignDb.connectDb()) {
+            LOGGER.warning("Email campaign " + campaignID + " cannot save progress: database connection failed");
+            return false;
+        }
+        try {
+            return "Campaign progress updated.".equals(campaignDb.updateCampaignProgress(campaignID, lastUserID, sent, failed));
+        } finally {
+            campaignDb.disconnectDb();
+        }
+    }
+
+    private void finish(EmailCampaignRecords campaign, String status) {
+        if (EmailCampaignRecords.STATUS_COMPLETED.equals(status)) {
+            completedCount.incrementAndGet();
+        } else {
+            failedCampaignCount.incrementAndGet();
+        }
+        EmailCampaignDatabase campaignDb = (EmailCampaignDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_CAMPAIGN);
+        if (campaignDb.connectDb()) {
+            try {
+                campaignDb.updateCampaignStatus(campaign.getCampaignID(), status);
+            } finally {
+                campaignDb.disconnectDb();
+            }
+        }
+        if (EmailCampaignRecords.STATUS_COMPLETED.equals(status) && campaign.getPromoID() != null) {
+            PromotionDatabase promotionDb = (PromotionDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.PROMOTION);
+            if (promotionDb.connectDb()) {
+                try {
+                    promotionDb.updatePromotionPushedStatus(campaign.getPromoID(), true);
+                } finally {
+                    promotionDb.disconnectDb();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop starting pages and wait up to the drain timeout for the page in flight to be
+     * sent and checkpointed; unfinished campaigns stay RUNNING and resume on the next start
+     */
+    public void shutdown() {
+        stopping = true;
+        runner.shutdown();
+        try {
+            if (!runner.awaitTermination(drainTimeoutMs, TimeUnit.MILLISECONDS)) {
+                runner.shutdownNow();
+                LOGGER.warning("Email campaign page not finished in time; it will be resent on restart");
+            }
+        } catch (InterruptedException e) {
+            runner.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+        LOGGER.info("Email campaign engine stopped. Sent: " + sentCount.get() + ", Failed: " + failedSendCount.get());
+    }
+
+    // Metrics
+
+    // Campaign being sent, or -1 if idle
+    public int getActiveCampaignID() {
+        return activeCampaignID;
+    }
+
+    // Campaigns waiting for the one in progress to finish
+    public int getQueuedCampaignCount() {
+        return queuedCampaigns.get();
+    }
+
+    public int getActiveSends() {
+        return workers.getActiveCount();
+    }
+
+    public long getStartedCount() {
+        return startedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getFailedCampaignCount() {
+        return failedCampaignCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedSendCount() {
+        return failedSendCount.get();
+    }
+
+    // Total time workers spent waiting on the send rate limit
+    public long getThrottledMillis() {
+        return throttledMillis.get();
+    }
+}
@@ -1,14 +1,15 @@
 package com.bookstore;
 
 import java.util.Properties;
-import java.util.ArrayList;
 import jakarta.mail.*;
 import jakarta.mail.internet.*;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import com.bookstore.db.AppProperties;
 import com.bookstore.db.UserDatabase;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;import com.bookstore.records.UserRecords;
+import com.bookstore.records.EmailOutboxRecords;
 import com.bookstore.SecUtils;
 
 /**
@@ -22,15 +23,107 @@ public class Email {
     
 
     /**
-     * Variables for email config
-     * username and pass allow for access to email acc
-     * do not modify these values since it will break functionality
+     * Variables for email config, read from db.properties:
+     *   email.smtp.host, email.smtp.port, email.smtp.username, email.smtp.password,
+     *   email.smtp.starttls (true/false) and email.from (defaults to the username)
+     * A JVM system property of the same name (-Demail.smtp.host=...) overrides the file,
+     * e.g. to point a benchmark at a local SMTP server. Without either, the shared
+     * dummy account below is used. An empty username turns SMTP authentication off.
      */
-    private static final String EMAIL = "csci4050mockbookstore@gmail.com";
-    private static final String HOST = "smtp.gmail.com";
-    private static final String PORT = "587";
-    private static final String USERNAME = "csci4050mockbookstore@gmail.com";
-    private static final String PASSWORD = "qtla dblc juor vqzn "; 
+    private static final Properties CONFIG = loadProperties();
+    private static final String HOST = CONFIG.getProperty("email.smtp.host", "smtp.gmail.com").trim();
+    private static final String PORT = CONFIG.getProperty("email.smtp.port", "587").trim();
+    private static final String USERNAME = CONFIG.getProperty("email.smtp.username", "csci4050mockbookstore@gmail.com").trim();
+    private static final String PASSWORD = CONFIG.getProperty("email.smtp.password", "qtla dblc juor vqzn ");
+    private static final String EMAIL = CONFIG.getProperty("email.from", USERNAME).trim();
+    private static final boolean STARTTLS = Boolean.parseBoolean(CONFIG.getProperty("email.smtp.starttls", "true").trim());
+
+    /**
+     * One Session and one pool of connected transports for all mail,
+     * so messages reuse authenticated SMTP connections
+     */
+    private static final Session SESSION = createSession(HOST, PORT, USERNAME, PASSWORD, STARTTLS);
+    private static final SmtpTransportPool TRANSPORTS =
+            new SmtpTransportPool(SESSION, HOST, Integer.parseInt(PORT), USERNAME, PASSWORD, CONFIG);
+
+    static Session createSession(String host, String port, String username, String password, boolean starttls) {
+        boolean auth = username != null && !username.isEmpty();
+        Properties props = new Properties();
+        props.put("mail.smtp.auth", String.valueOf(auth));
+        props.put("mail.smtp.starttls.enable", String.valueOf(starttls));
+        props.put("mail.smtp.host", host);
+        props.put("mail.smtp.port", port);
+        // Pooled connections must not hang a sender forever on a dead socket
+        props.put("mail.smtp.connectiontimeout", "10000");
+        props.put("mail.smtp.timeout", "10000");
+        props.put("mail.smtp.writetimeout", "10000");
+        if (!auth) {
+            return Session.getInstance(props);
+        }
+        return Session.getInstance(props, new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication(username, password);
+            }
+        });
+    }
+
+    // db.properties, with email.* system properties layered on top
+    private static Properties loadProperties() {
+        Properties props = AppProperties.load("SMTP settings");
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("email.")) {
+                props.setProperty(key, System.getProperty(key));
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Close pooled SMTP connections, intended for server shutdown
+     */
+    public static void shutdown() {
+        TRANSPORTS.close();
+    }
+
+    // Pool metrics, e.g. for checking connection reuse
+    public static SmtpTransportPool getTransportPool() {
+        return TRANSPORTS;
+    }
+
+    /**
+     * Sends one plain text email, used by the outbox sender for emails rendered earlier
+     * @throws MessagingException if the address is invalid or the SMTP server could not be reached
+     */
+    public static void send(String recipient, String subject, String body) throws MessagingException {
+        TRANSPORTS.send(createMessage(SESSION, recipient, subject, body));
+    }
+
+    // A plain text message from the configured sender address
+    static Message createMessage(Session session, String recipient, String subject, String body) throws MessagingException {
+        Message message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(EMAIL));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(recipient));
+        message.setSubject(subject);
+        message.setText(body);
+        return message;
+    }
+
+    // Sends a rendered email right away, logging the outcome
+    private static boolean sendNow(EmailOutboxRecords email, String description) {
+        if (email.getRecipient() == null || email.getRecipient().trim().isEmpty()) {
+            LOGGER.warning("Cannot send " + description + ": user email is null or empty");
+            return false;
+        }
+        try {
+            send(email.getRecipient(), email.getSubject(), email.getBody());
+            LOGGER.info("Sent " + description + " to: " + email.getRecipient());
+            return true;
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Failed to send " + description + " to: " + email.getRecipient(), e);
+            return false;
+        }
+    }
     
     /**
      * Sends a profile change notification email to the user by user ID
@@ -69,23 +162,8 @@ public class Email {
         }
         
         try {
-            // Set up mail server properties
-            Properties props = new Properties();
-            props.put("mail.smtp.auth", "true");
-            props.put("mail.smtp.starttls.enable", "true");
-            props.put("mail.smtp.host", HOST);
-            props.put("mail.smtp.port", PORT);
-            
-            // Create session with authentication
-            Session session = Session.getInstance(props, new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(USERNAME, PASSWORD);
-                }
-            });
-            
             // Create message
-            Message message = new MimeMessage(session);
+            Message message = new MimeMessage(SESSION);
             message.setFrom(new InternetAddress(EMAIL));
             message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(userEmail));
             message.setSubject("Profile Information Updated - Bookstore");
@@ -95,7 +173,7 @@ public class Email {
             message.setText(emailBody);
             
             // Send message
-            Transport.send(message);
+            TRANSPORTS.send(message);
             return true;
             
         } catch (Exception e) {
@@ -117,45 +195,12 @@ public class Email {
     }
 
     /**
-     * Sends an email verification email to the user
-     * 
+     * Renders the verification email for the outbox
      */
-    public static boolean sendVerificationEmail(String userEmail, String userName, String verificationToken, String baseUrl, Integer loginUserID) {
-        if (userEmail == null || userEmail.trim().isEmpty()) {
-            LOGGER.warning("Cannot send verification email: user email is null or empty");
-            return false;
-        }
-        
-        try {
-            Properties props = new Properties();
-            props.put("mail.smtp.auth", "true");
-            props.put("mail.smtp.starttls.enable", "true");
-            props.put("mail.smtp.host", HOST);
-            props.put("mail.smtp.port", PORT);
-            
-            Session session = Session.getInstance(props, new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(USERNAME, PASSWORD);
-                }
-            });
-            
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(EMAIL));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(userEmail));
-            message.setSubject("Verify Your Email - Bookstore Account");
-            
-            String emailBody = createVerificationEmailBody(userName, verificationToken, baseUrl, loginUserID);
-            message.setText(emailBody);
-            
-            Transport.send(message);
-            LOGGER.info("Verification email sent successfully to: " + userEmail);
-            return true;
-            
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Failed to send verification email to: " + userEmail, e);
-            return false;
-        }
+    public static EmailOutboxRecords verificationEmail(String userEmail, String userName, String verificationToken, String baseUrl, Integer loginUserID) {
+        return new EmailOutboxRecords(EmailOutboxRecords.TYPE_VERIFICATION, userEmail,
+                "Verify Your Email - Bookstore Account",
+                createVerificationEmailBody(userName, verificationToken, baseUrl, loginUserID));
     }
 
     /**
@@ -177,138 +222,36 @@ public class Email {
         return body;
     }
     
-    public static boolean sendPasswordResetEmail(String userEmail, String userName, String resetToken, String baseUrl) {
-        if (userEmail == null || userEmail.trim().isEmpty()) {
-            LOGGER.warning("Cannot send password reset email: user email is null or empty");
-            return false;
-        }
-        try {
-            Properties props = new Properties();
-            props.put("mail.smtp.auth", "true");
-            props.put("mail.smtp.starttls.enable", "true");
-            props.put("mail.smtp.host", HOST);
-            props.put("mail.smtp.port", PORT);
-
-            Session session = Session.getInstance(props, new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(USERNAME, PASSWORD);
-                }
-            });
-
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(EMAIL));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(userEmail));
-            message.setSubject("Password Reset - Bookstore");
-
-            String emailBody = "Hello " + userName + ",\n\n"
-                + "You requested a password reset. Click the link below to reset your password:\n\n"
-                + baseUrl + "/reset-password?token=" + resetToken + "\n\n"
-                + "If you did not request this, please ignore this email.\n";
-            message.setText(emailBody);
-
-            Transport.send(message);
-            LOGGER.info("Password reset email sent successfully to: " + userEmail);
-            return true;
-
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Failed to send password reset email to: " + userEmail, e);
-            return false;
-        }
-    }
-    
     /**
-     * Sends promotional emails to all users enrolled for promotions
-     * @param promotionMessage The promotional message to send
-     * @param subject The email subject
-     * @return true if all emails were sent successfully, false if any failed
+     * Renders the password reset email for the outbox
      */
-    public static boolean sendPromotionalEmails(String promotionMessage, String subject) {
-        DatabaseInterface userDB = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
-        boolean allEmailsSent = true;
-        int successCount = 0;
-        int failCount = 0;
-        
-        try {
-            if (!userDB.connectDb()) {
-                LOGGER.warning("Cannot send promotional emails: database connection failed");
-                return false;
-            }
-            
-            ArrayList<UserRecords> promotionUsers = ((UserDatabase) userDB).getUsersEnrolledForPromotions();
-            LOGGER.info("Found " + promotionUsers.size() + " users enrolled for promotions");
-            
-            if (promotionUsers.isEmpty()) {
-                LOGGER.info("No users enrolled for promotions found");
-                return true; // Not a failure, just no users to email
-            }
-            
-            for (UserRecords user : promotionUsers) {
-                boolean emailSent = sendPromotionalEmail(user.getEmail(), user.getFirstName(), promotionMessage, subject);
-                if (emailSent) {
-                    successCount++;
-                } else {
-                    failCount++;
-                    allEmailsSent = false;
-                }
-            }
-            
-            LOGGER.info("Promotional email campaign completed. Success: " + successCount + ", Failed: " + failCount);
-            
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Failed to send promotional emails", e);
-            return false;
-        } finally {
-            userDB.disconnectDb();
-        }
-        
-        return allEmailsSent;
+    public static EmailOutboxRecords passwordResetEmail(String userEmail, String userName, String resetToken, String baseUrl) {
+        String emailBody = "Hello " + userName + ",\n\n"
+            + "You requested a password reset. Click the link below to reset your password:\n\n"
+            + baseUrl + "/reset-password?token=" + resetToken + "\n\n"
+            + "If you did not request this, please ignore this email.\n";
+        return new EmailOutboxRecords(EmailOutboxRecords.TYPE_PASSWORD_RESET, userEmail,
+                "Password Reset - Bookstore", emailBody);
     }
     
     /**
-     * Sends a promotional email to a single user
+     * Sends a promotional email to a single user; campaigns are sent by CampaignEngine
      * @param userEmail The user's email address
      * @param userName The user's first name
      * @param promotionMessage The promotional message
      * @param subject The email subject
      * @return true if email was sent successfully
      */
-    private static boolean sendPromotionalEmail(String userEmail, String userName, String promotionMessage, String subject) {
-        if (userEmail == null || userEmail.trim().isEmpty()) {
-            LOGGER.warning("Cannot send promotional email: user email is null or empty");
-            return false;
-        }
-        
-        try {
-            Properties props = new Properties();
-            props.put("mail.smtp.auth", "true");
-            props.put("mail.smtp.starttls.enable", "true");
-            props.put("mail.smtp.host", HOST);
-            props.put("mail.smtp.port", PORT);
-            
-            Session session = Session.getInstance(props, new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(USERNAME, PASSWORD);
-                }
-            });
-            
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(EMAIL));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(userEmail));
-            message.setSubject(subject);
-            
-            String emailBody = createPromotionalEmailBody(userName, promotionMessage);
-            message.setText(emailBody);
-            
-            Transport.send(message);
-            LOGGER.info("Promotional email sent successfully to: " + userEmail);
-            return true;
-            
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Failed to send promotional email to: " + userEmail, e);
-            return false;
-        }
+    static boolean sendPromotionalEmail(String userEmail, String userName, String promotionMessage, String subject) {
+        return sendNow(promotionalEmail(userEmail, userName, promotionMessage, subject), "promotional email");
+    }
+
+    /**
+     * Renders a promotional email for one user
+     */
+    public static EmailOutboxRecords promotionalEmail(String userEmail, String userName, String promotionMessage, String subject) {
+        return new EmailOutboxRecords(EmailOutboxRecords.TYPE_PROMOTIONAL, userEmail, subject,
+                createPromotionalEmailBody(userName, promotionMessage));
     }
     
     /**
@@ -325,48 +268,15 @@ public class Email {
     }
 
     /**
-     * Sends order confirmation email with all order details including
-     * payment card info, billing address, shipping address, and order items
+     * Renders the order confirmation email for the outbox
      */
-    public static boolean sendOrderConfirmationEmail(String userEmail, String userName, 
-            String orderDetails, String paymentInfo, String billingAddress, 
+    public static EmailOutboxRecords orderConfirmationEmail(String userEmail, String userName,
+            String orderDetails, String paymentInfo, String billingAddress,
             String shippingAddress, double totalAmount) {
-        if (userEmail == null || userEmail.trim().isEmpty()) {
-            LOGGER.warning("Cannot send order confirmation email: user email is null or empty");
-            return false;
-        }
-        
-        try {
-            Properties props = new Properties();
-            props.put("mail.smtp.auth", "true");
-            props.put("mail.smtp.starttls.enable", "true");
-            props.put("mail.smtp.host", HOST);
-            props.put("mail.smtp.port", PORT);
-            
-            Session session = Session.getInstance(props, new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(USERNAME, PASSWORD);
-                }
-            });
-            
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(EMAIL));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(userEmail));
-            message.setSubject("Order Confirmation - Your Bookstore Purchase");
-            
-            String emailBody = createOrderConfirmationEmailBody(userName, orderDetails, 
-                    paymentInfo, billingAddress, shippingAddress, totalAmount);
-            message.setText(emailBody);
-            
-            Transport.send(message);
-            LOGGER.info("Order confirmation email sent successfully to: " + userEmail);
-            return true;
-            
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Failed to send order confirmation email to: " + userEmail, e);
-            return false;
-        }
+        return new EmailOutboxRecords(EmailOutboxRecords.TYPE_ORDER_CONFIRMATION, userEmail,
+                "Order Confirmation - Your Bookstore Purchase",
+                createOrderConfirmationEmailBody(userName, orderDetails, paymentInfo,
+                        billingAddress, shippingAddress, totalAmount));
     }
 
     /**
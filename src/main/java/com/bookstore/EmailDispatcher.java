@@ -0,0 +1,192 @@
+package com.bookstore;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bookstore.db.AppProperties;
+
+/**
+ * Sends emails off the request threads.
+ *
+ * Servlets submit a send (usually a call to one of the Email methods) and
+ * return at once; a small pool of worker threads takes sends from a bounded
+ * queue and performs the SMTP exchange. When the queue is full, submit
+ * returns false instead of blocking the request. shutdown() stops accepting
+ * new sends and waits for the queue to drain, up to a timeout.
+ *
+ * Configured in db.properties:
+ *   email.dispatch.workers            worker threads (default 2)
+ *   email.dispatch.queueCapacity      sends waiting for a worker (default 1000)
+ *   email.dispatch.drainTimeoutSeconds how long shutdown waits for the queue (default 30)
+ */
+public class EmailDispatcher {
+    private static final Logger LOGGER = Logger.getLogger(EmailDispatcher.class.getName());
+
+    private static volatile EmailDispatcher instance;
+
+    private final ThreadPoolExecutor executor;
+    private final long drainTimeoutMs;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalSendMillis = new AtomicLong();
+    private final AtomicLong maxSendMillis = new AtomicLong();
+    private final AtomicLong totalQueueMillis = new AtomicLong();
+
+    /**
+     * Get the process wide dispatcher, creating it from db.properties on first use
+     * @return the shared dispatcher
+     */
+    public static EmailDispatcher getInstance() {
+        EmailDispatcher dispatcher = instance;
+        if (dispatcher == null) {
+            synchronized (EmailDispatcher.class) {
+                dispatcher = instance;
+                if (dispatcher == null) {
+                    dispatcher = new EmailDispatcher(AppProperties.load("email dispatch settings"));
+                    instance = dispatcher;
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Drain and stop the shared dispatcher if it was ever started, intended for server shutdown
+     */
+    public static void shutdownInstance() {
+        EmailDispatcher dispatcher;
+        synchronized (EmailDispatcher.class) {
+            dispatcher = instance;
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    public EmailDispatcher(Properties props) {
+        int workers = (int) Math.max(1L, AppProperties.longProperty(props, "email.dispatch.workers", 2L));
+        int capacity = (int) Math.max(1L, AppProperties.longProperty(props, "email.dispatch.queueCapacity", 1000L));
+        this.drainTimeoutMs = Math.max(0L, AppProperties.longProperty(props, "email.dispatch.drainTimeoutSeconds", 30L)) * 1000L;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), r -> {
+                    Thread t = new Thread(r, "email-dispatch-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Queue an email for sending by a worker thread
+     * @param description what is being sent, for the log (e.g. "order confirmation to a@b.com")
+     * @param send performs the send and returns true on success
+     * @return true if queued, false if the queue is full or the dispatcher is shut down
+     */
+    public boolean submit(String description, BooleanSupplier send) {
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> run(description, send, queuedAt));
+            submittedCount.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            LOGGER.warning("Email queue full or shut down, dropped: " + description);
+            return false;
+        }
+    }
+
+    private void run(String description, BooleanSupplier send, long queuedAt) {
+        long start = System.nanoTime();
+        totalQueueMillis.addAndGet((start - queuedAt) / 1_000_000L);
+        boolean sent;
+        try {
+            sent = send.getAsBoolean();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Email send threw: " + description, e);
+            sent = false;
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000L;
+        totalSendMillis.addAndGet(millis);
+        maxSendMillis.accumulateAndGet(millis, Math::max);
+        if (sent) {
+            sentCount.incrementAndGet();
+        } else {
+            failedCount.incrementAndGet();
+            LOGGER.warning("Email send failed: " + description);
+        }
+    }
+
+    /**
+     * Stop accepting sends and wait up to the drain timeout for queued ones to finish;
+     * anything still queued after that is dropped and logged
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(drainTimeoutMs, TimeUnit.MILLISECONDS)) {
+                List<Runnable> dropped = executor.shutdownNow();
+                LOGGER.warning("Email queue not drained in time, dropped " + dropped.size() + " queued emails");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Email dispatcher stopped. Sent: " + sentCount.get() + ", Failed: " + failedCount.get()
+                + ", Rejected: " + rejectedCount.get());
+    }
+
+    // Metrics
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveSends() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    // Sends refused because the queue was full or the dispatcher was shut down
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getAverageSendMillis() {
+        long done = sentCount.get() + failedCount.get();
+        return done == 0 ? 0 : totalSendMillis.get() / done;
+    }
+
+    public long getMaxSendMillis() {
+        return maxSendMillis.get();
+    }
+
+    // Average time a send waited in the queue before a worker picked it up
+    public long getAverageQueueMillis() {
+        long done = sentCount.get() + failedCount.get();
+        return done == 0 ? 0 : totalQueueMillis.get() / done;
+    }
+}
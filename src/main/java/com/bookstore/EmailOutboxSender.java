@@ -0,0 +1,422 @@
+package com.bookstore;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.mail.MessagingException;
+
+import com.bookstore.db.AppProperties;
+import com.bookstore.db.DatabaseFactory;
+import com.bookstore.db.EmailOutboxDatabase;
+import com.bookstore.records.EmailOutboxRecords;
+
+/**
+ * Delivers the emails in the EmailOutbox table.
+ *
+ * Servlets never talk to SMTP for these emails: they insert an outbox row in
+ * the same transaction as the change the email announces, so the email is
+ * sent exactly when that change commits, even if SMTP is down at the time.
+ * A poller thread claims due rows in batches (SELECT ... FOR UPDATE SKIP
+ * LOCKED, so several servers can share the table without sending twice),
+ * sends them on a few worker threads, and records each outcome. A failed
+ * send is retried after an exponential backoff with jitter; after
+ * maxAttempts the row is left DEAD with its last error. A claim is a lease:
+ * rows claimed by a server that died are picked up again once it expires.
+ *
+ * The poller sleeps pollIntervalMs between empty polls; wakeUp() cuts the
+ * sleep short after a servlet commits a new email.
+ *
+ * Configured in db.properties:
+ *   email.outbox.workers            concurrent sends (default 2)
+ *   email.outbox.batchSize          rows claimed per poll (default 20)
+ *   email.outbox.pollIntervalMs     sleep when there is nothing due (default 1000)
+ *   email.outbox.leaseSeconds       claim lifetime before another sender may retry (default 120)
+ *   email.outbox.maxAttempts        sends before giving up (default 8)
+ *   email.outbox.backoffBaseSeconds delay after the first failure, doubled per attempt (default 30)
+ *   email.outbox.backoffMaxSeconds  longest delay between attempts (default 3600)
+ *   email.outbox.retentionDays      sent rows older than this are deleted, 0 keeps them (default 7)
+ *   email.outbox.drainTimeoutSeconds how long shutdown waits for the batch in flight (default 30)
+ */
+public class EmailOutboxSender {
+    private static final Logger LOGGER = Logger.getLogger(EmailOutboxSender.class.getName());
+    private static final long PURGE_INTERVAL_MS = 60L * 60L * 1000L;
+
+    private static volatile EmailOutboxSender instance;
+
+    /**
+     * Performs the SMTP exchange for one email; replaceable so the sender can be
+     * pointed at a local SMTP stand-in
+     */
+    public interface Transport {
+        void send(EmailOutboxRecords email) throws MessagingException;
+    }
+
+    private final Transport transport;
+    private final ExecutorService workers;
+    private final int batchSize;
+    private final long pollIntervalMs;
+    private final int leaseSeconds;
+    private final int maxAttempts;
+    private final long backoffBaseSeconds;
+    private final long backoffMaxSeconds;
+    private final int retentionDays;
+    private final long drainTimeoutMs;
+
+    private Thread poller;
+    private volatile boolean stopping = false;
+    private final Object wakeLock = new Object();
+    private boolean wakeRequested = false;
+    private long lastPurgeMillis = 0;
+
+    private final long startedAtMillis = System.currentTimeMillis();
+    private final AtomicLong claimedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+    private final AtomicLong pollFailureCount = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private volatile long lastLagMillis = 0;
+
+    /**
+     * Get the process wide sender, creating it from db.properties on first use;
+     * it does not poll until start() is called
+     * @return the shared sender
+     */
+    public static EmailOutboxSender getInstance() {
+        EmailOutboxSender sender = instance;
+        if (sender == null) {
+            synchronized (EmailOutboxSender.class) {
+                sender = instance;
+                if (sender == null) {
+                    sender = new EmailOutboxSender(AppProperties.load("email outbox settings"),
+                            email -> Email.send(email.getRecipient(), email.getSubject(), email.getBody()));
+                    instance = sender;
+                }
+            }
+        }
+        return sender;
+    }
+
+    /**
+     * Stop the shared sender if it was ever created, intended for server shutdown
+     */
+    public static void shutdownInstance() {
+        EmailOutboxSender sender;
+        synchronized (EmailOutboxSender.class) {
+            sender = instance;
+        }
+        if (sender != null) {
+            sender.shutdown();
+        }
+    }
+
+    public EmailOutboxSender(Properties props, Transport transport) {
+        this.transport = transport;
+        int workerCount = (int) Math.max(1L, AppProperties.longProperty(props, "email.outbox.workers", 2L));
+        this.batchSize = (int) Math.max(1L, AppProperties.longProperty(props, "email.outbox.batchSize", 20L));
+        this.pollIntervalMs = Math.max(10L, AppProperties.longProperty(props, "email.outbox.pollIntervalMs", 1000L));
+        this.leaseSeconds = (int) Math.max(1L, AppProperties.longProperty(props, "email.outbox.leaseSeconds", 120L));
+        this.maxAttempts = (int) Math.max(1L, AppProperties.longProperty(props, "email.outbox.maxAttempts", 8L));
+        this.backoffBaseSeconds = Math.max(1L, AppProperties.longProperty(props, "email.outbox.backoffBaseSeconds", 30L));
+        this.backoffMaxSeconds = Math.max(backoffBaseSeconds, AppProperties.longProperty(props, "email.outbox.backoffMaxSeconds", 3600L));
+        this.retentionDays = (int) Math.max(0L, AppProperties.longProperty(props, "email.outbox.retentionDays", 7L));
+        this.drainTimeoutMs = Math.max(0L, AppProperties.longProperty(props, "email.outbox.drainTimeoutSeconds", 30L)) * 1000L;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "email-outbox-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start polling the outbox; calling it again has no effect
+     */
+    public synchronized void start() {
+        if (poller != null || stopping) {
+            return;
+        }
+        poller = new Thread(this::pollLoop, "email-outbox-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * Poll now instead of at the end of the current sleep, e.g. after committing a new email
+     */
+    public void wakeUp() {
+        synchronized (wakeLock) {
+            wakeRequested = true;
+            wakeLock.notifyAll();
+        }
+    }
+
+    private void pollLoop() {
+        while (!stopping) {
+            int claimed;
+            try {
+                claimed = pollOnce();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Email outbox poll failed", e);
+                claimed = 0;
+            }
+            purgeIfDue();
+            // A full batch means more is probably due, so poll again at once
+            if (claimed < batchSize) {
+                try {
+                    synchronized (wakeLock) {
+                        if (!wakeRequested && !stopping) {
+                            wakeLock.wait(pollIntervalMs);
+                        }
+                        wakeRequested = false;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claim one batch of due emails and send it
+     * @return the number of emails claimed
+     */
+    int pollOnce() throws InterruptedException {
+        List<EmailOutboxRecords> batch;
+        EmailOutboxDatabase outboxDb = (EmailOutboxDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_OUTBOX);
+        if (!outboxDb.connectDb()) {
+            pollFailureCount.incrementAndGet();
+            return 0;
+        }
+        try {
+            batch = outboxDb.claimDueEmails(batchSize, leaseSeconds);
+        } catch (SQLException e) {
+            pollFailureCount.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Could not claim emails from the outbox", e);
+            return 0;
+        } finally {
+            outboxDb.disconnectDb();
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        claimedCount.addAndGet(batch.size());
+
+        List<Future<?>> sends = new ArrayList<>(batch.size());
+        for (EmailOutboxRecords email : batch) {
+            sends.add(workers.submit(() -> deliver(email)));
+        }
+        for (Future<?> send : sends) {
+            try {
+                send.get();
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.SEVERE, "Email outbox send threw", e.getCause());
+            }
+        }
+        return batch.size();
+    }
+
+    private void deliver(EmailOutboxRecords email) {
+        String error = null;
+        try {
+            transport.send(email);
+        } catch (MessagingException | RuntimeException e) {
+            error = e.toString();
+        }
+
+        EmailOutboxDatabase outboxDb = (EmailOutboxDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_OUTBOX);
+        if (!outboxDb.connectDb()) {
+            // The lease runs out and the email is sent again; better twice than never
+            LOGGER.warning("Could not record outcome of outbox email " + email.getOutboxID());
+            return;
+        }
+        try {
+            // Outcomes are only counted when this sender still held the email; if its lease ran
+            // out mid-send, whichever sender claimed it next records the outcome instead
+            if (error == null) {
+                String result = outboxDb.markSent(email.getOutboxID(), email.getAttempts());
+                if (!"Email marked sent.".equals(result)) {
+                    LOGGER.warning("Outbox email " + email.getOutboxID() + " was sent but not marked sent: " + result);
+                    return;
+                }
+                sentCount.incrementAndGet();
+                if (email.getCreatedAt() != null) {
+                    long lag = Math.max(0L, System.currentTimeMillis() - email.getCreatedAt().getTime());
+                    lastLagMillis = lag;
+                    totalLagMillis.addAndGet(lag);
+                    maxLagMillis.accumulateAndGet(lag, Math::max);
+                }
+            } else if (email.getAttempts() >= maxAttempts) {
+                String result = outboxDb.markDead(email.getOutboxID(), email.getAttempts(), error);
+                if (!"Email marked dead.".equals(result)) {
+                    LOGGER.warning("Outbox email " + email.getOutboxID() + " failed but was not marked dead: " + result);
+                    return;
+                }
+                deadLetterCount.incrementAndGet();
+                LOGGER.severe("Giving up on " + email.getEmailType() + " email " + email.getOutboxID()
+                        + " to " + email.getRecipient() + " after " + email.getAttempts() + " attempts: " + error);
+            } else {
+                long delay = backoffSeconds(email.getAttempts());
+                String result = outboxDb.markRetry(email.getOutboxID(), email.getAttempts(), delay, error);
+                if (!"Email scheduled for retry.".equals(result)) {
+                    LOGGER.warning("Outbox email " + email.getOutboxID() + " failed but was not rescheduled: " + result);
+                    return;
+                }
+                retryCount.incrementAndGet();
+                LOGGER.warning("Outbox email " + email.getOutboxID() + " failed (attempt " + email.getAttempts()
+                        + "), retrying in " + delay + "s: " + error);
+            }
+        } finally {
+            outboxDb.disconnectDb();
+        }
+    }
+
+    // base * 2^(attempts - 1) plus up to 20% jitter so failed emails do not retry in lockstep, capped
+    long backoffSeconds(int attempts) {
+        int doublings = Math.min(Math.max(0, attempts - 1), 30);
+        long delay = Math.min(backoffMaxSeconds, backoffBaseSeconds << doublings);
+        return Math.min(backoffMaxSeconds, delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1));
+    }
+
+    private void purgeIfDue() {
+        long now = System.currentTimeMillis();
+        if (retentionDays == 0 || now - lastPurgeMillis < PURGE_INTERVAL_MS) {
+            return;
+        }
+        lastPurgeMillis = now;
+        EmailOutboxDatabase outboxDb = (EmailOutboxDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_OUTBOX);
+        if (outboxDb.connectDb()) {
+            try {
+                outboxDb.deleteSentBefore(retentionDays);
+            } finally {
+                outboxDb.disconnectDb();
+            }
+        }
+    }
+
+    /**
+     * Stop polling and wait for the batch in flight; emails claimed but not sent
+     * are retried by the next sender once their lease expires
+     */
+    public void shutdown() {
+        Thread current;
+        synchronized (this) {
+            stopping = true;
+            current = poller;
+        }
+        wakeUp();
+        if (current != null) {
+            try {
+                current.join(Math.max(1L, drainTimeoutMs));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.shutdownNow();
+        LOGGER.info("Email outbox sender stopped. Sent: " + sentCount.get() + ", Retried: " + retryCount.get()
+                + ", Dead: " + deadLetterCount.get());
+    }
+
+    // Metrics
+
+    public long getClaimedCount() {
+        return claimedCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    // Sends per second since this sender was created
+    public double getSendsPerSecond() {
+        long elapsed = Math.max(1L, System.currentTimeMillis() - startedAtMillis);
+        return sentCount.get() * 1000.0 / elapsed;
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    // Emails this sender gave up on; getDeadLetterBacklog() counts every DEAD row
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    // Polls that could not reach the database
+    public long getPollFailureCount() {
+        return pollFailureCount.get();
+    }
+
+    // Lag is the time from an email's insert to its delivery
+    public long getAverageLagMillis() {
+        long sent = sentCount.get();
+        return sent == 0 ? 0 : totalLagMillis.get() / sent;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    // The following read the outbox table, so they reflect every sender; -1 if it cannot be read
+
+    // Emails waiting to be sent, including claimed ones
+    public long getPendingBacklog() {
+        EmailOutboxDatabase outboxDb = (EmailOutboxDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_OUTBOX);
+        if (!outboxDb.connectDb()) {
+            return -1;
+        }
+        try {
+            long pending = outboxDb.countByStatus(EmailOutboxRecords.STATUS_PENDING);
+            long sending = outboxDb.countByStatus(EmailOutboxRecords.STATUS_SENDING);
+            return pending < 0 || sending < 0 ? -1 : pending + sending;
+        } finally {
+            outboxDb.disconnectDb();
+        }
+    }
+
+    // Age of the oldest email still waiting, i.e. the current delivery lag
+    public long getOldestPendingAgeMillis() {
+        EmailOutboxDatabase outboxDb = (EmailOutboxDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_OUTBOX);
+        if (!outboxDb.connectDb()) {
+            return -1;
+        }
+        try {
+            return outboxDb.getOldestUnsentAgeMillis();
+        } finally {
+            outboxDb.disconnectDb();
+        }
+    }
+
+    public long getDeadLetterBacklog() {
+        EmailOutboxDatabase outboxDb = (EmailOutboxDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_OUTBOX);
+        if (!outboxDb.connectDb()) {
+            return -1;
+        }
+        try {
+            return outboxDb.countByStatus(EmailOutboxRecords.STATUS_DEAD);
+        } finally {
+            outboxDb.disconnectDb();
+        }
+    }
+}
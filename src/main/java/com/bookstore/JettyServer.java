@@ -11,6 +11,7 @@ import com.bookstore.web.EditUserServlet;
 import com.bookstore.web.LoginServlet;
 import com.bookstore.web.SecurityServlet;
 import com.bookstore.web.RegistrationServlet;
+import com.bookstore.web.AppLifecycleListener;
 
 /*
  * Main class for the Jetty server
@@ -37,6 +38,8 @@ public class JettyServer {
         // Servlet context handler
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         context.setContextPath("/");
+        // Drains the email queue and closes the connection pool when the server stops
+        context.addEventListener(new AppLifecycleListener());
         
         // Configure the servlet
         ServletHolder servletHolder = new ServletHolder(new BookServlet());
@@ -49,9 +52,14 @@ public class JettyServer {
         
         // Add other servlets
         context.addServlet(new ServletHolder(new EditUserServlet()), "/api/user/*");
-        context.addServlet(new ServletHolder(new LoginServlet()), "/api/auth/*");
+        // Login and registration answer asynchronously while passwords are hashed
+        ServletHolder loginHolder = new ServletHolder(new LoginServlet());
+        loginHolder.setAsyncSupported(true);
+        context.addServlet(loginHolder, "/api/auth/*");
         context.addServlet(new ServletHolder(new SecurityServlet()), "/api/security/*");
-        context.addServlet(new ServletHolder(new RegistrationServlet()), "/api/register/*");
+        ServletHolder registrationHolder = new ServletHolder(new RegistrationServlet());
+        registrationHolder.setAsyncSupported(true);
+        context.addServlet(registrationHolder, "/api/register/*");
         
         // Add handlers to the list
         handlers.addHandler(webappHandler);
@@ -59,6 +67,8 @@ public class JettyServer {
         handlers.addHandler(context);
         
         server.setHandler(handlers);
+        // Stop gracefully (running AppLifecycleListener) on Ctrl+C or SIGTERM
+        server.setStopAtShutdown(true);
         
         // Start the server and show available endpoints
         try {
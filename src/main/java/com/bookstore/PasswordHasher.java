@@ -0,0 +1,236 @@
+package com.bookstore;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import com.bookstore.db.AppProperties;
+
+/**
+ * Runs BCrypt password hashing and verification on a dedicated, bounded pool.
+ *
+ * A BCrypt hash at cost 12 keeps a core busy for a few hundred milliseconds,
+ * so a burst of logins or registrations on the request threads would take
+ * every core away from the rest of the site. Here at most a fixed number of
+ * hashes run at once and a bounded queue holds the next ones; when the queue
+ * is full, hash and verify throw RejectedExecutionException at once, and the
+ * caller should answer 503 rather than wait. A queued task that waited longer
+ * than the maximum queue wait is skipped and its future fails with
+ * RejectedExecutionException too, since its client has most likely given up.
+ *
+ * Configured in db.properties:
+ *   security.hash.workers         hashing threads (default half the cores, at least 1)
+ *   security.hash.queueCapacity   hashes waiting for a thread (default 32)
+ *   security.hash.maxQueueWaitMs  longest a hash may wait before it is skipped (default 5000)
+ */
+public class PasswordHasher {
+    private static final Logger LOGGER = Logger.getLogger(PasswordHasher.class.getName());
+
+    private static volatile PasswordHasher instance;
+
+    private final ThreadPoolExecutor executor;
+    private final long maxQueueWaitNanos;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong hashCount = new AtomicLong();
+    private final AtomicLong totalHashMillis = new AtomicLong();
+    private final AtomicLong maxHashMillis = new AtomicLong();
+    private final AtomicLong verifyCount = new AtomicLong();
+    private final AtomicLong totalVerifyMillis = new AtomicLong();
+    private final AtomicLong maxVerifyMillis = new AtomicLong();
+    private final AtomicLong totalQueueMillis = new AtomicLong();
+    private final AtomicLong maxQueueMillis = new AtomicLong();
+
+    /**
+     * Get the process wide hasher, creating it from db.properties on first use
+     * @return the shared hasher
+     */
+    public static PasswordHasher getInstance() {
+        PasswordHasher hasher = instance;
+        if (hasher == null) {
+            synchronized (PasswordHasher.class) {
+                hasher = instance;
+                if (hasher == null) {
+                    hasher = new PasswordHasher(AppProperties.load("password hashing settings"));
+                    instance = hasher;
+                }
+            }
+        }
+        return hasher;
+    }
+
+    /**
+     * Stop the shared hasher if it was ever started, intended for server shutdown
+     */
+    public static void shutdownInstance() {
+        PasswordHasher hasher;
+        synchronized (PasswordHasher.class) {
+            hasher = instance;
+        }
+        if (hasher != null) {
+            hasher.shutdown();
+        }
+    }
+
+    public PasswordHasher(Properties props) {
+        long defaultWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int workers = (int) Math.max(1L, AppProperties.longProperty(props, "security.hash.workers", defaultWorkers));
+        int capacity = (int) Math.max(1L, AppProperties.longProperty(props, "security.hash.queueCapacity", 32L));
+        this.maxQueueWaitNanos = Math.max(0L, AppProperties.longProperty(props, "security.hash.maxQueueWaitMs", 5000L)) * 1_000_000L;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), r -> {
+                    Thread t = new Thread(r, "password-hash-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Hash a password with SecUtils.hashPassword on a hashing thread
+     * @return the future hash; it fails with IllegalArgumentException for an empty password,
+     *         or with RejectedExecutionException if the task waited too long in the queue
+     * @throws RejectedExecutionException if the queue is full or the hasher is shut down
+     */
+    public CompletableFuture<String> hash(String password) {
+        return submit(() -> SecUtils.hashPassword(password), totalHashMillis, maxHashMillis, hashCount);
+    }
+
+    /**
+     * Check a password against a stored hash with SecUtils.verifyPassword on a hashing thread
+     * @return the future result; it fails with RejectedExecutionException if the task waited too long in the queue
+     * @throws RejectedExecutionException if the queue is full or the hasher is shut down
+     */
+    public CompletableFuture<Boolean> verify(String password, String hash) {
+        return submit(() -> SecUtils.verifyPassword(password, hash), totalVerifyMillis, maxVerifyMillis, verifyCount);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work, AtomicLong totalMillis, AtomicLong maxMillis,
+                                            AtomicLong count) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                long queueMillis = (start - queuedAt) / 1_000_000L;
+                totalQueueMillis.addAndGet(queueMillis);
+                maxQueueMillis.accumulateAndGet(queueMillis, Math::max);
+                if (start - queuedAt > maxQueueWaitNanos) {
+                    expiredCount.incrementAndGet();
+                    future.completeExceptionally(new RejectedExecutionException(
+                            "Password hash waited " + queueMillis + " ms in the queue"));
+                    return;
+                }
+                T result = null;
+                RuntimeException error = null;
+                try {
+                    result = work.get();
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                long millis = (System.nanoTime() - start) / 1_000_000L;
+                totalMillis.addAndGet(millis);
+                maxMillis.accumulateAndGet(millis, Math::max);
+                count.incrementAndGet();
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+        submittedCount.incrementAndGet();
+        return future;
+    }
+
+    /**
+     * Stop accepting work and let queued hashes finish briefly; their requests are
+     * still waiting for an answer
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Password hasher stopped. Hashes: " + hashCount.get() + ", Verifications: " + verifyCount.get()
+                + ", Rejected: " + rejectedCount.get() + ", Expired: " + expiredCount.get());
+    }
+
+    // Metrics
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    // Hashes and verifications refused because the queue was full or the hasher was shut down
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    // Queued tasks skipped because they waited longer than security.hash.maxQueueWaitMs
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getHashCount() {
+        return hashCount.get();
+    }
+
+    public long getAverageHashMillis() {
+        long done = hashCount.get();
+        return done == 0 ? 0 : totalHashMillis.get() / done;
+    }
+
+    public long getMaxHashMillis() {
+        return maxHashMillis.get();
+    }
+
+    public long getVerifyCount() {
+        return verifyCount.get();
+    }
+
+    public long getAverageVerifyMillis() {
+        long done = verifyCount.get();
+        return done == 0 ? 0 : totalVerifyMillis.get() / done;
+    }
+
+    public long getMaxVerifyMillis() {
+        return maxVerifyMillis.get();
+    }
+
+    // Average time a task waited in the queue before a hashing thread picked it up
+    public long getAverageQueueMillis() {
+        long started = hashCount.get() + verifyCount.get() + expiredCount.get();
+        return started == 0 ? 0 : totalQueueMillis.get() / started;
+    }
+
+    public long getMaxQueueMillis() {
+        return maxQueueMillis.get();
+    }
+}
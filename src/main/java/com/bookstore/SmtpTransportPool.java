@@ -0,0 +1,211 @@
+package com.bookstore;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bookstore.db.AppProperties;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+/**
+ * Small pool of connected, authenticated SMTP transports shared by all
+ * outgoing mail, so a message costs one SMTP transaction instead of a TCP
+ * connect, STARTTLS handshake and login.
+ *
+ * At most maxSize connections exist at once; callers beyond that wait for
+ * one to be returned. A connection is closed instead of reused once it has
+ * sent maxMessagesPerConnection messages or sat idle for longer than
+ * idleTimeoutMs (servers drop idle clients). If sending on a pooled
+ * connection fails for any reason other than rejected addresses, that
+ * connection is discarded and the message is retried once on a fresh one.
+ *
+ * Configured in db.properties:
+ *   email.smtp.pool.maxSize                  connections (default 4)
+ *   email.smtp.pool.idleTimeoutMs            reuse limit for idle connections (default 60000)
+ *   email.smtp.pool.maxMessagesPerConnection messages before reconnecting (default 100)
+ *   email.smtp.pool.acquireTimeoutMs         wait for a free connection (default 30000)
+ */
+public class SmtpTransportPool {
+    private static final Logger LOGGER = Logger.getLogger(SmtpTransportPool.class.getName());
+
+    private final Session session;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final int maxMessagesPerConnection;
+    private final long acquireTimeoutMs;
+
+    // Bounds the number of connections, idle or in use
+    private final Semaphore permits;
+    // Most recently used last, so the oldest idle connections age out
+    private final Deque<PooledTransport> idle = new ArrayDeque<>();
+    private volatile boolean closed = false;
+
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong reconnectCount = new AtomicLong();
+
+    private static final class PooledTransport {
+        final Transport transport;
+        int messages;
+        long lastUsed;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    public SmtpTransportPool(Session session, String host, int port, String username, String password, Properties props) {
+        this.session = session;
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.maxSize = (int) Math.max(1L, AppProperties.longProperty(props, "email.smtp.pool.maxSize", 4L));
+        this.idleTimeoutMs = Math.max(0L, AppProperties.longProperty(props, "email.smtp.pool.idleTimeoutMs", 60000L));
+        this.maxMessagesPerConnection = (int) Math.max(1L, AppProperties.longProperty(props, "email.smtp.pool.maxMessagesPerConnection", 100L));
+        this.acquireTimeoutMs = Math.max(0L, AppProperties.longProperty(props, "email.smtp.pool.acquireTimeoutMs", 30000L));
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Send one message on a pooled connection
+     * @throws MessagingException if the message could not be sent, even on a fresh connection
+     */
+    public void send(Message message) throws MessagingException {
+        if (closed) {
+            throw new MessagingException("SMTP transport pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("Timed out waiting for an SMTP connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted waiting for an SMTP connection");
+        }
+        try {
+            message.saveChanges();
+            PooledTransport pooled = takeIdle();
+            if (pooled == null) {
+                pooled = connect();
+            }
+            try {
+                sendOn(pooled, message);
+            } catch (SendFailedException e) {
+                // The server refused the addresses; the connection itself is fine
+                release(pooled);
+                throw e;
+            } catch (MessagingException e) {
+                close(pooled);
+                reconnectCount.incrementAndGet();
+                LOGGER.log(Level.INFO, "SMTP send failed on a pooled connection, retrying on a new one", e);
+                pooled = connect();
+                try {
+                    sendOn(pooled, message);
+                } catch (MessagingException retryFailure) {
+                    close(pooled);
+                    throw retryFailure;
+                }
+            }
+            release(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void sendOn(PooledTransport pooled, Message message) throws MessagingException {
+        pooled.transport.sendMessage(message, message.getAllRecipients());
+        pooled.messages++;
+        pooled.lastUsed = System.currentTimeMillis();
+        sentCount.incrementAndGet();
+    }
+
+    // Newest idle connection, after closing those idle past the timeout (oldest are first);
+    // a connection the server dropped anyway is caught by the retry in send()
+    private PooledTransport takeIdle() {
+        long now = System.currentTimeMillis();
+        synchronized (idle) {
+            while (!idle.isEmpty() && now - idle.peekFirst().lastUsed > idleTimeoutMs) {
+                close(idle.pollFirst());
+            }
+            return idle.pollLast();
+        }
+    }
+
+    private PooledTransport connect() throws MessagingException {
+        Transport transport = session.getTransport("smtp");
+        transport.connect(host, port, username, password);
+        openedCount.incrementAndGet();
+        return new PooledTransport(transport);
+    }
+
+    private void release(PooledTransport pooled) {
+        if (closed || pooled.messages >= maxMessagesPerConnection) {
+            close(pooled);
+            return;
+        }
+        synchronized (idle) {
+            idle.addLast(pooled);
+        }
+    }
+
+    private static void close(PooledTransport pooled) {
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            // Already broken; nothing left to release
+        }
+    }
+
+    /**
+     * Close every idle connection and refuse further sends, intended for server shutdown
+     */
+    public void close() {
+        closed = true;
+        synchronized (idle) {
+            while (!idle.isEmpty()) {
+                close(idle.pollFirst());
+            }
+        }
+    }
+
+    // Metrics
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    public int getInUseCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    // Sends retried on a new connection after the pooled one failed
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+}
@@ -0,0 +1,74 @@
+package com.bookstore.db;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Reads db.properties, which holds the database settings and the tuning
+ * settings of every pool, cache and background worker, and parses the
+ * numeric settings with a fallback to their defaults.
+ */
+public final class AppProperties {
+
+    private static final String RESOURCE = "db.properties";
+
+    private AppProperties() {
+    }
+
+    /**
+     * Load db.properties from the classpath
+     * @param defaultsName what the caller falls back to, for the message printed when the file cannot be read
+     * @return the settings, empty if the file is missing or unreadable
+     */
+    public static Properties load(String defaultsName) {
+        try {
+            return loadRequired();
+        } catch (FileNotFoundException e) {
+            return new Properties();
+        } catch (IOException e) {
+            System.out.println("Unable to read " + RESOURCE + ", using default " + defaultsName);
+            return new Properties();
+        }
+    }
+
+    /**
+     * Load db.properties from the classpath, for callers that cannot run without it
+     * @return the settings
+     * @throws FileNotFoundException if db.properties is not on the classpath
+     * @throws IOException if db.properties cannot be read
+     */
+    public static Properties loadRequired() throws IOException {
+        Properties props = new Properties();
+        try (InputStream input = AppProperties.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (input == null) {
+                throw new FileNotFoundException("Sorry, unable to find " + RESOURCE);
+            }
+            props.load(input);
+        }
+        return props;
+    }
+
+    public static int intProperty(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long longProperty(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -2,8 +2,6 @@ package com.bookstore.db;
 
 import java.sql.*;
 import java.util.*;
-import java.io.InputStream;
-import java.util.Properties;
 import com.bookstore.records.BillingAddressRecords;
 
 public class BillingAddressDatabase implements DatabaseInterface {
@@ -11,6 +9,11 @@ public class BillingAddressDatabase implements DatabaseInterface {
     private ArrayList<BillingAddressRecords> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     public BillingAddressDatabase() {
         this.results = new ArrayList<>();
@@ -19,17 +22,7 @@ public class BillingAddressDatabase implements DatabaseInterface {
     @Override
     public boolean connectDb() {
         try {
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) return false;
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -41,7 +34,9 @@ public class BillingAddressDatabase implements DatabaseInterface {
     @Override
     public boolean disconnectDb() {
         try {
-            connection.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
             connected = false;
         } catch (Exception e) {
             e.printStackTrace();
@@ -60,23 +55,39 @@ public class BillingAddressDatabase implements DatabaseInterface {
         return connected;
     }
         public ArrayList<BillingAddressRecords> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
 
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
     public String addAddress(BillingAddressRecords addr) {
         String query = "INSERT INTO BillingAddress (street, city, state, zipCode) VALUES (?, ?, ?, ?)";
         try {
-            PreparedStatement ps = connection.prepareStatement(query);
+            PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, addr.getStreet());
             ps.setString(2, addr.getCity());
             ps.setString(3, addr.getState());
             ps.setString(4, addr.getZipCode());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Billing Address Added.";
     }
 
@@ -89,17 +100,18 @@ public class BillingAddressDatabase implements DatabaseInterface {
             ps.setString(3, addr.getState());
             ps.setString(4, addr.getZipCode());
             ps.setInt(5, addr.getAddressID());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Billing Address Updated.";
     }
 
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM BillingAddress");
@@ -124,12 +136,12 @@ public class BillingAddressDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement("DELETE FROM BillingAddress WHERE addressID=?");
             ps.setInt(1, addressID);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Billing Address Deleted.";
     }
 
@@ -12,7 +12,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import com.bookstore.web.CartItem;
@@ -44,26 +47,63 @@ public class BookActions {
     }
 
     public static Map<String, Double> calculateCheckout(Connection connection, CartItem[] cartItems) throws SQLException, BookNotFoundException {
-        double subtotal = 0.0;
+        try {
+            return calculateCheckout(connection, cartItems, null);
+        } catch (InvalidPromotionException e) {
+            // Unreachable: no promo code was given
+            throw new IllegalStateException(e);
+        }
+    }
 
+    /**
+     * Price a cart on the server with PricingEngine, from cached prices and promotions
+     * @param connection used only for books missing from the catalog cache; null borrows one from the pool
+     * @param promoCode promo code to apply, or null for none
+     * @return subtotal, discount and total
+     * @throws BookNotFoundException listing every book ID in the cart that does not exist
+     * @throws InvalidPromotionException if the promo code is unknown or not active today
+     */
+    public static Map<String, Double> calculateCheckout(Connection connection, CartItem[] cartItems, String promoCode)
+            throws SQLException, BookNotFoundException, InvalidPromotionException {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
         for (CartItem item : cartItems) {
-            BookRecords book = getBookById(connection, item.getId());
-            if (book != null) {
-                subtotal += book.getSellingPrice() * item.getQuantity();
-            } else {
-                throw new BookNotFoundException("Book with ID " + item.getId() + " not found.");
-            }
+            quantities.merge(item.getId(), item.getQuantity(), Integer::sum);
         }
-
-        double total = subtotal; // No sales tax
+        PricingEngine.PriceQuote quote = PricingEngine.quote(quantities, promoCode, connection);
 
         Map<String, Double> result = new HashMap<>();
-        result.put("subtotal", subtotal);
-        result.put("total", total);
+        result.put("subtotal", quote.getSubtotal());
+        result.put("discount", quote.getDiscount());
+        result.put("total", quote.getTotal());
 
         return result;
     }
 
+    /**
+     * Look up the selling price of many books in a single WHERE id IN (...) query
+     * @return bookID to selling price; IDs that do not exist are absent
+     */
+    public static Map<Integer, Double> getSellingPrices(Connection connection, Collection<Integer> bookIDs) throws SQLException {
+        Map<Integer, Double> results = new HashMap<>();
+        if (bookIDs.isEmpty()) {
+            return results;
+        }
+        String placeholders = String.join(",", Collections.nCopies(bookIDs.size(), "?"));
+        String query = "SELECT id, sellingPrice FROM books WHERE id IN (" + placeholders + ")";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            int index = 1;
+            for (Integer id : bookIDs) {
+                ps.setInt(index++, id);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.put(rs.getInt("id"), rs.getDouble("sellingPrice"));
+                }
+            }
+        }
+        return results;
+    }
+
     public static ArrayList<BookRecords> getFeaturedBooks(Connection connection) {
         ArrayList<BookRecords> results = new ArrayList<>();
         String query = "SELECT * FROM books WHERE featured = TRUE";
@@ -107,7 +147,32 @@ public class BookActions {
         return null;
     }
 
-    private static BookRecords mapRowToBookRecord(ResultSet rs) throws SQLException {
+    // Looks up several books in one query, keyed by id; ids with no book are simply absent
+    public static Map<Integer, BookRecords> getBooksByIds(Connection connection, Collection<Integer> ids) {
+        Map<Integer, BookRecords> books = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return books;
+        }
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        String query = "SELECT * FROM books WHERE id IN (" + placeholders + ")";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            int index = 1;
+            for (Integer id : ids) {
+                ps.setInt(index++, id);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    BookRecords book = mapRowToBookRecord(rs);
+                    books.put(book.getId(), book);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return books;
+    }
+
+    static BookRecords mapRowToBookRecord(ResultSet rs) throws SQLException {
         return new BookRecords(
                 rs.getInt("id"),
                 rs.getString("isbn"),
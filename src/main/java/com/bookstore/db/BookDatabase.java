@@ -3,9 +3,6 @@ package com.bookstore.db;
 import java.sql.*;
 import java.util.*;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.io.InputStream;
-import java.util.Properties;
 import com.bookstore.records.BookRecords;
 
 
@@ -15,6 +12,11 @@ public class BookDatabase implements DatabaseInterface {
     private ArrayList<BookRecords> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     //Constructor
     public BookDatabase() {
@@ -26,20 +28,7 @@ public class BookDatabase implements DatabaseInterface {
     @Override
     public boolean connectDb() {
         try {
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) {
-                System.out.println("Sorry, unable to find db.properties");
-                return false;
-            }
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -52,7 +41,9 @@ public class BookDatabase implements DatabaseInterface {
     @Override
     public boolean disconnectDb() {
         try {
-            connection.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
             connected = false;
         } catch (Exception e) {
             e.printStackTrace();
@@ -75,8 +66,22 @@ public class BookDatabase implements DatabaseInterface {
 
     //Getter and setter for results
     public ArrayList<BookRecords> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
+
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
     public void setResults(ArrayList<BookRecords> results) {
         this.results = results;
     }
@@ -86,7 +91,7 @@ public class BookDatabase implements DatabaseInterface {
         String query = "INSERT INTO books (isbn, category, author, title, coverImage, edition, publisher, publicationYear, quantityInStock, minThreshold, buyingPrice, sellingPrice, rating, featured, releaseDate, description) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         try {
-            PreparedStatement ps = connection.prepareStatement(query);
+            PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, book.getIsbn());
             ps.setString(2, book.getCategory());
             ps.setString(3, book.getAuthor());
@@ -103,18 +108,24 @@ public class BookDatabase implements DatabaseInterface {
             ps.setBoolean(14, book.isFeatured());
             ps.setDate(15, book.getReleaseDate());
             ps.setString(16, book.getDescription());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
+            book.setId(lastGeneratedKey);
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
+        CatalogCache.getInstance().put(book);
         return "Book Added.";
     }
 
     //READ or Load All Books
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM books");
@@ -169,12 +180,15 @@ public class BookDatabase implements DatabaseInterface {
             ps.setDate(15, book.getReleaseDate());
             ps.setString(16, book.getDescription());
             ps.setInt(17, book.getId());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
+        if (lastAffectedRows > 0) {
+            CatalogCache.getInstance().put(book);
+        }
         return "Book Updated.";
     }
 
@@ -184,12 +198,13 @@ public class BookDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setInt(1, bookId);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
+        CatalogCache.getInstance().remove(bookId);
         return "Book Deleted.";
     }
 }
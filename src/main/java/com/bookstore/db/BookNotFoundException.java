@@ -1,11 +1,27 @@
 package com.bookstore.db;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Custom exception to be thrown when a book with a specific ID cannot be found in the database.
  * Not applicable for current prototype however
  */
 public class BookNotFoundException extends Exception {
+    private final List<Integer> bookIDs;
+
     public BookNotFoundException(String message) {
         super(message);
+        this.bookIDs = Collections.emptyList();
+    }
+
+    public BookNotFoundException(List<Integer> bookIDs) {
+        super("Book(s) with ID " + bookIDs + " not found.");
+        this.bookIDs = bookIDs;
+    }
+
+    // IDs of every book that was looked up and not found, empty if not known
+    public List<Integer> getBookIDs() {
+        return bookIDs;
     }
 } 
\ No newline at end of file
@@ -0,0 +1,514 @@
+package com.bookstore.db;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * In-memory inverted index over the searchable book fields.
+ *
+ * Text is lower-cased, stripped of accents and split on anything that is not
+ * a letter or digit. Each term maps to a posting list of book IDs kept as a
+ * sorted int[], with a parallel int[] holding the per-field term counts
+ * packed four bits per field. Queries AND their terms together, every query
+ * term also matches longer terms that start with it, and results are ranked
+ * with field-weighted BM25 (BM25F). A fuzzy mode replaces words that match
+ * nothing with indexed words a small edit distance away, found through a
+ * character-trigram index over the term dictionary.
+ *
+ * The index is maintained by CatalogCache: rebuilt with the snapshot and
+ * patched whenever a single book is added, updated or removed.
+ */
+public class BookSearchIndex {
+
+    // Searchable fields and their weights in the combined term frequency
+    private static final int ISBN = 0;
+    private static final int TITLE = 1;
+    private static final int AUTHOR = 2;
+    private static final int CATEGORY = 3;
+    private static final int PUBLISHER = 4;
+    private static final int EDITION = 5;
+    private static final int YEAR = 6;
+    private static final int FIELDS = 7;
+    private static final float[] FIELD_WEIGHTS = {2.0f, 3.0f, 2.5f, 1.5f, 1.0f, 0.5f, 0.5f};
+
+    private static final int TF_BITS = 4;
+    private static final int TF_MAX = (1 << TF_BITS) - 1;
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    // Matches on a longer term through a prefix count for less than exact matches
+    private static final float PREFIX_FACTOR = 0.6f;
+    // Near matches found by fuzzy search count for less still, and less again per edit
+    private static final float FUZZY_FACTOR = 0.8f;
+
+    private static final Pattern SPLIT = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    // Trigram to the indexed terms containing it, for fuzzy candidate generation
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+    // Every indexed book, and the running totals of its field lengths for the averages
+    private final Map<Integer, Document> documents = new HashMap<>();
+    private final long[] totalFieldLengths = new long[FIELDS];
+
+    // One indexed book: its field lengths in terms, and its distinct terms so that
+    // removing it only touches its own posting lists
+    private static final class Document {
+        final int[] lengths;
+        final String[] terms;
+
+        Document(int[] lengths, String[] terms) {
+            this.lengths = lengths;
+            this.terms = terms;
+        }
+    }
+
+    // Posting list for one term: ascending book IDs and their packed per-field counts
+    private static final class Postings {
+        int[] ids = new int[4];
+        int[] counts = new int[4];
+        int size = 0;
+
+        void put(int id, int packed) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                counts[pos] = packed;
+                return;
+            }
+            pos = -pos - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(counts, pos, counts, pos + 1, size - pos);
+            ids[pos] = id;
+            counts[pos] = packed;
+            size++;
+        }
+
+        void remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            System.arraycopy(counts, pos + 1, counts, pos, size - pos - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Split text into normalized search terms
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase();
+        for (String token : SPLIT.split(folded)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Replace the whole index with the given books
+     */
+    public void rebuild(Collection<BookRecords> books) {
+        lock.writeLock().lock();
+        try {
+            terms.clear();
+            trigrams.clear();
+            documents.clear();
+            Arrays.fill(totalFieldLengths, 0);
+            for (BookRecords book : books) {
+                addLocked(book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Index a new book or re-index a changed one
+     */
+    public void update(BookRecords book) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(book.getId());
+            addLocked(book);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int bookId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String[] fieldTexts(BookRecords book) {
+        String[] texts = new String[FIELDS];
+        String isbn = book.getIsbn();
+        // Index the ISBN both as its parts and with the separators removed
+        texts[ISBN] = isbn == null ? null : isbn + " " + isbn.replaceAll("[^0-9Xx]", "");
+        texts[TITLE] = book.getTitle();
+        texts[AUTHOR] = book.getAuthor();
+        texts[CATEGORY] = book.getCategory();
+        texts[PUBLISHER] = book.getPublisher();
+        texts[EDITION] = book.getEdition();
+        texts[YEAR] = book.getPublicationYear() > 0 ? String.valueOf(book.getPublicationYear()) : null;
+        return texts;
+    }
+
+    private void addLocked(BookRecords book) {
+        int id = book.getId();
+        String[] texts = fieldTexts(book);
+        int[] lengths = new int[FIELDS];
+        Map<String, Integer> packedCounts = new HashMap<>();
+        for (int field = 0; field < FIELDS; field++) {
+            List<String> tokens = tokenize(texts[field]);
+            lengths[field] = tokens.size();
+            totalFieldLengths[field] += tokens.size();
+            int shift = field * TF_BITS;
+            for (String token : tokens) {
+                int packed = packedCounts.getOrDefault(token, 0);
+                int count = (packed >>> shift) & TF_MAX;
+                if (count < TF_MAX) {
+                    packed += 1 << shift;
+                }
+                packedCounts.put(token, packed);
+            }
+        }
+        String[] docTerms = new String[packedCounts.size()];
+        int next = 0;
+        for (Map.Entry<String, Integer> entry : packedCounts.entrySet()) {
+            String term = entry.getKey();
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(term, postings);
+                for (String gram : trigramsOf(term)) {
+                    trigrams.computeIfAbsent(gram, k -> new HashSet<>()).add(term);
+                }
+            } else {
+                // Share the dictionary's copy of the term instead of keeping another
+                term = terms.ceilingKey(term);
+            }
+            postings.put(id, entry.getValue());
+            docTerms[next++] = term;
+        }
+        documents.put(id, new Document(lengths, docTerms));
+    }
+
+    private void removeLocked(int id) {
+        Document document = documents.remove(id);
+        if (document == null) {
+            return;
+        }
+        for (int field = 0; field < FIELDS; field++) {
+            totalFieldLengths[field] -= document.lengths[field];
+        }
+        for (String term : document.terms) {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                continue;
+            }
+            postings.remove(id);
+            if (postings.size == 0) {
+                terms.remove(term);
+                for (String gram : trigramsOf(term)) {
+                    Set<String> gramTerms = trigrams.get(gram);
+                    if (gramTerms != null) {
+                        gramTerms.remove(term);
+                        if (gramTerms.isEmpty()) {
+                            trigrams.remove(gram);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Result of a fuzzy search: ranked book IDs, and the corrected query when
+     * any word had to be replaced by a near match (null otherwise)
+     */
+    public static final class Hits {
+        private final int[] ids;
+        private final String didYouMean;
+
+        Hits(int[] ids, String didYouMean) {
+            this.ids = ids;
+            this.didYouMean = didYouMean;
+        }
+
+        public int[] getIds() {
+            return ids;
+        }
+
+        public String getDidYouMean() {
+            return didYouMean;
+        }
+    }
+
+    /**
+     * Find books containing every query term (or a term starting with it), best match first
+     * @param query free text
+     * @param limit maximum number of results, 0 for all
+     * @return matching book IDs in rank order
+     */
+    public int[] search(String query, int limit) {
+        return run(query, limit, false).ids;
+    }
+
+    /**
+     * Like search, but a query word with no exact or prefix match is replaced
+     * by the indexed words within a small edit distance of it (one edit for
+     * words of four or five letters, two for longer ones)
+     */
+    public Hits searchFuzzy(String query, int limit) {
+        return run(query, limit, true);
+    }
+
+    private Hits run(String query, int limit, boolean fuzzy) {
+        List<String> queryTerms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (queryTerms.isEmpty()) {
+            return new Hits(new int[0], null);
+        }
+        lock.readLock().lock();
+        try {
+            int docCount = documents.size();
+            if (docCount == 0) {
+                return new Hits(new int[0], null);
+            }
+            float[] avgLengths = new float[FIELDS];
+            for (int field = 0; field < FIELDS; field++) {
+                avgLengths[field] = Math.max(1f, (float) totalFieldLengths[field] / docCount);
+            }
+
+            List<String> corrected = new ArrayList<>();
+            boolean changed = false;
+            List<Map<String, Float>> expansions = new ArrayList<>();
+            for (String queryTerm : queryTerms) {
+                Map<String, Float> matches = prefixMatches(queryTerm);
+                String used = queryTerm;
+                if (matches.isEmpty() && fuzzy) {
+                    matches = fuzzyMatches(queryTerm);
+                    if (!matches.isEmpty()) {
+                        // The first near match is the best one
+                        used = matches.keySet().iterator().next();
+                        changed = true;
+                    }
+                }
+                corrected.add(used);
+                expansions.add(matches);
+            }
+            String didYouMean = changed ? String.join(" ", corrected) : null;
+
+            Map<Integer, Float> scores = null;
+            for (Map<String, Float> matches : expansions) {
+                Map<Integer, Float> termScores = score(matches, docCount, avgLengths, scores);
+                if (termScores.isEmpty()) {
+                    return new Hits(new int[0], didYouMean);
+                }
+                if (scores != null) {
+                    for (Map.Entry<Integer, Float> entry : termScores.entrySet()) {
+                        entry.setValue(entry.getValue() + scores.get(entry.getKey()));
+                    }
+                }
+                scores = termScores;
+            }
+
+            List<Map.Entry<Integer, Float>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort((x, y) -> {
+                int byScore = Float.compare(y.getValue(), x.getValue());
+                return byScore != 0 ? byScore : Integer.compare(x.getKey(), y.getKey());
+            });
+            int size = limit > 0 ? Math.min(limit, ranked.size()) : ranked.size();
+            int[] ids = new int[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = ranked.get(i).getKey();
+            }
+            return new Hits(ids, didYouMean);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Indexed terms equal to or starting with the query term, with their score factor
+    private Map<String, Float> prefixMatches(String queryTerm) {
+        Map<String, Float> matches = new LinkedHashMap<>();
+        for (String term : terms.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false).keySet()) {
+            matches.put(term, term.equals(queryTerm) ? 1f : PREFIX_FACTOR);
+        }
+        return matches;
+    }
+
+    /*
+     * Indexed terms within the allowed edit distance of the query term, best
+     * first (fewest edits, then most books). Candidates come from the trigram
+     * index: every edit destroys at most three trigrams, so a term needs at
+     * least (query trigrams - 3 * edits) trigrams in common to be worth checking.
+     */
+    private Map<String, Float> fuzzyMatches(String queryTerm) {
+        Map<String, Float> matches = new LinkedHashMap<>();
+        int maxEdits = queryTerm.length() >= 6 ? 2 : queryTerm.length() >= 4 ? 1 : 0;
+        if (maxEdits == 0) {
+            return matches;
+        }
+        List<String> grams = trigramsOf(queryTerm);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String gram : grams) {
+            Set<String> gramTerms = trigrams.get(gram);
+            if (gramTerms != null) {
+                for (String term : gramTerms) {
+                    shared.merge(term, 1, Integer::sum);
+                }
+            }
+        }
+        int needed = Math.max(1, grams.size() - 3 * maxEdits);
+        List<String> candidates = new ArrayList<>();
+        Map<String, Integer> distances = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+            String term = entry.getKey();
+            if (entry.getValue() < needed || Math.abs(term.length() - queryTerm.length()) > maxEdits) {
+                continue;
+            }
+            int distance = editDistance(queryTerm, term, maxEdits);
+            if (distance <= maxEdits) {
+                candidates.add(term);
+                distances.put(term, distance);
+            }
+        }
+        candidates.sort((x, y) -> {
+            int byDistance = Integer.compare(distances.get(x), distances.get(y));
+            if (byDistance != 0) {
+                return byDistance;
+            }
+            int byBooks = Integer.compare(terms.get(y).size, terms.get(x).size);
+            return byBooks != 0 ? byBooks : x.compareTo(y);
+        });
+        for (String term : candidates) {
+            matches.put(term, FUZZY_FACTOR / (1 + distances.get(term)));
+        }
+        return matches;
+    }
+
+    // Trigrams of a term padded with '$' at both ends, so short words and word edges count too
+    private static List<String> trigramsOf(String term) {
+        String padded = "$" + term + "$";
+        List<String> grams = new ArrayList<>(Math.max(0, padded.length() - 2));
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /*
+     * Optimal string alignment distance (Levenshtein plus adjacent
+     * transpositions), giving up as soon as it must exceed max
+     */
+    static int editDistance(String a, String b, int max) {
+        int n = a.length();
+        int m = b.length();
+        int[] previous2 = new int[m + 1];
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= m; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[m];
+    }
+
+    // BM25F score of the matched terms for each book; only books in restrictTo (if given) are kept
+    private Map<Integer, Float> score(Map<String, Float> matches, int docCount, float[] avgLengths, Map<Integer, Float> restrictTo) {
+        Map<Integer, Float> termScores = new HashMap<>();
+        for (Map.Entry<String, Float> match : matches.entrySet()) {
+            Postings postings = terms.get(match.getKey());
+            float idf = (float) Math.log(1 + (docCount - postings.size + 0.5) / (postings.size + 0.5));
+            float factor = match.getValue();
+            for (int i = 0; i < postings.size; i++) {
+                int id = postings.ids[i];
+                if (restrictTo != null && !restrictTo.containsKey(id)) {
+                    continue;
+                }
+                int[] lengths = documents.get(id).lengths;
+                float tf = 0f;
+                for (int field = 0; field < FIELDS; field++) {
+                    int count = (postings.counts[i] >>> (field * TF_BITS)) & TF_MAX;
+                    if (count > 0) {
+                        tf += FIELD_WEIGHTS[field] * count / (1 - B + B * lengths[field] / avgLengths[field]);
+                    }
+                }
+                float score = factor * idf * tf * (K1 + 1) / (tf + K1);
+                // A book matching through several expansions keeps its best one
+                termScores.merge(id, score, Math::max);
+            }
+        }
+        return termScores;
+    }
+
+    // Metrics
+
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.bookstore.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * Immutable typeahead index over book titles, authors and categories.
+ *
+ * Every suggestion is stored once; its lookup keys (the normalized phrase and
+ * each word-start suffix of it, so "wing" finds "Fourth Wing") live in one
+ * sorted String[]. A prefix lookup is two binary searches for the key range
+ * followed by a scan for the best weighted entries. Ranges for one and two
+ * character prefixes can cover much of the catalog, so their top entries are
+ * computed once at build time.
+ *
+ * Titles are weighted by rating; authors and categories by the best rating
+ * among their books plus a small bonus per book. CatalogCache builds a new
+ * instance whenever books are loaded, added, updated or removed.
+ */
+public class BookSuggester {
+
+    public static final String TITLE = "title";
+    public static final String AUTHOR = "author";
+    public static final String CATEGORY = "category";
+
+    // Prefixes up to this length answer from precomputed lists
+    private static final int PRECOMPUTED_PREFIX = 2;
+    private static final int PRECOMPUTED_SIZE = 20;
+    // Authors and categories gain this much weight per book, up to MAX_BONUS_BOOKS books
+    private static final float BOOK_BONUS = 0.1f;
+    private static final int MAX_BONUS_BOOKS = 10;
+
+    // Suggestions, by entry index
+    private final String[] texts;
+    private final String[] types;
+    private final int[] bookIds;
+    private final float[] weights;
+    // Sorted lookup keys and the entry each one belongs to
+    private final String[] keys;
+    private final int[] keyEntries;
+    private final Map<String, int[]> precomputed;
+
+    /**
+     * One suggestion; bookId is set for titles and -1 otherwise
+     */
+    public static final class Suggestion {
+        private final String text;
+        private final String type;
+        private final int bookId;
+
+        Suggestion(String text, String type, int bookId) {
+            this.text = text;
+            this.type = type;
+            this.bookId = bookId;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getBookId() {
+            return bookId;
+        }
+    }
+
+    public static BookSuggester build(Collection<BookRecords> books) {
+        return new BookSuggester(books);
+    }
+
+    private BookSuggester(Collection<BookRecords> books) {
+        List<String> entryTexts = new ArrayList<>();
+        List<String> entryTypes = new ArrayList<>();
+        List<Integer> entryBooks = new ArrayList<>();
+        List<Float> entryWeights = new ArrayList<>();
+        List<Integer> entryCounts = new ArrayList<>();
+        // Authors and categories are shared by many books; collect them once
+        Map<String, Integer> shared = new HashMap<>();
+
+        for (BookRecords book : books) {
+            if (book.getTitle() != null && !book.getTitle().trim().isEmpty()) {
+                entryTexts.add(book.getTitle().trim());
+                entryTypes.add(TITLE);
+                entryBooks.add(book.getId());
+                entryWeights.add(book.getRating());
+                entryCounts.add(0);
+            }
+            addShared(shared, AUTHOR, book.getAuthor(), book.getRating(), entryTexts, entryTypes, entryBooks, entryWeights, entryCounts);
+            addShared(shared, CATEGORY, book.getCategory(), book.getRating(), entryTexts, entryTypes, entryBooks, entryWeights, entryCounts);
+        }
+
+        int count = entryTexts.size();
+        texts = entryTexts.toArray(new String[0]);
+        types = entryTypes.toArray(new String[0]);
+        bookIds = new int[count];
+        weights = new float[count];
+        for (int i = 0; i < count; i++) {
+            bookIds[i] = entryBooks.get(i);
+            weights[i] = entryWeights.get(i) + BOOK_BONUS * Math.min(entryCounts.get(i), MAX_BONUS_BOOKS);
+        }
+
+        // Build (key, entry) pairs and sort them by key
+        List<String> keyList = new ArrayList<>();
+        List<Integer> keyEntryList = new ArrayList<>();
+        for (int entry = 0; entry < count; entry++) {
+            List<String> words = BookSearchIndex.tokenize(texts[entry]);
+            for (int start = 0; start < words.size(); start++) {
+                keyList.add(String.join(" ", words.subList(start, words.size())));
+                keyEntryList.add(entry);
+            }
+        }
+        Integer[] order = new Integer[keyList.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keyList.get(a).compareTo(keyList.get(b)));
+        keys = new String[order.length];
+        keyEntries = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            keys[i] = keyList.get(order[i]);
+            keyEntries[i] = keyEntryList.get(order[i]);
+        }
+
+        precomputed = new HashMap<>();
+        for (String key : keys) {
+            for (int length = 1; length <= Math.min(PRECOMPUTED_PREFIX, key.length()); length++) {
+                String prefix = key.substring(0, length);
+                if (!precomputed.containsKey(prefix)) {
+                    precomputed.put(prefix, topEntries(prefix, PRECOMPUTED_SIZE));
+                }
+            }
+        }
+    }
+
+    // Add or update an author/category entry: best rating among its books, and its book count
+    private static void addShared(Map<String, Integer> shared, String type, String text, float rating,
+            List<String> entryTexts, List<String> entryTypes, List<Integer> entryBooks,
+            List<Float> entryWeights, List<Integer> entryCounts) {
+        if (text == null || text.trim().isEmpty()) {
+            return;
+        }
+        String key = type + ":" + String.join(" ", BookSearchIndex.tokenize(text));
+        Integer entry = shared.get(key);
+        if (entry == null) {
+            shared.put(key, entryTexts.size());
+            entryTexts.add(text.trim());
+            entryTypes.add(type);
+            entryBooks.add(-1);
+            entryWeights.add(rating);
+            entryCounts.add(1);
+        } else {
+            entryWeights.set(entry, Math.max(entryWeights.get(entry), rating));
+            entryCounts.set(entry, entryCounts.get(entry) + 1);
+        }
+    }
+
+    /**
+     * Best weighted suggestions whose text, or a word within it, starts with the query
+     * @param query what the user has typed so far
+     * @param limit maximum number of suggestions
+     */
+    public List<Suggestion> suggest(String query, int limit) {
+        List<Suggestion> results = new ArrayList<>();
+        String prefix = String.join(" ", BookSearchIndex.tokenize(query));
+        if (prefix.isEmpty() || limit <= 0) {
+            return results;
+        }
+        int[] entries = prefix.length() <= PRECOMPUTED_PREFIX && limit <= PRECOMPUTED_SIZE
+                ? precomputed.getOrDefault(prefix, new int[0])
+                : topEntries(prefix, limit);
+        for (int i = 0; i < entries.length && results.size() < limit; i++) {
+            int entry = entries[i];
+            results.add(new Suggestion(texts[entry], types[entry], bookIds[entry]));
+        }
+        return results;
+    }
+
+    // Distinct entries with a key starting with prefix, highest weight first
+    private int[] topEntries(String prefix, int limit) {
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        // Small bounded selection: keep the best `limit` entries seen so far, best first
+        int[] best = new int[limit];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            int entry = keyEntries[i];
+            boolean seen = false;
+            for (int j = 0; j < size; j++) {
+                if (best[j] == entry) {
+                    seen = true;
+                    break;
+                }
+            }
+            if (seen || (size == limit && !outranks(entry, best[size - 1]))) {
+                continue;
+            }
+            int pos = size == limit ? size - 1 : size++;
+            while (pos > 0 && outranks(entry, best[pos - 1])) {
+                best[pos] = best[pos - 1];
+                pos--;
+            }
+            best[pos] = entry;
+        }
+        return Arrays.copyOf(best, size);
+    }
+
+    private boolean outranks(int a, int b) {
+        if (weights[a] != weights[b]) {
+            return weights[a] > weights[b];
+        }
+        return texts[a].length() < texts[b].length();
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Metrics
+
+    public int getEntryCount() {
+        return texts.length;
+    }
+
+    public int getKeyCount() {
+        return keys.length;
+    }
+
+    /**
+     * Rough heap footprint in bytes: strings at two bytes per char plus
+     * object and array headers, arrays at their element size
+     */
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (String key : keys) {
+            bytes += 40 + 2L * key.length();
+        }
+        for (String text : texts) {
+            bytes += 40 + 2L * text.length();
+        }
+        bytes += 16 + 4L * keys.length;          // keys array
+        bytes += 16 + 4L * keyEntries.length;
+        bytes += 3 * (16 + 4L * texts.length);   // texts, types, bookIds
+        bytes += 16 + 4L * weights.length;
+        for (int[] top : precomputed.values()) {
+            bytes += 48 + 16 + 4L * top.length;
+        }
+        return bytes;
+    }
+}
@@ -2,8 +2,7 @@ package com.bookstore.db;
 
 import java.sql.*;
 import java.util.*;
-import java.io.InputStream;
-import java.util.Properties;
+import java.util.function.Predicate;
 import com.bookstore.records.CartRecord;
 
 public class CartDatabase implements DatabaseInterface {
@@ -12,6 +11,11 @@ public class CartDatabase implements DatabaseInterface {
     private ArrayList<CartRecord> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     // Constructor
     public CartDatabase() {
@@ -23,20 +27,7 @@ public class CartDatabase implements DatabaseInterface {
     @Override
     public boolean connectDb() {
         try {
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) {
-                System.out.println("Sorry, unable to find db.properties");
-                return false;
-            }
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -49,7 +40,9 @@ public class CartDatabase implements DatabaseInterface {
     @Override
     public boolean disconnectDb() {
         try {
-            connection.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
             connected = false;
         } catch (Exception e) {
             e.printStackTrace();
@@ -71,8 +64,22 @@ public class CartDatabase implements DatabaseInterface {
     
     // Getter and setter for results
     public ArrayList<CartRecord> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
+
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
     public void setResults(ArrayList<CartRecord> results) {
         this.results = results;
     }
@@ -85,28 +92,103 @@ public class CartDatabase implements DatabaseInterface {
             ps.setInt(1, cart.getUserID());
             ps.setInt(2, cart.getBookID());
             ps.setInt(3, cart.getQuantity());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Cart record added.";
     }
 
+    // Upsert many cart lines as a single batch; with rewriteBatchedStatements the
+    // driver sends it as one multi-row statement
+    public String upsertCartRecords(List<CartRecord> carts) {
+        if (carts.isEmpty()) {
+            lastAffectedRows = 0;
+            return "Cart records saved.";
+        }
+        String query = "INSERT INTO cart (userID, bookID, quantity) VALUES (?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE quantity = quantity + VALUES(quantity)";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            for (CartRecord cart : carts) {
+                ps.setInt(1, cart.getUserID());
+                ps.setInt(2, cart.getBookID());
+                ps.setInt(3, cart.getQuantity());
+                ps.addBatch();
+            }
+            int affected = 0;
+            for (int count : ps.executeBatch()) {
+                if (count > 0) affected += count;
+            }
+            lastAffectedRows = affected;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        resultsStale = true;
+        return "Cart records saved.";
+    }
+
+    // Upsert cart lines and read the resulting lines back in one transaction. accept sees
+    // the saved lines while their rows are still locked, e.g. to hold stock for the
+    // quantities actually in the cart; if it returns false nothing is saved.
+    // Returns "Cart records saved.", "Cart records rejected." or the error
+    public String upsertCartRecords(List<CartRecord> carts, Predicate<List<CartRecord>> accept) {
+        String query = "SELECT userID, bookID, quantity FROM cart WHERE userID = ? AND bookID = ?";
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                String result = upsertCartRecords(carts);
+                if (!result.equals("Cart records saved.")) {
+                    connection.rollback();
+                    return result;
+                }
+                List<CartRecord> saved = new ArrayList<>();
+                Set<Long> seen = new HashSet<>();
+                try (PreparedStatement ps = connection.prepareStatement(query)) {
+                    for (CartRecord cart : carts) {
+                        if (!seen.add(((long) cart.getUserID() << 32) | (cart.getBookID() & 0xFFFFFFFFL))) {
+                            continue;
+                        }
+                        ps.setInt(1, cart.getUserID());
+                        ps.setInt(2, cart.getBookID());
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (rs.next()) {
+                                saved.add(mapRowToCartRecord(rs));
+                            }
+                        }
+                    }
+                }
+                if (!accept.test(saved)) {
+                    connection.rollback();
+                    return "Cart records rejected.";
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        resultsStale = true;
+        return "Cart records saved.";
+    }
+
     // Load all cart records
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM cart");
             while (rs.next()) {
-                CartRecord cart = new CartRecord(
-                        rs.getInt("userID"),
-                        rs.getInt("bookID"),
-                        rs.getInt("quantity")
-                );
-                results.add(cart);
+                results.add(mapRowToCartRecord(rs));
             }
             return "Cart records loaded.";
         } catch (SQLException e) {
@@ -115,6 +197,40 @@ public class CartDatabase implements DatabaseInterface {
         }
     }
 
+    // Find all cart records for a single user
+    public ArrayList<CartRecord> findByUserID(int userID) {
+        ArrayList<CartRecord> userCart = new ArrayList<>();
+        String query = "SELECT userID, bookID, quantity FROM cart WHERE userID = ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, userID);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    userCart.add(mapRowToCartRecord(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return userCart;
+    }
+
+    // Find a single cart record by its (userID, bookID) primary key
+    public CartRecord findByUserAndBook(int userID, int bookID) {
+        String query = "SELECT userID, bookID, quantity FROM cart WHERE userID = ? AND bookID = ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, userID);
+            ps.setInt(2, bookID);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapRowToCartRecord(rs);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     // Update cart record quantity
     public String updateCartRecord(CartRecord cart) {
         String query = "UPDATE cart SET quantity=? WHERE userID=? AND bookID=?";
@@ -123,12 +239,49 @@ public class CartDatabase implements DatabaseInterface {
             ps.setInt(1, cart.getQuantity());
             ps.setInt(2, cart.getUserID());
             ps.setInt(3, cart.getBookID());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        resultsStale = true;
+        return "Cart record updated.";
+    }
+
+    // Set a cart line's quantity in one transaction with accept, which sees the line while
+    // its row is locked by the update, e.g. to hold stock for the new quantity; if it
+    // returns false nothing is saved.
+    // Returns "Cart record updated.", "Cart record not found.", "Cart record rejected." or the error
+    public String updateCartRecord(CartRecord cart, Predicate<CartRecord> accept) {
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                String result = updateCartRecord(cart);
+                if (!result.equals("Cart record updated.")) {
+                    connection.rollback();
+                    return result;
+                }
+                if (lastAffectedRows == 0) {
+                    connection.rollback();
+                    return "Cart record not found.";
+                }
+                if (!accept.test(cart)) {
+                    connection.rollback();
+                    return "Cart record rejected.";
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Cart record updated.";
     }
 
@@ -139,12 +292,34 @@ public class CartDatabase implements DatabaseInterface {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setInt(1, userID);
             ps.setInt(2, bookID);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Cart record deleted.";
     }
+
+    // Delete every cart record belonging to a user
+    public String deleteCartByUserID(int userID) {
+        String query = "DELETE FROM cart WHERE userID=?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, userID);
+            lastAffectedRows = ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        resultsStale = true;
+        return "Cart cleared.";
+    }
+
+    private CartRecord mapRowToCartRecord(ResultSet rs) throws SQLException {
+        return new CartRecord(
+                rs.getInt("userID"),
+                rs.getInt("bookID"),
+                rs.getInt("quantity")
+        );
+    }
 }
@@ -0,0 +1,403 @@
+package com.bookstore.db;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * Process wide, read-mostly copy of the book catalog.
+ *
+ * Readers get an immutable Snapshot through a single volatile read, so
+ * catalog requests never borrow a database connection once the cache is warm.
+ * The snapshot is built with one SELECT on first use. After that, BookDatabase
+ * writes and committed orders patch it copy-on-write: a new snapshot is built
+ * from the old one and swapped in, and readers holding the old one are
+ * unaffected.
+ *
+ * Every snapshot carries a version that changes whenever the catalog content
+ * changes, so callers can key derived data (serialized responses, search
+ * indexes) on it. Books inside a snapshot are never modified after it is
+ * published, including by committed orders.
+ */
+public class CatalogCache {
+    private static final Logger LOGGER = Logger.getLogger(CatalogCache.class.getName());
+
+    private static final CatalogCache INSTANCE = new CatalogCache();
+
+    private volatile Snapshot snapshot;
+    // Kept in step with the snapshot under writeLock
+    private final BookSearchIndex searchIndex = new BookSearchIndex();
+    // Immutable; replaced whenever titles, authors, categories or ratings may have changed
+    private volatile BookSuggester suggester = BookSuggester.build(Collections.emptyList());
+    // Serializes rebuilds and patches; readers never take it
+    private final Object writeLock = new Object();
+    private final AtomicLong versionSequence = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong rebuildCount = new AtomicLong();
+    private volatile long lastRebuildMillis = 0;
+
+    /**
+     * Immutable view of the whole catalog at one version
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final List<BookRecords> books;
+        private final Map<Integer, BookRecords> byId;
+        private final List<BookRecords> featured;
+        // Books with a release date, oldest first, for the coming-soon view
+        private final BookRecords[] byReleaseDate;
+        // Built on first faceted query, and again when the date changes
+        private volatile CatalogFacets facets;
+        // Built per sort key on first use
+        private final ConcurrentHashMap<String, CatalogSort> sorts = new ConcurrentHashMap<>();
+
+        private Snapshot(long version, List<BookRecords> books) {
+            this.version = version;
+            this.books = Collections.unmodifiableList(books);
+            Map<Integer, BookRecords> ids = new HashMap<>(books.size() * 2);
+            List<BookRecords> featuredBooks = new ArrayList<>();
+            List<BookRecords> dated = new ArrayList<>();
+            for (BookRecords book : books) {
+                ids.put(book.getId(), book);
+                if (book.isFeatured()) {
+                    featuredBooks.add(book);
+                }
+                if (book.getReleaseDate() != null) {
+                    dated.add(book);
+                }
+            }
+            dated.sort(Comparator.comparing(BookRecords::getReleaseDate));
+            this.byId = Collections.unmodifiableMap(ids);
+            this.featured = Collections.unmodifiableList(featuredBooks);
+            this.byReleaseDate = dated.toArray(new BookRecords[0]);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        // All books in id order
+        public List<BookRecords> getBooks() {
+            return books;
+        }
+
+        public BookRecords getBook(int id) {
+            return byId.get(id);
+        }
+
+        public List<BookRecords> getFeatured() {
+            return featured;
+        }
+
+        public CatalogFacets getFacets() {
+            LocalDate today = LocalDate.now();
+            CatalogFacets current = facets;
+            if (current == null || !current.getDay().equals(today)) {
+                current = new CatalogFacets(books, today);
+                facets = current;
+            }
+            return current;
+        }
+
+        /**
+         * Precomputed order of this snapshot for one of CatalogSort.KEYS
+         */
+        public CatalogSort getSort(String key) {
+            if (!CatalogSort.KEYS.contains(key)) {
+                throw new IllegalArgumentException("Unknown sort key: " + key);
+            }
+            return sorts.computeIfAbsent(key, k -> new CatalogSort(books, k));
+        }
+
+        // Books released after today, soonest first
+        public List<BookRecords> getComingSoon() {
+            Date today = Date.valueOf(LocalDate.now());
+            int low = 0;
+            int high = byReleaseDate.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (byReleaseDate[mid].getReleaseDate().after(today)) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return Collections.unmodifiableList(Arrays.asList(byReleaseDate).subList(low, byReleaseDate.length));
+        }
+    }
+
+    private CatalogCache() {
+    }
+
+    public static CatalogCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Current catalog snapshot, loading it with a pooled connection if the cache is cold
+     * @return the snapshot
+     * @throws SQLException if the catalog cannot be loaded
+     */
+    public Snapshot getSnapshot() throws SQLException {
+        Snapshot current = snapshot;
+        if (current != null) {
+            hitCount.incrementAndGet();
+            return current;
+        }
+        missCount.incrementAndGet();
+        synchronized (writeLock) {
+            current = snapshot;
+            if (current == null) {
+                try (Connection connection = DatabaseFactory.getDataSource().getConnection()) {
+                    current = rebuild(connection);
+                }
+            }
+            return current;
+        }
+    }
+
+    // Caller holds writeLock
+    private Snapshot rebuild(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        List<BookRecords> books = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement("SELECT * FROM books ORDER BY id");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                books.add(BookActions.mapRowToBookRecord(rs));
+            }
+        }
+        Snapshot built = new Snapshot(versionSequence.incrementAndGet(), books);
+        searchIndex.rebuild(books);
+        rebuildSuggester(books);
+        snapshot = built;
+        rebuildCount.incrementAndGet();
+        lastRebuildMillis = (System.nanoTime() - start) / 1_000_000L;
+        return built;
+    }
+
+    /**
+     * Drop the snapshot; the next read reloads it
+     */
+    public void invalidate() {
+        synchronized (writeLock) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Insert or replace one book after it was written to the database
+     */
+    public void put(BookRecords book) {
+        BookRecords copy = copyOf(book);
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            if (current == null) {
+                return;
+            }
+            List<BookRecords> books = new ArrayList<>(current.books.size() + 1);
+            boolean replaced = false;
+            for (BookRecords existing : current.books) {
+                if (existing.getId() == copy.getId()) {
+                    books.add(copy);
+                    replaced = true;
+                } else {
+                    books.add(existing);
+                }
+            }
+            if (!replaced) {
+                books.add(copy);
+                books.sort(Comparator.comparingInt(BookRecords::getId));
+            }
+            searchIndex.update(copy);
+            rebuildSuggester(books);
+            snapshot = new Snapshot(versionSequence.incrementAndGet(), books);
+        }
+    }
+
+    /**
+     * Remove one book after it was deleted from the database
+     */
+    public void remove(int bookId) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            if (current == null || current.getBook(bookId) == null) {
+                return;
+            }
+            List<BookRecords> books = new ArrayList<>(current.books.size());
+            for (BookRecords existing : current.books) {
+                if (existing.getId() != bookId) {
+                    books.add(existing);
+                }
+            }
+            searchIndex.remove(bookId);
+            rebuildSuggester(books);
+            snapshot = new Snapshot(versionSequence.incrementAndGet(), books);
+        }
+    }
+
+    /**
+     * Apply stock taken by a committed order (bookID to units taken). Like put,
+     * the changed books are copied into a new snapshot with a new version; the
+     * search index and suggester do not depend on stock and are left alone
+     */
+    public void takeStock(Map<Integer, Integer> taken) {
+        if (taken.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            if (current == null) {
+                return;
+            }
+            List<BookRecords> books = new ArrayList<>(current.books.size());
+            for (BookRecords existing : current.books) {
+                Integer units = taken.get(existing.getId());
+                if (units != null) {
+                    BookRecords copy = copyOf(existing);
+                    copy.setQuantityInStock(existing.getQuantityInStock() - units);
+                    books.add(copy);
+                } else {
+                    books.add(existing);
+                }
+            }
+            snapshot = new Snapshot(versionSequence.incrementAndGet(), books);
+        }
+    }
+
+    /**
+     * Full-text search over the cached catalog, best match first
+     * @param query free text; every word must match a word (or the start of one) in
+     *              the ISBN, title, author, category, publisher, edition or year
+     * @param limit maximum number of results, 0 for all
+     * @throws SQLException if the catalog has to be loaded and cannot be
+     */
+    public List<BookRecords> search(String query, int limit) throws SQLException {
+        return search(query, limit, false).getBooks();
+    }
+
+    /**
+     * Full-text search that, when fuzzy, also accepts near matches for misspelled words
+     * @throws SQLException if the catalog has to be loaded and cannot be
+     */
+    public SearchResult search(String query, int limit, boolean fuzzy) throws SQLException {
+        Snapshot current = getSnapshot();
+        BookSearchIndex.Hits hits = fuzzy
+                ? searchIndex.searchFuzzy(query, limit)
+                : new BookSearchIndex.Hits(searchIndex.search(query, limit), null);
+        List<BookRecords> results = new ArrayList<>();
+        for (int id : hits.getIds()) {
+            // The index may already be a version ahead of the snapshot this request holds
+            BookRecords book = current.getBook(id);
+            if (book != null) {
+                results.add(book);
+            }
+        }
+        return new SearchResult(results, hits.getDidYouMean());
+    }
+
+    /**
+     * Ranked search results and, for fuzzy searches that corrected a word, the corrected query
+     */
+    public static final class SearchResult {
+        private final List<BookRecords> books;
+        private final String didYouMean;
+
+        SearchResult(List<BookRecords> books, String didYouMean) {
+            this.books = books;
+            this.didYouMean = didYouMean;
+        }
+
+        public List<BookRecords> getBooks() {
+            return books;
+        }
+
+        public String getDidYouMean() {
+            return didYouMean;
+        }
+    }
+
+    public BookSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Typeahead suggestions for a partly typed title, author or category
+     * @throws SQLException if the catalog has to be loaded and cannot be
+     */
+    public List<BookSuggester.Suggestion> suggest(String query, int limit) throws SQLException {
+        getSnapshot();
+        return suggester.suggest(query, limit);
+    }
+
+    public BookSuggester getSuggester() {
+        return suggester;
+    }
+
+    // Caller holds writeLock
+    private void rebuildSuggester(List<BookRecords> books) {
+        BookSuggester built = BookSuggester.build(books);
+        suggester = built;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Suggestion index rebuilt: " + built.getEntryCount() + " suggestions, "
+                    + built.getKeyCount() + " keys, ~" + (built.getEstimatedBytes() / 1024) + " KB");
+        }
+    }
+
+    private static BookRecords copyOf(BookRecords book) {
+        return new BookRecords(
+                book.getId(),
+                book.getIsbn(),
+                book.getCategory(),
+                book.getAuthor(),
+                book.getTitle(),
+                book.getCoverImage(),
+                book.getEdition(),
+                book.getPublisher(),
+                book.getPublicationYear(),
+                book.getQuantityInStock(),
+                book.getMinThreshold(),
+                book.getBuyingPrice(),
+                book.getSellingPrice(),
+                book.getRating(),
+                book.isFeatured(),
+                book.getReleaseDate(),
+                book.getDescription()
+        );
+    }
+
+    // Metrics
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRebuildCount() {
+        return rebuildCount.get();
+    }
+
+    public long getLastRebuildMillis() {
+        return lastRebuildMillis;
+    }
+}
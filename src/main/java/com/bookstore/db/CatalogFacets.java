@@ -0,0 +1,260 @@
+package com.bookstore.db;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * Bitset facet index over one catalog snapshot.
+ *
+ * Bit i of every bitset stands for the i-th book of the snapshot. Each facet
+ * value (a category, a year, a price band, ...) owns one long[] bitset, so a
+ * filtered query is a handful of word-wise ORs and ANDs and facet counts are
+ * popcounts. Values selected within one facet are ORed, facets are ANDed.
+ * Counts for a facet are computed with every other facet's selection applied,
+ * so shoppers see how many books each alternative value would give them.
+ *
+ * Availability depends on today's date, so an instance is only valid for the
+ * day it was built; CatalogCache.Snapshot rebuilds it when the date changes.
+ */
+public class CatalogFacets {
+
+    public static final String CATEGORY = "category";
+    public static final String YEAR = "year";
+    public static final String PRICE = "price";
+    public static final String RATING = "rating";
+    public static final String FEATURED = "featured";
+    public static final String AVAILABILITY = "availability";
+
+    public static final List<String> FACETS = List.of(CATEGORY, YEAR, PRICE, RATING, FEATURED, AVAILABILITY);
+
+    // Price bands on sellingPrice: lower bounds, and their labels
+    private static final double[] PRICE_BOUNDS = {0, 10, 20, 30, 50};
+    private static final String[] PRICE_LABELS = {"0-10", "10-20", "20-30", "30-50", "50+"};
+    // Rating bands are cumulative: "4+" holds every book rated 4 or higher
+    private static final int[] RATING_FLOORS = {4, 3, 2, 1};
+
+    private static final String IN_STOCK = "inStock";
+    private static final String OUT_OF_STOCK = "outOfStock";
+    private static final String COMING_SOON = "comingSoon";
+
+    private final LocalDate day;
+    private final List<BookRecords> books;
+    private final int words;
+    private final Map<Integer, Integer> positions = new HashMap<>();
+    // facet -> value -> bitset, values in display order
+    private final Map<String, Map<String, long[]>> bitsets = new LinkedHashMap<>();
+
+    /**
+     * Books matching a filtered query, in catalog order, with facet counts
+     */
+    public static final class Result {
+        private final List<BookRecords> books;
+        private final Map<String, Map<String, Integer>> counts;
+
+        Result(List<BookRecords> books, Map<String, Map<String, Integer>> counts) {
+            this.books = books;
+            this.counts = counts;
+        }
+
+        public List<BookRecords> getBooks() {
+            return books;
+        }
+
+        public Map<String, Map<String, Integer>> getCounts() {
+            return counts;
+        }
+    }
+
+    CatalogFacets(List<BookRecords> books, LocalDate day) {
+        this.day = day;
+        this.books = books;
+        this.words = (books.size() + 63) >>> 6;
+
+        Map<String, long[]> categories = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        Map<String, long[]> years = new TreeMap<>(Collections.reverseOrder());
+        Map<String, long[]> prices = new LinkedHashMap<>();
+        Map<String, long[]> ratings = new LinkedHashMap<>();
+        Map<String, long[]> featured = new LinkedHashMap<>();
+        Map<String, long[]> availability = new LinkedHashMap<>();
+        for (String label : PRICE_LABELS) {
+            prices.put(label, new long[words]);
+        }
+        for (int floor : RATING_FLOORS) {
+            ratings.put(floor + "+", new long[words]);
+        }
+        featured.put("true", new long[words]);
+        featured.put("false", new long[words]);
+        availability.put(IN_STOCK, new long[words]);
+        availability.put(OUT_OF_STOCK, new long[words]);
+        availability.put(COMING_SOON, new long[words]);
+
+        Date today = Date.valueOf(day);
+        for (int i = 0; i < books.size(); i++) {
+            BookRecords book = books.get(i);
+            positions.put(book.getId(), i);
+            if (book.getCategory() != null && !book.getCategory().isEmpty()) {
+                set(categories.computeIfAbsent(book.getCategory(), k -> new long[words]), i);
+            }
+            if (book.getPublicationYear() > 0) {
+                // Zero-padded so the reverse string order is also the reverse numeric order
+                set(years.computeIfAbsent(String.format("%04d", book.getPublicationYear()), k -> new long[words]), i);
+            }
+            set(prices.get(PRICE_LABELS[priceBand(book.getSellingPrice())]), i);
+            for (int floor : RATING_FLOORS) {
+                if (book.getRating() >= floor) {
+                    set(ratings.get(floor + "+"), i);
+                }
+            }
+            set(featured.get(String.valueOf(book.isFeatured())), i);
+            if (book.getReleaseDate() != null && book.getReleaseDate().after(today)) {
+                set(availability.get(COMING_SOON), i);
+            } else if (book.getQuantityInStock() > 0) {
+                set(availability.get(IN_STOCK), i);
+            } else {
+                set(availability.get(OUT_OF_STOCK), i);
+            }
+        }
+
+        bitsets.put(CATEGORY, categories);
+        bitsets.put(YEAR, years);
+        bitsets.put(PRICE, prices);
+        bitsets.put(RATING, ratings);
+        bitsets.put(FEATURED, featured);
+        bitsets.put(AVAILABILITY, availability);
+    }
+
+    LocalDate getDay() {
+        return day;
+    }
+
+    private static int priceBand(double price) {
+        int band = 0;
+        while (band + 1 < PRICE_BOUNDS.length && price >= PRICE_BOUNDS[band + 1]) {
+            band++;
+        }
+        return band;
+    }
+
+    /**
+     * Filter the catalog and count every facet value
+     * @param selected facet name to the values to accept; facets that are absent or empty do not filter
+     * @param restrictTo only consider these book IDs (e.g. search hits), or null for the whole catalog
+     */
+    public Result filter(Map<String, ? extends Collection<String>> selected, Collection<Integer> restrictTo) {
+        long[] base = restrictTo == null ? all() : positionsOf(restrictTo);
+
+        // Selection bitset per facet that has one
+        Map<String, long[]> selections = new HashMap<>();
+        for (String facet : FACETS) {
+            Collection<String> values = selected.get(facet);
+            if (values == null || values.isEmpty()) {
+                continue;
+            }
+            long[] union = new long[words];
+            Map<String, long[]> valueBits = bitsets.get(facet);
+            for (String value : values) {
+                long[] bits = lookup(facet, valueBits, value);
+                if (bits != null) {
+                    or(union, bits);
+                }
+            }
+            selections.put(facet, union);
+        }
+
+        long[] matches = base.clone();
+        for (long[] selection : selections.values()) {
+            and(matches, selection);
+        }
+
+        Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+        for (String facet : FACETS) {
+            // Apply every selection except this facet's own
+            long[] context = base.clone();
+            for (Map.Entry<String, long[]> selection : selections.entrySet()) {
+                if (!selection.getKey().equals(facet)) {
+                    and(context, selection.getValue());
+                }
+            }
+            Map<String, Integer> valueCounts = new LinkedHashMap<>();
+            for (Map.Entry<String, long[]> value : bitsets.get(facet).entrySet()) {
+                String label = facet.equals(YEAR) ? String.valueOf(Integer.parseInt(value.getKey())) : value.getKey();
+                valueCounts.put(label, countAnd(context, value.getValue()));
+            }
+            counts.put(facet, valueCounts);
+        }
+
+        List<BookRecords> results = new ArrayList<>();
+        for (int w = 0; w < words; w++) {
+            long word = matches[w];
+            while (word != 0) {
+                results.add(books.get((w << 6) + Long.numberOfTrailingZeros(word)));
+                word &= word - 1;
+            }
+        }
+        return new Result(results, counts);
+    }
+
+    private static long[] lookup(String facet, Map<String, long[]> valueBits, String value) {
+        if (facet.equals(YEAR)) {
+            try {
+                return valueBits.get(String.format("%04d", Integer.parseInt(value.trim())));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return valueBits.get(value.trim());
+    }
+
+    private long[] all() {
+        long[] bits = new long[words];
+        for (int i = 0; i < books.size(); i++) {
+            set(bits, i);
+        }
+        return bits;
+    }
+
+    private long[] positionsOf(Collection<Integer> ids) {
+        long[] bits = new long[words];
+        for (Integer id : ids) {
+            Integer position = positions.get(id);
+            if (position != null) {
+                set(bits, position);
+            }
+        }
+        return bits;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static void or(long[] target, long[] bits) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] |= bits[i];
+        }
+    }
+
+    private static void and(long[] target, long[] bits) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] &= bits[i];
+        }
+    }
+
+    private static int countAnd(long[] a, long[] b) {
+        int count = 0;
+        for (int i = 0; i < a.length; i++) {
+            count += Long.bitCount(a[i] & b[i]);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,171 @@
+package com.bookstore.db;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * Precomputed sort order of one catalog snapshot for one sort key.
+ *
+ * Each direction is a permutation array of positions in the snapshot's
+ * id-ordered book list, computed once per snapshot and key; the descending one
+ * only when it is first asked for. Reading a sorted page is a slice of that
+ * array, so no request sorts the catalog. Books without a value for the key
+ * (no release date, no title) always come last. Ties keep ascending id order
+ * in both directions.
+ */
+public class CatalogSort {
+
+    public static final String PRICE = "price";
+    public static final String RATING = "rating";
+    public static final String RELEASE_DATE = "releaseDate";
+    public static final String TITLE = "title";
+
+    public static final List<String> KEYS = List.of(PRICE, RATING, RELEASE_DATE, TITLE);
+
+    private final List<BookRecords> books;
+    private final String key;
+    // Books with a value for the key; they come first in either direction
+    private final int valued;
+    private final Order ascendingOrder;
+    private volatile Order descendingOrder;
+
+    // One direction: positions in sort order, and its inverse, the rank of the book at each position
+    private static final class Order {
+        final int[] order;
+        final int[] rank;
+
+        Order(int[] order) {
+            this.order = order;
+            this.rank = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                rank[order[i]] = i;
+            }
+        }
+    }
+
+    CatalogSort(List<BookRecords> books, String key) {
+        this.books = books;
+        this.key = key;
+        int count = 0;
+        for (BookRecords book : books) {
+            if (hasValue(book, key)) {
+                count++;
+            }
+        }
+        this.valued = count;
+        this.ascendingOrder = build(comparator(key));
+    }
+
+    private Order build(Comparator<BookRecords> comparator) {
+        int size = books.size();
+        List<Integer> withValue = new ArrayList<>(valued);
+        List<Integer> withoutValue = new ArrayList<>(size - valued);
+        for (int position = 0; position < size; position++) {
+            if (hasValue(books.get(position), key)) {
+                withValue.add(position);
+            } else {
+                withoutValue.add(position);
+            }
+        }
+        // List.sort is stable, so equal values stay in id order
+        withValue.sort((a, b) -> comparator.compare(books.get(a), books.get(b)));
+
+        int[] order = new int[size];
+        int next = 0;
+        for (Integer position : withValue) {
+            order[next++] = position;
+        }
+        for (Integer position : withoutValue) {
+            order[next++] = position;
+        }
+        return new Order(order);
+    }
+
+    private Order order(boolean descending) {
+        if (!descending) {
+            return ascendingOrder;
+        }
+        Order order = descendingOrder;
+        if (order == null) {
+            // Built at most a few times if requests race; every build is the same
+            order = build(comparator(key).reversed());
+            descendingOrder = order;
+        }
+        return order;
+    }
+
+    private static boolean hasValue(BookRecords book, String key) {
+        switch (key) {
+            case RELEASE_DATE:
+                return book.getReleaseDate() != null;
+            case TITLE:
+                return book.getTitle() != null;
+            default:
+                return true;
+        }
+    }
+
+    private static Comparator<BookRecords> comparator(String key) {
+        switch (key) {
+            case PRICE:
+                return Comparator.comparingDouble(BookRecords::getSellingPrice);
+            case RATING:
+                return Comparator.comparingDouble(BookRecords::getRating);
+            case RELEASE_DATE:
+                return Comparator.comparing(BookRecords::getReleaseDate);
+            case TITLE:
+                return Comparator.comparing(BookRecords::getTitle, String.CASE_INSENSITIVE_ORDER);
+            default:
+                throw new IllegalArgumentException("Unknown sort key: " + key);
+        }
+    }
+
+    /**
+     * One page of the whole catalog in this order
+     */
+    public List<BookRecords> page(boolean descending, int offset, int limit) {
+        int from = Math.max(0, offset);
+        int to = Math.min(books.size(), from + Math.max(0, limit));
+        List<BookRecords> page = new ArrayList<>(Math.max(0, to - from));
+        int[] order = order(descending).order;
+        for (int i = from; i < to; i++) {
+            page.add(books.get(order[i]));
+        }
+        return page;
+    }
+
+    /**
+     * Put a subset of this snapshot's books (e.g. facet matches) in this order
+     * by comparing precomputed ranks. Books not in the snapshot go last.
+     */
+    public List<BookRecords> sort(List<BookRecords> subset, boolean descending) {
+        int[] rank = order(descending).rank;
+        List<BookRecords> sorted = new ArrayList<>(subset);
+        sorted.sort(Comparator.comparingLong(book -> {
+            int position = positionOf(book.getId());
+            return position < 0 ? Long.MAX_VALUE : rank[position];
+        }));
+        return sorted;
+    }
+
+    // The snapshot list is ordered by id, so a position is a binary search away
+    private int positionOf(int id) {
+        int low = 0;
+        int high = books.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = books.get(mid).getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,11 +1,17 @@
 package com.bookstore.db;
 
+import java.sql.SQLException;
+
 /**
  * Factory class for creating database instances.
  * This factory centralizes the creation of database objects and provides
  * a consistent way to instantiate different database types.
+ * Every database instance it creates borrows its connection from the one
+ * shared PooledDataSource, so connectDb()/disconnectDb() are cheap.
  */
 public class DatabaseFactory {
+
+    private static volatile SearchBackend searchBackend;
     
     /**
      * Database types supported by the factory
@@ -21,7 +27,9 @@ public class DatabaseFactory {
         SHIPPING_ADDRESS,
         TRANSACTION,
         BILLING_ADDRESS,
-        VERIFICATION_TOKEN
+        VERIFICATION_TOKEN,
+        EMAIL_CAMPAIGN,
+        EMAIL_OUTBOX
     }
     
     /**
@@ -52,6 +60,10 @@ public class DatabaseFactory {
                 return new BillingAddressDatabase();
             case VERIFICATION_TOKEN:
                 return new VerificationTokenDatabase();
+            case EMAIL_CAMPAIGN:
+                return new EmailCampaignDatabase();
+            case EMAIL_OUTBOX:
+                return new EmailOutboxDatabase();
             default:
                 throw new IllegalArgumentException("Unsupported database type: " + type);
         }
@@ -75,6 +87,63 @@ public class DatabaseFactory {
         }
     }
     
+    /**
+     * Get the shared connection pool backing every database instance
+     * @return the process wide pooled data source
+     * @throws SQLException if the pool could not be created from db.properties
+     */
+    public static PooledDataSource getDataSource() throws SQLException {
+        return PooledDataSource.getInstance();
+    }
+
+    /**
+     * Get the book search backend selected by db.search.backend in db.properties:
+     * "memory" (default) for the in-process index, "fulltext" for MySQL FULLTEXT
+     * @return the process wide search backend
+     */
+    public static SearchBackend getSearchBackend() {
+        SearchBackend backend = searchBackend;
+        if (backend == null) {
+            synchronized (DatabaseFactory.class) {
+                backend = searchBackend;
+                if (backend == null) {
+                    backend = createSearchBackend(AppProperties.load("search backend").getProperty("db.search.backend"));
+                    System.out.println("Book search backend: " + backend.getName());
+                    searchBackend = backend;
+                }
+            }
+        }
+        return backend;
+    }
+
+    /**
+     * Create a search backend by name
+     * @param name "memory" or "fulltext"; null or blank selects "memory"
+     * @return a new backend instance
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    public static SearchBackend createSearchBackend(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return new InMemorySearchBackend();
+        }
+        switch (name.trim().toLowerCase()) {
+            case InMemorySearchBackend.NAME:
+                return new InMemorySearchBackend();
+            case MySqlFullTextSearchBackend.NAME:
+                return new MySqlFullTextSearchBackend();
+            default:
+                throw new IllegalArgumentException("Unsupported search backend: " + name);
+        }
+    }
+
+    /**
+     * Close all pooled connections. AppLifecycleListener calls this last on
+     * server shutdown; it is the only place the pool is closed.
+     */
+    public static void shutdown() {
+        PooledDataSource.shutdownInstance();
+    }
+
     /**
      * Get all supported database types
      * @return array of all supported database types
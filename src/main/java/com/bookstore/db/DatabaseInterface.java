@@ -9,13 +9,13 @@ import java.sql.Connection;
 public interface DatabaseInterface {
     
     /**
-     * Connect to the database using properties from db.properties file
+     * Borrow a connection from the shared pool configured in db.properties
      * @return true if connection successful, false otherwise
      */
     boolean connectDb();
     
     /**
-     * Disconnect from the database
+     * Return the borrowed connection to the pool
      * @return true if disconnection successful, false otherwise
      */
     boolean disconnectDb();
@@ -0,0 +1,190 @@
+package com.bookstore.db;
+
+import java.sql.*;
+import java.util.ArrayList;
+
+import com.bookstore.records.EmailCampaignRecords;
+
+public class EmailCampaignDatabase implements DatabaseInterface {
+
+    private Connection connection;
+    Boolean connected = false;
+    // Outcome of the most recent write
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+
+    // Constructor
+    public EmailCampaignDatabase() {
+        super();
+    }
+
+    //Connect to DB
+    @Override
+    public boolean connectDb() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connected = true;
+                return true;
+            }
+            connection = DatabaseFactory.getDataSource().getConnection();
+            connected = true;
+        } catch (Exception e) {
+            System.out.println("Connection failed: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    //Disconnect from DB
+    @Override
+    public boolean disconnectDb() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+                connected = false;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
+    //Add new campaign
+    public String addCampaign(EmailCampaignRecords campaign) {
+        String query = "INSERT INTO EmailCampaign (promoID, subject, message, status) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            if (campaign.getPromoID() != null) {
+                ps.setInt(1, campaign.getPromoID());
+            } else {
+                ps.setNull(1, Types.INTEGER);
+            }
+            ps.setString(2, campaign.getSubject());
+            ps.setString(3, campaign.getMessage());
+            ps.setString(4, campaign.getStatus());
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
+            campaign.setCampaignID(lastGeneratedKey);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        return "Campaign Added.";
+    }
+
+    // Returns null if no campaign has this ID
+    public EmailCampaignRecords findCampaignByID(int campaignID) {
+        String query = "SELECT * FROM EmailCampaign WHERE campaignID = ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, campaignID);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapRowToCampaign(rs);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // Campaigns with the given status, oldest first
+    public ArrayList<EmailCampaignRecords> getCampaignsByStatus(String status) {
+        ArrayList<EmailCampaignRecords> campaigns = new ArrayList<>();
+        String query = "SELECT * FROM EmailCampaign WHERE status = ? ORDER BY campaignID";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, status);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    campaigns.add(mapRowToCampaign(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return campaigns;
+    }
+
+    // The RUNNING campaign for a promotion, or null if none is running
+    public EmailCampaignRecords findRunningCampaignByPromoID(int promoID) {
+        String query = "SELECT * FROM EmailCampaign WHERE promoID = ? AND status = ? ORDER BY campaignID LIMIT 1";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, promoID);
+            ps.setString(2, EmailCampaignRecords.STATUS_RUNNING);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapRowToCampaign(rs);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // Checkpoint: every enrolled user up to lastUserID has been sent to
+    public String updateCampaignProgress(int campaignID, int lastUserID, int sentCount, int failedCount) {
+        String query = "UPDATE EmailCampaign SET lastUserID=?, sentCount=?, failedCount=? WHERE campaignID=?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, lastUserID);
+            ps.setInt(2, sentCount);
+            ps.setInt(3, failedCount);
+            ps.setInt(4, campaignID);
+            lastAffectedRows = ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        return "Campaign progress updated.";
+    }
+
+    public String updateCampaignStatus(int campaignID, String status) {
+        String query = "UPDATE EmailCampaign SET status=? WHERE campaignID=?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, status);
+            ps.setInt(2, campaignID);
+            lastAffectedRows = ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        return "Campaign status updated.";
+    }
+
+    private static EmailCampaignRecords mapRowToCampaign(ResultSet rs) throws SQLException {
+        return new EmailCampaignRecords(
+                rs.getInt("campaignID"),
+                rs.getObject("promoID") != null ? rs.getInt("promoID") : null,
+                rs.getString("subject"),
+                rs.getString("message"),
+                rs.getString("status"),
+                rs.getInt("lastUserID"),
+                rs.getInt("sentCount"),
+                rs.getInt("failedCount"),
+                rs.getTimestamp("createdAt"),
+                rs.getTimestamp("updatedAt")
+        );
+    }
+}
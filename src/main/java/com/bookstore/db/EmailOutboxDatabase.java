@@ -0,0 +1,305 @@
+package com.bookstore.db;
+
+import java.sql.*;
+import java.util.ArrayList;
+
+import com.bookstore.records.EmailOutboxRecords;
+
+/*
+ * Outbox of emails waiting to be sent. Other DAOs add rows inside their own
+ * transactions with addEmail(Connection, ...); the background sender claims
+ * due rows and records the outcome of each send.
+ */
+public class EmailOutboxDatabase implements DatabaseInterface {
+
+    // Returned by markSent, markRetry and markDead when another sender has taken the email over
+    public static final String LEASE_LOST = "Email lease lost.";
+
+    private Connection connection;
+    Boolean connected = false;
+    // Outcome of the most recent write
+    private int lastAffectedRows = 0;
+
+    // Constructor
+    public EmailOutboxDatabase() {
+        super();
+    }
+
+    //Connect to DB
+    @Override
+    public boolean connectDb() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connected = true;
+                return true;
+            }
+            connection = DatabaseFactory.getDataSource().getConnection();
+            connected = true;
+        } catch (Exception e) {
+            System.out.println("Connection failed: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    //Disconnect from DB
+    @Override
+    public boolean disconnectDb() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+                connected = false;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    /**
+     * Insert an email on the caller's connection, so it commits or rolls back with the caller's transaction
+     * @throws SQLException if the insert fails
+     */
+    public static void addEmail(Connection connection, EmailOutboxRecords email) throws SQLException {
+        String query = "INSERT INTO EmailOutbox (emailType, recipient, subject, body, status, nextAttemptAt) "
+                + "VALUES (?, ?, ?, ?, ?, NOW(3))";
+        try (PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, email.getEmailType());
+            ps.setString(2, email.getRecipient());
+            ps.setString(3, email.getSubject());
+            ps.setString(4, email.getBody());
+            ps.setString(5, EmailOutboxRecords.STATUS_PENDING);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    email.setOutboxID(keys.getLong(1));
+                }
+            }
+        }
+    }
+
+    //Add new email on its own
+    public String addEmail(EmailOutboxRecords email) {
+        try {
+            addEmail(connection, email);
+            lastAffectedRows = 1;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        return "Email Added.";
+    }
+
+    /**
+     * Claim up to limit due emails for this sender: PENDING rows whose retry time has come,
+     * and SENDING rows whose lease ran out because their sender died. Rows locked by another
+     * sender are skipped rather than waited for. Each claimed row becomes SENDING with a lease
+     * of leaseSeconds and one more attempt
+     * @return the claimed emails, oldest due first
+     * @throws SQLException if the claim fails; nothing is claimed in that case
+     */
+    public ArrayList<EmailOutboxRecords> claimDueEmails(int limit, int leaseSeconds) throws SQLException {
+        String selectQuery = "SELECT * FROM EmailOutbox WHERE status IN (?, ?) AND nextAttemptAt <= NOW(3) "
+                + "ORDER BY nextAttemptAt LIMIT ? FOR UPDATE SKIP LOCKED";
+        ArrayList<EmailOutboxRecords> claimed = new ArrayList<>();
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement ps = connection.prepareStatement(selectQuery)) {
+                ps.setString(1, EmailOutboxRecords.STATUS_PENDING);
+                ps.setString(2, EmailOutboxRecords.STATUS_SENDING);
+                ps.setInt(3, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        claimed.add(mapRowToEmail(rs));
+                    }
+                }
+            }
+            if (!claimed.isEmpty()) {
+                StringBuilder updateQuery = new StringBuilder(
+                        "UPDATE EmailOutbox SET status = ?, attempts = attempts + 1, "
+                        + "nextAttemptAt = TIMESTAMPADD(SECOND, ?, NOW(3)) WHERE outboxID IN (");
+                for (int i = 0; i < claimed.size(); i++) {
+                    updateQuery.append(i == 0 ? "?" : ", ?");
+                }
+                updateQuery.append(")");
+                try (PreparedStatement ps = connection.prepareStatement(updateQuery.toString())) {
+                    ps.setString(1, EmailOutboxRecords.STATUS_SENDING);
+                    ps.setInt(2, leaseSeconds);
+                    for (int i = 0; i < claimed.size(); i++) {
+                        ps.setLong(3 + i, claimed.get(i).getOutboxID());
+                    }
+                    lastAffectedRows = ps.executeUpdate();
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        for (EmailOutboxRecords email : claimed) {
+            email.setStatus(EmailOutboxRecords.STATUS_SENDING);
+            email.setAttempts(email.getAttempts() + 1);
+        }
+        return claimed;
+    }
+
+    // The mark methods below only update the row while this sender still holds its lease:
+    // still SENDING, and not claimed again (which adds an attempt) after the lease ran out.
+    // They return LEASE_LOST when the row has moved on and was left unchanged.
+
+    public String markSent(long outboxID, int attempts) {
+        String query = "UPDATE EmailOutbox SET status = ?, sentAt = NOW(3), lastError = NULL "
+                + "WHERE outboxID = ? AND status = ? AND attempts = ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, EmailOutboxRecords.STATUS_SENT);
+            ps.setLong(2, outboxID);
+            ps.setString(3, EmailOutboxRecords.STATUS_SENDING);
+            ps.setInt(4, attempts);
+            lastAffectedRows = ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        return lastAffectedRows == 0 ? LEASE_LOST : "Email marked sent.";
+    }
+
+    // Back to PENDING, due again after delaySeconds
+    public String markRetry(long outboxID, int attempts, long delaySeconds, String error) {
+        String query = "UPDATE EmailOutbox SET status = ?, nextAttemptAt = TIMESTAMPADD(SECOND, ?, NOW(3)), lastError = ? "
+                + "WHERE outboxID = ? AND status = ? AND attempts = ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, EmailOutboxRecords.STATUS_PENDING);
+            ps.setLong(2, delaySeconds);
+            ps.setString(3, truncate(error));
+            ps.setLong(4, outboxID);
+            ps.setString(5, EmailOutboxRecords.STATUS_SENDING);
+            ps.setInt(6, attempts);
+            lastAffectedRows = ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        return lastAffectedRows == 0 ? LEASE_LOST : "Email scheduled for retry.";
+    }
+
+    public String markDead(long outboxID, int attempts, String error) {
+        String query = "UPDATE EmailOutbox SET status = ?, lastError = ? WHERE outboxID = ? AND status = ? AND attempts = ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, EmailOutboxRecords.STATUS_DEAD);
+            ps.setString(2, truncate(error));
+            ps.setLong(3, outboxID);
+            ps.setString(4, EmailOutboxRecords.STATUS_SENDING);
+            ps.setInt(5, attempts);
+            lastAffectedRows = ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        return lastAffectedRows == 0 ? LEASE_LOST : "Email marked dead.";
+    }
+
+    // Number of emails with the given status, or -1 on error
+    public long countByStatus(String status) {
+        String query = "SELECT COUNT(*) FROM EmailOutbox WHERE status = ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, status);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Age in milliseconds of the oldest email not yet sent or dead, 0 if there is none, -1 on error
+    public long getOldestUnsentAgeMillis() {
+        String query = "SELECT TIMESTAMPDIFF(MICROSECOND, MIN(createdAt), NOW(3)) FROM EmailOutbox WHERE status IN (?, ?)";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, EmailOutboxRecords.STATUS_PENDING);
+            ps.setString(2, EmailOutboxRecords.STATUS_SENDING);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) / 1000L : 0;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Dead emails, newest first, for inspection
+    public ArrayList<EmailOutboxRecords> getDeadEmails(int limit) {
+        ArrayList<EmailOutboxRecords> dead = new ArrayList<>();
+        String query = "SELECT * FROM EmailOutbox WHERE status = ? ORDER BY outboxID DESC LIMIT ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, EmailOutboxRecords.STATUS_DEAD);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    dead.add(mapRowToEmail(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return dead;
+    }
+
+    // Delete sent emails older than the given number of days
+    public String deleteSentBefore(int days) {
+        String query = "DELETE FROM EmailOutbox WHERE status = ? AND sentAt < TIMESTAMPADD(DAY, ?, NOW(3))";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, EmailOutboxRecords.STATUS_SENT);
+            ps.setInt(2, -days);
+            lastAffectedRows = ps.executeUpdate();
+            return "Deleted " + lastAffectedRows + " sent emails.";
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+    }
+
+    private static String truncate(String error) {
+        if (error == null) {
+            return null;
+        }
+        return error.length() > 1000 ? error.substring(0, 1000) : error;
+    }
+
+    private static EmailOutboxRecords mapRowToEmail(ResultSet rs) throws SQLException {
+        return new EmailOutboxRecords(
+                rs.getLong("outboxID"),
+                rs.getString("emailType"),
+                rs.getString("recipient"),
+                rs.getString("subject"),
+                rs.getString("body"),
+                rs.getString("status"),
+                rs.getInt("attempts"),
+                rs.getTimestamp("nextAttemptAt"),
+                rs.getString("lastError"),
+                rs.getTimestamp("createdAt"),
+                rs.getTimestamp("sentAt")
+        );
+    }
+}
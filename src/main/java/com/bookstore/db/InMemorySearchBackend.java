@@ -0,0 +1,23 @@
+package com.bookstore.db;
+
+import java.sql.SQLException;
+
+/**
+ * Search backend answering from the BookSearchIndex kept by CatalogCache.
+ * Needs no database round trip once the catalog is cached and supports
+ * typo correction ("did you mean").
+ */
+public class InMemorySearchBackend implements SearchBackend {
+
+    public static final String NAME = "memory";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public CatalogCache.SearchResult search(String query, int limit, boolean fuzzy) throws SQLException {
+        return CatalogCache.getInstance().search(query, limit, fuzzy);
+    }
+}
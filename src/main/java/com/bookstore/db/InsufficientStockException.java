@@ -0,0 +1,21 @@
+package com.bookstore.db;
+
+import java.util.List;
+
+/**
+ * Thrown when an order asks for more copies of a book than are in stock.
+ * The order is rolled back and nothing is written.
+ */
+public class InsufficientStockException extends Exception {
+    private final List<Integer> bookIDs;
+
+    public InsufficientStockException(List<Integer> bookIDs) {
+        super("Insufficient stock for book ID(s) " + bookIDs);
+        this.bookIDs = bookIDs;
+    }
+
+    // IDs of the books that could not be fully supplied
+    public List<Integer> getBookIDs() {
+        return bookIDs;
+    }
+}
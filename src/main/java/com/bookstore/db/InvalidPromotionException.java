@@ -0,0 +1,18 @@
+package com.bookstore.db;
+
+/**
+ * Thrown when a cart is priced with a promo code that does not exist
+ * or is not active today.
+ */
+public class InvalidPromotionException extends Exception {
+    private final String promoCode;
+
+    public InvalidPromotionException(String promoCode) {
+        super("Invalid or expired promo code: " + promoCode);
+        this.promoCode = promoCode;
+    }
+
+    public String getPromoCode() {
+        return promoCode;
+    }
+}
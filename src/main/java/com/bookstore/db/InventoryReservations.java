@@ -0,0 +1,352 @@
+package com.bookstore.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process wide, expiring stock holds for carts.
+ *
+ * Adding a book to a cart places a hold for that user and book. A hold only
+ * succeeds if the book's quantityInStock minus everything other carts already
+ * hold covers it, so during a release the stock a shopper saw in their cart is
+ * still there at checkout. Holds expire after a TTL unless renewed by another
+ * cart change, and are converted when the order commits.
+ *
+ * Holds are soft: books.quantityInStock stays the source of truth and the
+ * order transaction still takes stock with a conditional decrement. At commit
+ * time the units other carts hold are passed to that decrement so a checkout
+ * without a hold cannot take stock reserved for someone else.
+ *
+ * Each book is guarded by one of a fixed set of striped locks, so carts for
+ * different books never contend. Expiry runs on a hashed wheel timer: one
+ * daemon thread advances a tick and only looks at the bucket for that tick.
+ *
+ * Settings are read from db.properties (all optional):
+ *   db.reservation.ttlSeconds  how long a hold lasts without a cart change (default 900)
+ *   db.reservation.tickMs      timer resolution (default 1000)
+ *   db.reservation.wheelSize   timer buckets, rounded up to a power of two (default 512)
+ */
+public class InventoryReservations {
+
+    private static final int STRIPES = 64;
+
+    private static volatile InventoryReservations instance;
+
+    private final long ttlMs;
+    private final long tickMs;
+    private final int wheelMask;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    // Current hold per user and book
+    private final ConcurrentHashMap<Long, Hold> holds = new ConcurrentHashMap<>();
+    // Units held per book across all carts; only changed under the book's stripe lock
+    private final ConcurrentHashMap<Integer, Integer> heldByBook = new ConcurrentHashMap<>();
+    private final List<ConcurrentLinkedQueue<Hold>> wheel;
+    private final AtomicLong currentTick = new AtomicLong();
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong placedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong releasedCount = new AtomicLong();
+    private final AtomicLong convertedCount = new AtomicLong();
+
+    /**
+     * One user's hold on one book. Holds are immutable; getHold hands one out so
+     * that a cart change which is rolled back can put it back with restore.
+     */
+    public static final class Hold {
+        final int userID;
+        final int bookID;
+        final int quantity;
+        final long deadlineTick;
+
+        Hold(int userID, int bookID, int quantity, long deadlineTick) {
+            this.userID = userID;
+            this.bookID = bookID;
+            this.quantity = quantity;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    /**
+     * Get the process wide reservation engine, creating it from db.properties on first use
+     * @return the shared engine
+     */
+    public static InventoryReservations getInstance() {
+        InventoryReservations engine = instance;
+        if (engine == null) {
+            synchronized (InventoryReservations.class) {
+                engine = instance;
+                if (engine == null) {
+                    engine = new InventoryReservations(AppProperties.load("reservation settings"));
+                    instance = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    public InventoryReservations(Properties props) {
+        this.ttlMs = Math.max(1L, AppProperties.longProperty(props, "db.reservation.ttlSeconds", 900L)) * 1000L;
+        this.tickMs = Math.max(10L, AppProperties.longProperty(props, "db.reservation.tickMs", 1000L));
+        int wheelSize = Integer.highestOneBit(Math.max(16, (int) AppProperties.longProperty(props, "db.reservation.wheelSize", 512L)) * 2 - 1);
+        this.wheelMask = wheelSize - 1;
+
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cart-reservation-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static long key(int userID, int bookID) {
+        return ((long) userID << 32) | (bookID & 0xFFFFFFFFL);
+    }
+
+    private ReentrantLock lockFor(int bookID) {
+        return locks[(bookID & 0x7FFFFFFF) % STRIPES];
+    }
+
+    /**
+     * Hold a quantity of a book for a user's cart, replacing any hold the user
+     * already had on that book and restarting its TTL
+     * @param userID cart owner
+     * @param bookID book to hold
+     * @param quantity total units the cart now contains; 0 or less releases the hold
+     * @param stockOnHand current books.quantityInStock for the book
+     * @return true if the hold was placed, false if other carts already hold too much of the stock
+     */
+    public boolean reserve(int userID, int bookID, int quantity, int stockOnHand) {
+        if (quantity <= 0) {
+            release(userID, bookID);
+            return true;
+        }
+        long holdKey = key(userID, bookID);
+        ReentrantLock lock = lockFor(bookID);
+        lock.lock();
+        try {
+            Hold previous = holds.get(holdKey);
+            int heldByOthers = heldByBook.getOrDefault(bookID, 0) - (previous == null ? 0 : previous.quantity);
+            if (quantity > stockOnHand - heldByOthers) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            Hold hold = new Hold(userID, bookID, quantity, currentTick.get() + ttlTicks());
+            holds.put(holdKey, hold);
+            setHeld(bookID, heldByOthers + quantity);
+            wheel.get((int) (hold.deadlineTick & wheelMask)).add(hold);
+            placedCount.incrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The hold a user currently has on a book
+     * @return the hold, or null if there is none
+     */
+    public Hold getHold(int userID, int bookID) {
+        return holds.get(key(userID, bookID));
+    }
+
+    /**
+     * Put back a hold returned by getHold, with its original quantity and
+     * deadline, e.g. when the cart change that replaced it was rolled back
+     * @param previous the hold to put back, or null to drop whatever hold the
+     *                 user now has on the book
+     */
+    public void restore(int userID, int bookID, Hold previous) {
+        long holdKey = key(userID, bookID);
+        ReentrantLock lock = lockFor(bookID);
+        lock.lock();
+        try {
+            Hold current = holds.get(holdKey);
+            int heldByOthers = heldByBook.getOrDefault(bookID, 0) - (current == null ? 0 : current.quantity);
+            if (previous == null || previous.deadlineTick <= currentTick.get()) {
+                // There was no hold, or it would have expired in the meantime
+                holds.remove(holdKey);
+                setHeld(bookID, heldByOthers);
+                return;
+            }
+            holds.put(holdKey, previous);
+            setHeld(bookID, heldByOthers + previous.quantity);
+            // The timer drops replaced holds from their bucket, so queue it again; a
+            // second entry for the same hold is skipped once the first has expired it
+            wheel.get((int) (previous.deadlineTick & wheelMask)).add(previous);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop a user's hold on a book, e.g. when it is removed from the cart
+     */
+    public void release(int userID, int bookID) {
+        if (remove(userID, bookID) != null) {
+            releasedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop a user's holds on several books, e.g. when the cart is cleared
+     */
+    public void release(int userID, Collection<Integer> bookIDs) {
+        for (Integer bookID : bookIDs) {
+            release(userID, bookID);
+        }
+    }
+
+    /**
+     * Turn a user's holds into a sale once the order has committed
+     */
+    public void convert(int userID, Collection<Integer> bookIDs) {
+        for (Integer bookID : bookIDs) {
+            if (remove(userID, bookID) != null) {
+                convertedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Units of each book held by carts other than this user's, for the
+     * conditional stock decrement at commit time
+     * @return bookID to units held by others; books nobody else holds are left out
+     */
+    public Map<Integer, Integer> heldByOthers(int userID, Collection<Integer> bookIDs) {
+        Map<Integer, Integer> result = new HashMap<>();
+        for (Integer bookID : bookIDs) {
+            ReentrantLock lock = lockFor(bookID);
+            lock.lock();
+            try {
+                Hold own = holds.get(key(userID, bookID));
+                int others = heldByBook.getOrDefault(bookID, 0) - (own == null ? 0 : own.quantity);
+                if (others > 0) {
+                    result.put(bookID, others);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    private Hold remove(int userID, int bookID) {
+        ReentrantLock lock = lockFor(bookID);
+        lock.lock();
+        try {
+            Hold hold = holds.remove(key(userID, bookID));
+            if (hold != null) {
+                setHeld(bookID, heldByBook.getOrDefault(bookID, 0) - hold.quantity);
+            }
+            return hold;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setHeld(int bookID, int units) {
+        if (units > 0) {
+            heldByBook.put(bookID, units);
+        } else {
+            heldByBook.remove(bookID);
+        }
+    }
+
+    private long ttlTicks() {
+        return Math.max(1L, (ttlMs + tickMs - 1) / tickMs);
+    }
+
+    // Timer thread: expire the holds due in this tick's bucket; later rounds stay queued
+    private void advance() {
+        try {
+            long tick = currentTick.incrementAndGet();
+            Iterator<Hold> bucket = wheel.get((int) (tick & wheelMask)).iterator();
+            while (bucket.hasNext()) {
+                Hold hold = bucket.next();
+                long holdKey = key(hold.userID, hold.bookID);
+                if (holds.get(holdKey) != hold) {
+                    // Replaced by a newer hold or already released/converted
+                    bucket.remove();
+                } else if (hold.deadlineTick <= tick) {
+                    bucket.remove();
+                    expire(hold, holdKey);
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void expire(Hold hold, long holdKey) {
+        ReentrantLock lock = lockFor(hold.bookID);
+        lock.lock();
+        try {
+            if (holds.remove(holdKey, hold)) {
+                setHeld(hold.bookID, heldByBook.getOrDefault(hold.bookID, 0) - hold.quantity);
+                expiredCount.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop the expiry timer. Outstanding holds are simply forgotten.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    // Metrics
+
+    public int getActiveHolds() {
+        return holds.size();
+    }
+
+    public int getHeldUnits(int bookID) {
+        return heldByBook.getOrDefault(bookID, 0);
+    }
+
+    public long getPlacedCount() {
+        return placedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getReleasedCount() {
+        return releasedCount.get();
+    }
+
+    public long getConvertedCount() {
+        return convertedCount.get();
+    }
+}
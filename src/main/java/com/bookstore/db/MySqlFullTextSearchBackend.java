@@ -0,0 +1,86 @@
+package com.bookstore.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bookstore.records.BookRecords;
+
+/**
+ * Search backend running MATCH ... AGAINST on the ft_books_search FULLTEXT
+ * index (see BookStore_Schema/AlterBooksTable.sql).
+ *
+ * Every query word becomes "+word*" in BOOLEAN MODE, so like the in-memory
+ * index each word must match a word, or the start of one, in the ISBN, title,
+ * author, category, publisher or edition; MySQL orders by its relevance score.
+ * Words shorter than innodb_ft_min_token_size (3 by default) are not in the
+ * index and are left optional instead of required. Fuzzy searches that find
+ * nothing retry in NATURAL LANGUAGE MODE, which accepts books matching any of
+ * the words; MySQL has no spelling correction, so didYouMean is always null.
+ */
+public class MySqlFullTextSearchBackend implements SearchBackend {
+
+    public static final String NAME = "fulltext";
+
+    private static final int MIN_TOKEN_SIZE = 3;
+    private static final String MATCH = "MATCH(isbn, title, author, category, publisher, edition)";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public CatalogCache.SearchResult search(String query, int limit, boolean fuzzy) throws SQLException {
+        List<String> words = BookSearchIndex.tokenize(query);
+        if (words.isEmpty()) {
+            return new CatalogCache.SearchResult(new ArrayList<>(), null);
+        }
+        try (Connection connection = DatabaseFactory.getDataSource().getConnection()) {
+            List<BookRecords> books = match(connection, booleanQuery(words), "IN BOOLEAN MODE", limit);
+            if (books.isEmpty() && fuzzy) {
+                books = match(connection, String.join(" ", words), "IN NATURAL LANGUAGE MODE", limit);
+            }
+            return new CatalogCache.SearchResult(books, null);
+        }
+    }
+
+    private static String booleanQuery(List<String> words) {
+        StringBuilder against = new StringBuilder();
+        for (String word : words) {
+            if (against.length() > 0) {
+                against.append(' ');
+            }
+            if (word.length() >= MIN_TOKEN_SIZE) {
+                against.append('+');
+            }
+            // tokenize() keeps letters and digits only, so no boolean operators get through
+            against.append(word).append('*');
+        }
+        return against.toString();
+    }
+
+    private static List<BookRecords> match(Connection connection, String against, String mode, int limit) throws SQLException {
+        String sql = "SELECT *, " + MATCH + " AGAINST (? " + mode + ") AS score FROM books"
+                + " WHERE " + MATCH + " AGAINST (? " + mode + ")"
+                + " ORDER BY score DESC, id"
+                + (limit > 0 ? " LIMIT ?" : "");
+        List<BookRecords> books = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setString(1, against);
+            ps.setString(2, against);
+            if (limit > 0) {
+                ps.setInt(3, limit);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    books.add(BookActions.mapRowToBookRecord(rs));
+                }
+            }
+        }
+        return books;
+    }
+}
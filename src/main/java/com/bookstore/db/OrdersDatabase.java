@@ -2,9 +2,10 @@ package com.bookstore.db;
 
 import java.sql.*;
 import java.util.*;
-import java.io.InputStream;
-import java.util.Properties;
+import com.bookstore.records.EmailOutboxRecords;
+import com.bookstore.records.OrderHistoryRecords;
 import com.bookstore.records.OrdersRecords;
+import com.bookstore.records.TransactionRecords;
 
 public class OrdersDatabase implements DatabaseInterface {
 
@@ -12,6 +13,11 @@ public class OrdersDatabase implements DatabaseInterface {
     private ArrayList<OrdersRecords> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     // Constructor
     public OrdersDatabase() {
@@ -23,20 +29,7 @@ public class OrdersDatabase implements DatabaseInterface {
     @Override
     public boolean connectDb() {
         try {
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) {
-                System.out.println("Sorry, unable to find db.properties");
-                return false;
-            }
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -49,7 +42,9 @@ public class OrdersDatabase implements DatabaseInterface {
     @Override
     public boolean disconnectDb() {
         try {
-            connection.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
             connected = false;
         } catch (Exception e) {
             e.printStackTrace();
@@ -71,8 +66,22 @@ public class OrdersDatabase implements DatabaseInterface {
     
     // Getter and setter for results
     public ArrayList<OrdersRecords> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
+
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
     public void setResults(ArrayList<OrdersRecords> results) {
         this.results = results;
     }
@@ -81,7 +90,7 @@ public class OrdersDatabase implements DatabaseInterface {
     public String addOrder(OrdersRecords order) {
         String query = "INSERT INTO orders (userID, cardID, promoID, grandTotal, orderDateTime) VALUES (?, ?, ?, ?, ?)";
         try {
-            PreparedStatement ps = connection.prepareStatement(query);
+            PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setInt(1, order.getUserID());
             ps.setInt(2, order.getCardID());
 
@@ -93,31 +102,190 @@ public class OrdersDatabase implements DatabaseInterface {
 
             ps.setDouble(4, order.getGrandTotal());
             ps.setTimestamp(5, order.getOrderDateTime());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
+            order.setOrderID(lastGeneratedKey);
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Order Added.";
     }
 
+    // Attempts made when InnoDB picks a checkout as a deadlock victim on a hot book
+    private static final int PLACE_ORDER_ATTEMPTS = 3;
+
+    /*
+     * Place an order and all of its line items as one database transaction.
+     * Stock for every book is taken with a conditional decrement
+     * (quantityInStock >= requested), so concurrent checkouts can never
+     * oversell and only buyers of the same book touch the same row.
+     * The order ID comes from the generated key and the line items go in as a
+     * single JDBC batch, so checkout cost does not depend on table size.
+     * Nothing is written if any statement fails or any book is short.
+     * Returns the new orderID, which is also set on the order and each item.
+     * Throws IllegalArgumentException, before anything is written, if any
+     * item quantity is not positive.
+     */
+    public int placeOrder(OrdersRecords order, List<TransactionRecords> items) throws SQLException, InsufficientStockException {
+        return placeOrder(order, items, Collections.emptyMap());
+    }
+
+    /*
+     * Same as placeOrder(order, items), but each book must also leave behind
+     * the units other carts still hold for it (bookID to units), so a checkout
+     * cannot take stock that is reserved for someone else.
+     */
+    public int placeOrder(OrdersRecords order, List<TransactionRecords> items, Map<Integer, Integer> reservedByOthers) throws SQLException, InsufficientStockException {
+        return placeOrder(order, items, reservedByOthers, null);
+    }
+
+    /*
+     * Same as placeOrder(order, items, reservedByOthers), and also adds the
+     * order confirmation email to the outbox in the same transaction, so it
+     * is sent exactly when the order commits. confirmationEmail may be null.
+     */
+    public int placeOrder(OrdersRecords order, List<TransactionRecords> items, Map<Integer, Integer> reservedByOthers,
+                          EmailOutboxRecords confirmationEmail) throws SQLException, InsufficientStockException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return placeOrderOnce(order, items, reservedByOthers, confirmationEmail);
+            } catch (SQLTransactionRollbackException e) {
+                // Deadlock or lock wait timeout; the transaction was rolled back so it is safe to retry
+                if (attempt >= PLACE_ORDER_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private int placeOrderOnce(OrdersRecords order, List<TransactionRecords> items, Map<Integer, Integer> reservedByOthers,
+                               EmailOutboxRecords confirmationEmail) throws SQLException, InsufficientStockException {
+        String stockQuery = "UPDATE books SET quantityInStock = quantityInStock - ? WHERE id = ? AND quantityInStock >= ?";
+        String orderQuery = "INSERT INTO orders (userID, cardID, promoID, grandTotal, orderDateTime) VALUES (?, ?, ?, ?, ?)";
+        String itemQuery = "INSERT INTO transaction (orderID, bookID, quantity, unitPrice) VALUES (?, ?, ?, ?)";
+
+        // Total quantity per book, in ascending ID order so every checkout locks rows in the same order
+        TreeMap<Integer, Integer> quantities = new TreeMap<>();
+        for (TransactionRecords item : items) {
+            // A zero or negative quantity would put stock back instead of taking it
+            if (item.getQuantity() <= 0) {
+                throw new IllegalArgumentException("Quantity for book " + item.getBookID() + " must be positive");
+            }
+            quantities.merge(item.getBookID(), item.getQuantity(), Integer::sum);
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            List<Integer> shortBooks = new ArrayList<>();
+            try (PreparedStatement ps = connection.prepareStatement(stockQuery)) {
+                for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+                    ps.setInt(1, entry.getValue());
+                    ps.setInt(2, entry.getKey());
+                    ps.setInt(3, entry.getValue() + reservedByOthers.getOrDefault(entry.getKey(), 0));
+                    if (ps.executeUpdate() == 0) {
+                        shortBooks.add(entry.getKey());
+                    }
+                }
+            }
+            if (!shortBooks.isEmpty()) {
+                connection.rollback();
+                throw new InsufficientStockException(shortBooks);
+            }
+
+            int orderID;
+            try (PreparedStatement ps = connection.prepareStatement(orderQuery, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setInt(1, order.getUserID());
+                ps.setInt(2, order.getCardID());
+                if (order.getPromoID() != null) {
+                    ps.setInt(3, order.getPromoID());
+                } else {
+                    ps.setNull(3, Types.INTEGER);
+                }
+                ps.setDouble(4, order.getGrandTotal());
+                ps.setTimestamp(5, order.getOrderDateTime());
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        throw new SQLException("Order insert did not return a generated orderID");
+                    }
+                    orderID = keys.getInt(1);
+                }
+            }
+
+            if (!items.isEmpty()) {
+                try (PreparedStatement ps = connection.prepareStatement(itemQuery)) {
+                    for (TransactionRecords item : items) {
+                        ps.setInt(1, orderID);
+                        ps.setInt(2, item.getBookID());
+                        ps.setInt(3, item.getQuantity());
+                        TransactionDatabase.setUnitPrice(ps, 4, item.getUnitPrice());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+
+            if (confirmationEmail != null) {
+                EmailOutboxDatabase.addEmail(connection, confirmationEmail);
+            }
+
+            connection.commit();
+            order.setOrderID(orderID);
+            for (TransactionRecords item : items) {
+                item.setOrderID(orderID);
+            }
+            lastAffectedRows = 1;
+            lastGeneratedKey = orderID;
+            resultsStale = true;
+            CatalogCache.getInstance().takeStock(quantities);
+            reportLowStock(quantities.keySet());
+            return orderID;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Log books from a committed order that have dropped to or below their reorder threshold
+    private void reportLowStock(Collection<Integer> bookIDs) {
+        if (bookIDs.isEmpty()) {
+            return;
+        }
+        String placeholders = String.join(",", Collections.nCopies(bookIDs.size(), "?"));
+        String query = "SELECT id, title, quantityInStock, minThreshold FROM books " +
+                "WHERE id IN (" + placeholders + ") AND quantityInStock <= minThreshold";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            int index = 1;
+            for (Integer bookID : bookIDs) {
+                ps.setInt(index++, bookID);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    System.out.println("Low stock: book " + rs.getInt("id") + " (" + rs.getString("title") + ") has "
+                            + rs.getInt("quantityInStock") + " left, threshold " + rs.getInt("minThreshold"));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     // Load all Orders
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM orders");
             while (rs.next()) {
-                OrdersRecords order = new OrdersRecords(
-                        rs.getInt("orderID"),
-                        rs.getInt("userID"),
-                        rs.getInt("cardID"),
-                        rs.getInt("promoID"),
-                        rs.getDouble("grandTotal"),
-                        rs.getTimestamp("orderDateTime")
-                );
-                results.add(order);
+                results.add(mapRowToOrdersRecord(rs));
             }
             return "Orders Loaded.";
         } catch (SQLException e) {
@@ -126,6 +294,95 @@ public class OrdersDatabase implements DatabaseInterface {
         }
     }
 
+    // Find all Orders placed by a single user, newest first
+    public ArrayList<OrdersRecords> findByUserID(int userID) {
+        ArrayList<OrdersRecords> userOrders = new ArrayList<>();
+        String query = "SELECT orderID, userID, cardID, promoID, grandTotal, orderDateTime FROM orders " +
+                "WHERE userID = ? ORDER BY orderDateTime DESC, orderID DESC";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, userID);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    userOrders.add(mapRowToOrdersRecord(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return userOrders;
+    }
+
+    /*
+     * Order history page for a user, newest first, with line items and book
+     * details fetched in the same query.
+     * Keyset pagination: pass the orderDateTime and orderID of the last order
+     * on the previous page as the cursor (both null for the first page).
+     * A limit of 0 or less returns every remaining order.
+     */
+    public ArrayList<OrderHistoryRecords> findOrderHistory(int userID, Timestamp cursorDateTime, Integer cursorOrderID, int limit) {
+        ArrayList<OrderHistoryRecords> history = new ArrayList<>();
+        boolean hasCursor = cursorDateTime != null && cursorOrderID != null;
+
+        // Page the orders first in a derived table so LIMIT counts orders, not line items
+        StringBuilder pageQuery = new StringBuilder(
+                "SELECT orderID, grandTotal, orderDateTime FROM orders WHERE userID = ?");
+        if (hasCursor) {
+            pageQuery.append(" AND (orderDateTime < ? OR (orderDateTime = ? AND orderID < ?))");
+        }
+        pageQuery.append(" ORDER BY orderDateTime DESC, orderID DESC");
+        if (limit > 0) {
+            pageQuery.append(" LIMIT ?");
+        }
+        String query = "SELECT o.orderID, o.grandTotal, o.orderDateTime, t.bookID, t.quantity, t.unitPrice, b.title, b.sellingPrice " +
+                "FROM (" + pageQuery + ") o " +
+                "LEFT JOIN transaction t ON t.orderID = o.orderID " +
+                "LEFT JOIN books b ON b.id = t.bookID " +
+                "ORDER BY o.orderDateTime DESC, o.orderID DESC, t.transactionID";
+
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            int index = 1;
+            ps.setInt(index++, userID);
+            if (hasCursor) {
+                ps.setTimestamp(index++, cursorDateTime);
+                ps.setTimestamp(index++, cursorDateTime);
+                ps.setInt(index++, cursorOrderID);
+            }
+            if (limit > 0) {
+                ps.setInt(index++, limit);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                OrderHistoryRecords current = null;
+                while (rs.next()) {
+                    int orderID = rs.getInt("orderID");
+                    if (current == null || current.getOrderID() != orderID) {
+                        current = new OrderHistoryRecords(orderID, rs.getDouble("grandTotal"), rs.getTimestamp("orderDateTime"));
+                        history.add(current);
+                    }
+                    // Orders without items have NULL transaction columns
+                    if (rs.getObject("bookID") != null) {
+                        // Items keep the price paid; rows saved before unitPrice existed fall back
+                        // to the current price. A book removed from the catalog has no title.
+                        String title = rs.getString("title");
+                        double price = rs.getDouble("unitPrice");
+                        if (rs.wasNull()) {
+                            price = rs.getDouble("sellingPrice");
+                        }
+                        current.addItem(new OrderHistoryRecords.Item(
+                                rs.getInt("bookID"),
+                                title != null ? title : OrderHistoryRecords.Item.UNAVAILABLE_TITLE,
+                                rs.getInt("quantity"),
+                                price,
+                                title != null
+                        ));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return history;
+    }
+
     // Update Order
     public String updateOrder(OrdersRecords order) {
         String query = "UPDATE orders SET userID=?, cardID=?, promoID=?, grandTotal=?, orderDateTime=? WHERE orderID=?";
@@ -143,12 +400,12 @@ public class OrdersDatabase implements DatabaseInterface {
             ps.setDouble(4, order.getGrandTotal());
             ps.setTimestamp(5, order.getOrderDateTime());
             ps.setInt(6, order.getOrderID());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Order Updated.";
     }
 
@@ -158,12 +415,25 @@ public class OrdersDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setInt(1, orderID);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Order Deleted.";
     }
+
+    private OrdersRecords mapRowToOrdersRecord(ResultSet rs) throws SQLException {
+        // promoID is nullable, getInt would turn NULL into 0
+        Integer promoID = rs.getObject("promoID") != null ? rs.getInt("promoID") : null;
+        return new OrdersRecords(
+                rs.getInt("orderID"),
+                rs.getInt("userID"),
+                rs.getInt("cardID"),
+                promoID,
+                rs.getDouble("grandTotal"),
+                rs.getTimestamp("orderDateTime")
+        );
+    }
 }
@@ -3,8 +3,6 @@ package com.bookstore.db;
 import com.bookstore.SecUtils;
 import java.sql.*;
 import java.util.*;
-import java.io.InputStream;
-import java.util.Properties;
 import com.bookstore.records.PaymentCardRecords;
 
 public class PaymentCardDatabase implements DatabaseInterface {
@@ -12,6 +10,11 @@ public class PaymentCardDatabase implements DatabaseInterface {
     private ArrayList<PaymentCardRecords> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     public PaymentCardDatabase() {
         this.results = new ArrayList<>();
@@ -20,17 +23,7 @@ public class PaymentCardDatabase implements DatabaseInterface {
     @Override
     public boolean connectDb() {
         try {
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) return false;
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -42,7 +35,9 @@ public class PaymentCardDatabase implements DatabaseInterface {
     @Override
     public boolean disconnectDb() {
         try {
-            connection.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
             connected = false;
         } catch (Exception e) {
             e.printStackTrace();
@@ -62,9 +57,22 @@ public class PaymentCardDatabase implements DatabaseInterface {
     }
     
     public ArrayList<PaymentCardRecords> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
 
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
         /*
          * Adds card to database
          * >= 4 used just since it has higher robustness than just
@@ -87,18 +95,21 @@ public class PaymentCardDatabase implements DatabaseInterface {
         String query = "INSERT INTO PaymentCard (cardNo, userID, type, expirationDate, billingAddressID) VALUES (?, ?, ?, ?, ?)";
         try {
             String encryptedCardNo = SecUtils.encryptCreditCardSimple(card.getCardNo());
-            PreparedStatement ps = connection.prepareStatement(query);
+            PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, encryptedCardNo);
             ps.setInt(2, card.getUserID());
             ps.setString(3, card.getType());
             ps.setString(4, card.getExpirationDate());
             ps.setInt(5, card.getBillingAddressID());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
         } catch (Exception e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Payment Card Added.";
     }
 
@@ -113,17 +124,18 @@ public class PaymentCardDatabase implements DatabaseInterface {
             ps.setInt(4, card.getBillingAddressID());
             ps.setInt(5, card.getCardID());
             ps.setInt(6, card.getUserID());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (Exception e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Payment Card Updated.";
     }
 
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM PaymentCard");
@@ -149,12 +161,12 @@ public class PaymentCardDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement("DELETE FROM PaymentCard WHERE cardID=?");
             ps.setInt(1, cardID);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Payment Card Deleted.";
     }
 
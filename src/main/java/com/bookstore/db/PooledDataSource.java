@@ -0,0 +1,476 @@
+package com.bookstore.db;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Shared, bounded JDBC connection pool used by every *Database class.
+ *
+ * Connections are opened once and handed out as lightweight handles. Calling
+ * close() on a handle returns the physical connection to the pool instead of
+ * closing it, so the existing connectDb()/disconnectDb() pairs become a
+ * borrow/return without any change to the servlets.
+ *
+ * Pool settings are read from db.properties (all optional):
+ *   db.pool.minSize              connections kept open while idle (default 2)
+ *   db.pool.maxSize              hard cap on open connections (default 10)
+ *   db.pool.acquireTimeoutMs     how long a borrow waits for a free slot (default 5000)
+ *   db.pool.idleTimeoutMs        idle connections above minSize are closed after this (default 300000)
+ *   db.pool.validationIntervalMs connections idle longer than this are pinged before reuse (default 30000)
+ *   db.pool.validationTimeoutSec timeout for that ping (default 2)
+ *   db.pool.leakDetectionMs      log a connection, with where it was borrowed, once it is
+ *                                held longer than this; 0 disables (default 60000)
+ *   db.pool.abandonedTimeoutMs   connections held longer than this are taken back and closed,
+ *                                so a borrower that never returns one cannot use up the pool;
+ *                                0 disables (default 300000)
+ */
+public class PooledDataSource implements DataSource {
+
+    private static volatile PooledDataSource instance;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long validationIntervalMs;
+    private final int validationTimeoutSec;
+    private final long leakDetectionMs;
+    private final long abandonedTimeoutMs;
+
+    // Idle connections, most recently returned first so warm connections get reused
+    private final LinkedBlockingDeque<PooledEntry> idle = new LinkedBlockingDeque<>();
+    // One permit per connection that may be borrowed at the same time
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger borrowedConnections = new AtomicInteger();
+    // Handles currently lent out, checked for leaks by the evictor
+    private final Set<Handle> borrowedHandles = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger reclaimedConnections = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    /**
+     * Get the process wide pool, creating it from db.properties on first use
+     * @return the shared pool
+     * @throws SQLException if db.properties is missing or the driver cannot be loaded
+     */
+    public static PooledDataSource getInstance() throws SQLException {
+        PooledDataSource pool = instance;
+        if (pool == null) {
+            synchronized (PooledDataSource.class) {
+                pool = instance;
+                if (pool == null) {
+                    pool = new PooledDataSource(loadProperties());
+                    instance = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Close the process wide pool if one was created. The web application calls
+     * this on shutdown through DatabaseFactory.shutdown(); there is no JVM
+     * shutdown hook, so the pool is closed once, after everything that still
+     * needs a connection has stopped.
+     */
+    public static void shutdownInstance() {
+        PooledDataSource pool;
+        synchronized (PooledDataSource.class) {
+            pool = instance;
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private static Properties loadProperties() throws SQLException {
+        try {
+            return AppProperties.loadRequired();
+        } catch (java.io.FileNotFoundException e) {
+            throw new SQLException(e.getMessage(), e);
+        } catch (java.io.IOException e) {
+            throw new SQLException("Unable to read db.properties", e);
+        }
+    }
+
+    public PooledDataSource(Properties props) throws SQLException {
+        this.url = props.getProperty("db.url");
+        this.username = props.getProperty("db.username");
+        this.password = props.getProperty("db.password");
+        this.maxSize = Math.max(1, AppProperties.intProperty(props, "db.pool.maxSize", 10));
+        this.minSize = Math.min(maxSize, Math.max(0, AppProperties.intProperty(props, "db.pool.minSize", 2)));
+        this.acquireTimeoutMs = AppProperties.longProperty(props, "db.pool.acquireTimeoutMs", 5000L);
+        this.idleTimeoutMs = AppProperties.longProperty(props, "db.pool.idleTimeoutMs", 300000L);
+        this.validationIntervalMs = AppProperties.longProperty(props, "db.pool.validationIntervalMs", 30000L);
+        this.validationTimeoutSec = AppProperties.intProperty(props, "db.pool.validationTimeoutSec", 2);
+        this.leakDetectionMs = Math.max(0L, AppProperties.longProperty(props, "db.pool.leakDetectionMs", 60000L));
+        this.abandonedTimeoutMs = Math.max(0L, AppProperties.longProperty(props, "db.pool.abandonedTimeoutMs", 300000L));
+        this.permits = new Semaphore(maxSize, true);
+
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("MySQL driver not found", e);
+        }
+
+        // Pre-open the minimum number of connections; failures here are not fatal,
+        // the pool will keep trying on demand
+        for (int i = 0; i < minSize; i++) {
+            try {
+                idle.offerLast(new PooledEntry(openPhysical()));
+                totalConnections.incrementAndGet();
+            } catch (SQLException e) {
+                System.out.println("Connection pool warm-up failed: " + e.getMessage());
+                break;
+            }
+        }
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1000L, Math.min(idleTimeoutMs, 60000L));
+        evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+        if (leakDetectionMs > 0 || abandonedTimeoutMs > 0) {
+            evictor.scheduleWithFixedDelay(this::checkBorrowed, 10000L, 10000L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Connection openPhysical() throws SQLException {
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    /**
+     * Borrow a connection from the pool. Closing the returned connection gives it back.
+     * @return a pooled connection handle
+     * @throws SQLTimeoutException if no connection frees up within db.pool.acquireTimeoutMs
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is shut down");
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMs
+                        + "ms waiting for a database connection (max " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledEntry entry;
+            while ((entry = idle.pollFirst()) != null) {
+                if (isUsable(entry)) {
+                    break;
+                }
+                destroy(entry);
+            }
+            if (entry == null) {
+                entry = new PooledEntry(openPhysical());
+                totalConnections.incrementAndGet();
+            }
+            borrowedConnections.incrementAndGet();
+            Handle handle = new Handle(entry);
+            borrowedHandles.add(handle);
+            return handle.newProxy();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String user, String pass) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections always use the db.properties credentials");
+    }
+
+    private boolean isUsable(PooledEntry entry) {
+        try {
+            if (entry.physical.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - entry.lastUsed > validationIntervalMs) {
+                return entry.physical.isValid(validationTimeoutSec);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void destroy(PooledEntry entry) {
+        totalConnections.decrementAndGet();
+        try {
+            entry.physical.close();
+        } catch (SQLException e) {
+            // already broken, nothing else to do
+        }
+    }
+
+    /*
+     * Called when a handle is closed. Cleans up anything the borrower left
+     * behind so the next borrower gets a connection in its default state.
+     */
+    private void giveBack(Handle handle, PooledEntry entry, List<Statement> openStatements) {
+        borrowedHandles.remove(handle);
+        boolean healthy = true;
+        for (Statement st : openStatements) {
+            try {
+                st.close();
+            } catch (SQLException e) {
+                // statement already closed or connection broken
+            }
+        }
+        try {
+            if (!entry.physical.getAutoCommit()) {
+                entry.physical.rollback();
+                entry.physical.setAutoCommit(true);
+            }
+            healthy = !entry.physical.isClosed();
+        } catch (SQLException e) {
+            healthy = false;
+        }
+
+        borrowedConnections.decrementAndGet();
+        if (healthy && !closed) {
+            entry.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(entry);
+        } else {
+            destroy(entry);
+        }
+        permits.release();
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledEntry> it = idle.descendingIterator();
+        while (it.hasNext() && totalConnections.get() > minSize) {
+            PooledEntry entry = it.next();
+            if (now - entry.lastUsed > idleTimeoutMs && idle.remove(entry)) {
+                destroy(entry);
+            }
+        }
+    }
+
+    /*
+     * Log handles held past db.pool.leakDetectionMs, and take back the ones held past
+     * db.pool.abandonedTimeoutMs. A reclaimed connection is closed rather than reused,
+     * since its borrower may still be in the middle of a statement or transaction.
+     */
+    private void checkBorrowed() {
+        long now = System.currentTimeMillis();
+        for (Handle handle : borrowedHandles) {
+            long held = now - handle.borrowedAt;
+            if (abandonedTimeoutMs > 0 && held > abandonedTimeoutMs) {
+                if (handle.reclaim()) {
+                    borrowedHandles.remove(handle);
+                    borrowedConnections.decrementAndGet();
+                    reclaimedConnections.incrementAndGet();
+                    destroy(handle.entry);
+                    permits.release();
+                    System.out.println("Connection pool reclaimed a connection never returned after " + held + "ms, borrowed at:");
+                    handle.borrowedFrom.printStackTrace(System.out);
+                }
+            } else if (leakDetectionMs > 0 && held > leakDetectionMs && !handle.leakReported) {
+                handle.leakReported = true;
+                System.out.println("Possible connection leak: connection held for " + held + "ms, borrowed at:");
+                handle.borrowedFrom.printStackTrace(System.out);
+            }
+        }
+    }
+
+    /**
+     * Close every idle connection and stop handing out new ones.
+     * Borrowed connections are closed as they are returned.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry);
+        }
+    }
+
+    // Pool statistics
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getBorrowedConnections() {
+        return borrowedConnections.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getThreadsAwaitingConnection() {
+        return permits.getQueueLength();
+    }
+
+    // Connections taken back from borrowers that held them past db.pool.abandonedTimeoutMs
+    public int getReclaimedConnections() {
+        return reclaimedConnections.get();
+    }
+
+    // Remaining DataSource methods
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        // not used, the pool logs to stdout like the rest of the db package
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /*
+     * A physical connection owned by the pool
+     */
+    private class PooledEntry {
+        final Connection physical;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PooledEntry(Connection physical) {
+            this.physical = physical;
+        }
+    }
+
+    /*
+     * What the DAOs actually hold. Delegates to the physical connection, tracks
+     * statements so they can be closed on return, and turns close() into a return.
+     */
+    private class Handle implements InvocationHandler {
+        private final PooledEntry entry;
+        private final List<Statement> openStatements = new ArrayList<>();
+        private final long borrowedAt = System.currentTimeMillis();
+        // Stack trace of the borrow, printed if the connection leaks
+        private final Throwable borrowedFrom = new Throwable("Connection borrowed here");
+        private volatile boolean leakReported = false;
+        private volatile boolean returned = false;
+
+        Handle(PooledEntry entry) {
+            this.entry = entry;
+        }
+
+        Connection newProxy() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    this);
+        }
+
+        // Mark the handle returned on the borrower's behalf; false if it already was
+        synchronized boolean reclaim() {
+            if (returned) {
+                return false;
+            }
+            returned = true;
+            return true;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    synchronized (this) {
+                        if (!returned) {
+                            returned = true;
+                            giveBack(this, entry, openStatements);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || entry.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + entry.physical + (returned ? ", returned" : "") + "]";
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                Object result = method.invoke(entry.physical, args);
+                if (result instanceof Statement) {
+                    synchronized (this) {
+                        openStatements.add((Statement) result);
+                    }
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
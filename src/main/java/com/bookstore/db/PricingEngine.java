@@ -0,0 +1,202 @@
+package com.bookstore.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bookstore.records.BookRecords;
+import com.bookstore.records.PromotionRecords;
+
+/**
+ * Server-side cart pricing: subtotal, promotion discount and grand total.
+ *
+ * Prices come from the CatalogCache snapshot and promotions from the
+ * PromotionIndex, so quoting a cart normally needs no database round trip.
+ * Books missing from the snapshot (e.g. added by another process since it
+ * was loaded) are looked up with one batched query before being reported
+ * as not found. Amounts are rounded to cents; a promotion's discount is a
+ * percentage of the subtotal.
+ */
+public class PricingEngine {
+
+    private static final AtomicLong quoteCount = new AtomicLong();
+    private static final AtomicLong databaseLookupCount = new AtomicLong();
+
+    /**
+     * One priced cart line; title is null when the book was not in the catalog cache
+     */
+    public static final class Line {
+        private final int bookID;
+        private final String title;
+        private final int quantity;
+        private final double unitPrice;
+        private final double lineTotal;
+
+        Line(int bookID, String title, int quantity, double unitPrice) {
+            this.bookID = bookID;
+            this.title = title;
+            this.quantity = quantity;
+            this.unitPrice = unitPrice;
+            this.lineTotal = round(unitPrice * quantity);
+        }
+
+        public int getBookID() {
+            return bookID;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public double getUnitPrice() {
+            return unitPrice;
+        }
+
+        public double getLineTotal() {
+            return lineTotal;
+        }
+    }
+
+    /**
+     * A priced cart; promotion is null when no promo code was applied
+     */
+    public static final class PriceQuote {
+        private final List<Line> lines;
+        private final double subtotal;
+        private final double discount;
+        private final double total;
+        private final PromotionRecords promotion;
+
+        PriceQuote(List<Line> lines, double subtotal, double discount, PromotionRecords promotion) {
+            this.lines = Collections.unmodifiableList(lines);
+            this.subtotal = subtotal;
+            this.discount = discount;
+            this.total = Math.max(0, round(subtotal - discount));
+            this.promotion = promotion;
+        }
+
+        public List<Line> getLines() {
+            return lines;
+        }
+
+        public double getSubtotal() {
+            return subtotal;
+        }
+
+        public double getDiscount() {
+            return discount;
+        }
+
+        public double getTotal() {
+            return total;
+        }
+
+        public PromotionRecords getPromotion() {
+            return promotion;
+        }
+    }
+
+    private PricingEngine() {
+    }
+
+    /**
+     * Price a cart
+     * @param quantities bookID to quantity, in the order the lines should be quoted
+     * @param promoCode code to apply, or null/blank for none
+     * @param connection used only if some books are not in the catalog cache; null borrows one from the pool
+     * @return the quote
+     * @throws BookNotFoundException listing every book ID that does not exist
+     * @throws InvalidPromotionException if the promo code is unknown or not active today
+     * @throws IllegalArgumentException if a quantity is not positive
+     * @throws SQLException if the catalog or promotions cannot be loaded
+     */
+    public static PriceQuote quote(Map<Integer, Integer> quantities, String promoCode, Connection connection)
+            throws SQLException, BookNotFoundException, InvalidPromotionException {
+        quoteCount.incrementAndGet();
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            if (entry.getValue() == null || entry.getValue() <= 0) {
+                throw new IllegalArgumentException("Invalid quantity for book ID " + entry.getKey());
+            }
+        }
+
+        PromotionRecords promotion = null;
+        if (promoCode != null && !promoCode.trim().isEmpty()) {
+            promotion = PromotionIndex.getInstance().getSnapshot().findActive(promoCode, LocalDate.now());
+            if (promotion == null) {
+                throw new InvalidPromotionException(promoCode.trim());
+            }
+        }
+
+        CatalogCache.Snapshot catalog = CatalogCache.getInstance().getSnapshot();
+        Set<Integer> uncached = new LinkedHashSet<>();
+        for (Integer id : quantities.keySet()) {
+            if (catalog.getBook(id) == null) {
+                uncached.add(id);
+            }
+        }
+        Map<Integer, Double> fetched = uncached.isEmpty()
+                ? Collections.emptyMap()
+                : lookUp(uncached, connection);
+
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : uncached) {
+            if (!fetched.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new BookNotFoundException(missing);
+        }
+
+        List<Line> lines = new ArrayList<>(quantities.size());
+        double subtotal = 0.0;
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            BookRecords book = catalog.getBook(entry.getKey());
+            Line line = book != null
+                    ? new Line(book.getId(), book.getTitle(), entry.getValue(), book.getSellingPrice())
+                    : new Line(entry.getKey(), null, entry.getValue(), fetched.get(entry.getKey()));
+            lines.add(line);
+            subtotal += line.getLineTotal();
+        }
+        subtotal = round(subtotal);
+        double discount = promotion == null ? 0.0 : round(subtotal * promotion.getDiscount() / 100.0);
+        return new PriceQuote(lines, subtotal, discount, promotion);
+    }
+
+    // Prices of books the catalog cache does not have; a pooled connection is borrowed only here
+    private static Map<Integer, Double> lookUp(Set<Integer> ids, Connection connection) throws SQLException {
+        databaseLookupCount.incrementAndGet();
+        if (connection != null) {
+            return BookActions.getSellingPrices(connection, ids);
+        }
+        try (Connection pooled = DatabaseFactory.getDataSource().getConnection()) {
+            return BookActions.getSellingPrices(pooled, ids);
+        }
+    }
+
+    static double round(double amount) {
+        return Math.round(amount * 100.0) / 100.0;
+    }
+
+    // Metrics
+
+    public static long getQuoteCount() {
+        return quoteCount.get();
+    }
+
+    // Quotes that needed a database lookup because a book was not cached
+    public static long getDatabaseLookupCount() {
+        return databaseLookupCount.get();
+    }
+}
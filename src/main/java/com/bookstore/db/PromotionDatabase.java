@@ -2,8 +2,6 @@ package com.bookstore.db;
 
 import java.sql.*;
 import java.util.*;
-import java.io.InputStream;
-import java.util.Properties;
 import com.bookstore.records.PromotionRecords;
 
 public class PromotionDatabase implements DatabaseInterface {
@@ -12,6 +10,11 @@ public class PromotionDatabase implements DatabaseInterface {
     private ArrayList<PromotionRecords> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     public PromotionDatabase() {
         super();
@@ -21,20 +24,7 @@ public class PromotionDatabase implements DatabaseInterface {
     @Override
     public boolean connectDb() {
         try {
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) {
-                System.out.println("Sorry, unable to find db.properties");
-                return false;
-            }
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -46,7 +36,9 @@ public class PromotionDatabase implements DatabaseInterface {
     @Override
     public boolean disconnectDb() {
         try {
-            connection.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
             connected = false;
         } catch (Exception e) {
             e.printStackTrace();
@@ -65,8 +57,22 @@ public class PromotionDatabase implements DatabaseInterface {
         return connected;
     }
         public ArrayList<PromotionRecords> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
+
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
     public void setResults(ArrayList<PromotionRecords> results) {
         this.results = results;
     }
@@ -76,36 +82,34 @@ public class PromotionDatabase implements DatabaseInterface {
     public String addPromotion(PromotionRecords promo) {
         String query = "INSERT INTO promotion (promoCode, discount, startDate, endDate, pushed) VALUES (?, ?, ?, ?, ?)";
         try {
-            PreparedStatement ps = connection.prepareStatement(query);
+            PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, promo.getPromoCode());
             ps.setFloat(2, promo.getDiscount());
             ps.setDate(3, promo.getStartDate());
             ps.setDate(4, promo.getEndDate());
             ps.setBoolean(5, promo.isPushed());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
+            promo.setPromoID(lastGeneratedKey);
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
+        PromotionIndex.getInstance().invalidate();
         return "Promotion Added.";
     }
 
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM promotion");
             while (rs.next()) {
-                PromotionRecords promo = new PromotionRecords(
-                        rs.getInt("promoID"),
-                        rs.getString("promoCode"),
-                        rs.getFloat("discount"),
-                        rs.getDate("startDate"),
-                        rs.getDate("endDate"),
-                        rs.getBoolean("pushed")
-                );
-                results.add(promo);
+                results.add(mapRowToPromotion(rs));
             }
             return "Promotions Loaded.";
         } catch (SQLException e) {
@@ -114,6 +118,52 @@ public class PromotionDatabase implements DatabaseInterface {
         }
     }
 
+    // Returns null if no promotion has this ID
+    public PromotionRecords findPromotionByID(int promoID) {
+        String query = "SELECT * FROM promotion WHERE promoID = ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, promoID);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapRowToPromotion(rs);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // Returns null if no promotion has this code; codes compare case-insensitively
+    public PromotionRecords findPromotionByCode(String promoCode) {
+        if (promoCode == null || promoCode.trim().isEmpty()) {
+            return null;
+        }
+        String query = "SELECT * FROM promotion WHERE UPPER(promoCode) = UPPER(?)";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, promoCode.trim());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapRowToPromotion(rs);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    static PromotionRecords mapRowToPromotion(ResultSet rs) throws SQLException {
+        return new PromotionRecords(
+                rs.getInt("promoID"),
+                rs.getString("promoCode"),
+                rs.getFloat("discount"),
+                rs.getDate("startDate"),
+                rs.getDate("endDate"),
+                rs.getBoolean("pushed")
+        );
+    }
+
     public String updatePromotion(PromotionRecords promo) {
         String query = "UPDATE promotion SET promoCode=?, discount=?, startDate=?, endDate=?, pushed=? WHERE promoID=?";
         try {
@@ -124,12 +174,13 @@ public class PromotionDatabase implements DatabaseInterface {
             ps.setDate(4, promo.getEndDate());
             ps.setBoolean(5, promo.isPushed());
             ps.setInt(6, promo.getPromoID());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
+        PromotionIndex.getInstance().invalidate();
         return "Promotion Updated.";
     }
 
@@ -138,12 +189,13 @@ public class PromotionDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setInt(1, promoID);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
+        PromotionIndex.getInstance().invalidate();
         return "Promotion Deleted.";
     }
 
@@ -153,12 +205,13 @@ public class PromotionDatabase implements DatabaseInterface {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setBoolean(1, pushed);
             ps.setInt(2, promoID);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
+        PromotionIndex.getInstance().invalidate();
         return "Promotion push status updated.";
     }
 }
@@ -0,0 +1,240 @@
+package com.bookstore.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bookstore.records.PromotionRecords;
+
+/**
+ * Process wide, read-only index of the promotion table, used to price carts
+ * and validate promo codes without a database round trip.
+ *
+ * Promotions are loaded with one SELECT on first use and kept in an immutable
+ * Snapshot: a hash from promo code to promotion, and the promotions sorted by
+ * start date with a running maximum of their end dates, so the promotions
+ * active on a day are found by a binary search and a short backwards scan
+ * instead of a pass over the table. Start and end dates are inclusive; a
+ * missing date leaves that end of the interval open.
+ *
+ * PromotionDatabase invalidates the index after every write; the next
+ * lookup reloads it. A snapshot is also reloaded once it is older than
+ * db.promotion.cacheTtlSeconds, which picks up changes made to the table
+ * by other processes. Activity is always checked against today's date, so
+ * promotions start and expire on time whatever the snapshot's age.
+ */
+public class PromotionIndex {
+
+    private static final PromotionIndex INSTANCE = new PromotionIndex(AppProperties.load("promotion cache settings"));
+
+    private final long ttlMs;
+    private volatile Snapshot snapshot;
+    // Serializes loads and invalidations; readers never take it
+    private final Object writeLock = new Object();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Immutable view of all promotions at one point in time
+     */
+    public static final class Snapshot {
+        private final long loadedAtMillis;
+        private final Map<String, PromotionRecords> byCode;
+        private final Map<Integer, PromotionRecords> byId;
+        // Sorted by start date; maxEnd[i] is the latest end date among byStart[0..i]
+        private final PromotionRecords[] byStart;
+        private final LocalDate[] starts;
+        private final LocalDate[] maxEnd;
+
+        private Snapshot(List<PromotionRecords> promotions) {
+            this.loadedAtMillis = System.currentTimeMillis();
+            Map<String, PromotionRecords> codes = new HashMap<>(promotions.size() * 2);
+            Map<Integer, PromotionRecords> ids = new HashMap<>(promotions.size() * 2);
+            for (PromotionRecords promo : promotions) {
+                ids.put(promo.getPromoID(), promo);
+                if (promo.getPromoCode() != null) {
+                    codes.put(normalize(promo.getPromoCode()), promo);
+                }
+            }
+            this.byCode = Collections.unmodifiableMap(codes);
+            this.byId = Collections.unmodifiableMap(ids);
+
+            this.byStart = promotions.toArray(new PromotionRecords[0]);
+            Arrays.sort(byStart, (a, b) -> start(a).compareTo(start(b)));
+            this.starts = new LocalDate[byStart.length];
+            this.maxEnd = new LocalDate[byStart.length];
+            LocalDate latest = LocalDate.MIN;
+            for (int i = 0; i < byStart.length; i++) {
+                starts[i] = start(byStart[i]);
+                if (end(byStart[i]).isAfter(latest)) {
+                    latest = end(byStart[i]);
+                }
+                maxEnd[i] = latest;
+            }
+        }
+
+        /**
+         * The promotion with this code if it is active on the given day
+         */
+        public PromotionRecords findActive(String promoCode, LocalDate day) {
+            if (promoCode == null) {
+                return null;
+            }
+            PromotionRecords promo = byCode.get(normalize(promoCode));
+            return promo != null && isActive(promo, day) ? promo : null;
+        }
+
+        public PromotionRecords getByCode(String promoCode) {
+            return promoCode == null ? null : byCode.get(normalize(promoCode));
+        }
+
+        public PromotionRecords getById(int promoID) {
+            return byId.get(promoID);
+        }
+
+        /**
+         * Every promotion active on the given day, latest start first
+         */
+        public List<PromotionRecords> getActive(LocalDate day) {
+            // Promotions starting on or before day occupy byStart[0..count)
+            int low = 0;
+            int high = starts.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid].isAfter(day)) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            List<PromotionRecords> active = new ArrayList<>();
+            // Once no earlier promotion ends on or after day, none of them can be active
+            for (int i = low - 1; i >= 0 && !maxEnd[i].isBefore(day); i--) {
+                if (!end(byStart[i]).isBefore(day)) {
+                    active.add(byStart[i]);
+                }
+            }
+            return active;
+        }
+
+        public int size() {
+            return byStart.length;
+        }
+
+        public long getLoadedAtMillis() {
+            return loadedAtMillis;
+        }
+    }
+
+    private PromotionIndex(Properties props) {
+        this.ttlMs = Math.max(0L, AppProperties.longProperty(props, "db.promotion.cacheTtlSeconds", 60L)) * 1000L;
+    }
+
+    public static PromotionIndex getInstance() {
+        return INSTANCE;
+    }
+
+    static String normalize(String promoCode) {
+        return promoCode.trim().toUpperCase(Locale.ROOT);
+    }
+
+    private static LocalDate start(PromotionRecords promo) {
+        return promo.getStartDate() == null ? LocalDate.MIN : promo.getStartDate().toLocalDate();
+    }
+
+    private static LocalDate end(PromotionRecords promo) {
+        return promo.getEndDate() == null ? LocalDate.MAX : promo.getEndDate().toLocalDate();
+    }
+
+    /**
+     * Whether a promotion's start and end dates include the given day
+     */
+    public static boolean isActive(PromotionRecords promo, LocalDate day) {
+        return !start(promo).isAfter(day) && !end(promo).isBefore(day);
+    }
+
+    private boolean isFresh(Snapshot current) {
+        return current != null && (ttlMs == 0 || System.currentTimeMillis() - current.loadedAtMillis < ttlMs);
+    }
+
+    /**
+     * Current promotions, loading them with a pooled connection if the index is cold or expired
+     * @throws SQLException if the promotions cannot be loaded
+     */
+    public Snapshot getSnapshot() throws SQLException {
+        Snapshot current = snapshot;
+        if (isFresh(current)) {
+            hitCount.incrementAndGet();
+            return current;
+        }
+        missCount.incrementAndGet();
+        synchronized (writeLock) {
+            current = snapshot;
+            if (!isFresh(current)) {
+                if (current != null) {
+                    expiredCount.incrementAndGet();
+                }
+                List<PromotionRecords> promotions = new ArrayList<>();
+                try (Connection connection = DatabaseFactory.getDataSource().getConnection();
+                     PreparedStatement ps = connection.prepareStatement("SELECT * FROM promotion");
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        promotions.add(PromotionDatabase.mapRowToPromotion(rs));
+                    }
+                }
+                current = new Snapshot(promotions);
+                snapshot = current;
+                loadCount.incrementAndGet();
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Drop the index after the promotion table changed; the next lookup reloads it
+     */
+    public void invalidate() {
+        synchronized (writeLock) {
+            snapshot = null;
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    // Metrics
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    // Reloads caused by the TTL rather than a write
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+}
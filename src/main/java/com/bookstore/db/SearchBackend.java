@@ -0,0 +1,29 @@
+package com.bookstore.db;
+
+import java.sql.SQLException;
+
+/**
+ * Book search implementation behind the catalog search endpoints.
+ *
+ * Implementations rank books for a free-text query and return them in a
+ * CatalogCache.SearchResult, so callers do not care where the search ran.
+ * The process wide backend is chosen by db.search.backend in db.properties,
+ * see DatabaseFactory.getSearchBackend().
+ */
+public interface SearchBackend {
+
+    /**
+     * Short name used in db.properties and in logs
+     */
+    String getName();
+
+    /**
+     * Search the catalog, best match first
+     * @param query free text; every word must match a word (or the start of one) in the book
+     * @param limit maximum number of results, 0 for all
+     * @param fuzzy also accept near matches when the exact words find nothing
+     * @return the ranked books and, when a backend corrected the query, the corrected query
+     * @throws SQLException if the backend cannot reach the database
+     */
+    CatalogCache.SearchResult search(String query, int limit, boolean fuzzy) throws SQLException;
+}
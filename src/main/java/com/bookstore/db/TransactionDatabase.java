@@ -2,8 +2,6 @@ package com.bookstore.db;
 
 import java.sql.*;
 import java.util.*;
-import java.io.InputStream;
-import java.util.Properties;
 import com.bookstore.records.TransactionRecords;
 
 public class TransactionDatabase implements DatabaseInterface {
@@ -12,6 +10,11 @@ public class TransactionDatabase implements DatabaseInterface {
     private ArrayList<TransactionRecords> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     // Constructor
     public TransactionDatabase() {
@@ -23,20 +26,7 @@ public class TransactionDatabase implements DatabaseInterface {
     @Override
     public boolean connectDb() {
         try {
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) {
-                System.out.println("Sorry, unable to find db.properties");
-                return false;
-            }
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -49,7 +39,9 @@ public class TransactionDatabase implements DatabaseInterface {
     @Override
     public boolean disconnectDb() {
         try {
-            connection.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
             connected = false;
         } catch (Exception e) {
             e.printStackTrace();
@@ -69,43 +61,57 @@ public class TransactionDatabase implements DatabaseInterface {
         return connected;
     }
         public ArrayList<TransactionRecords> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
+
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
     public void setResults(ArrayList<TransactionRecords> results) {
         this.results = results;
     }
 
     // Add new Transaction
     public String addTransaction(TransactionRecords transaction) {
-        String query = "INSERT INTO transaction (orderID, bookID, quantity) VALUES (?, ?, ?)";
+        String query = "INSERT INTO transaction (orderID, bookID, quantity, unitPrice) VALUES (?, ?, ?, ?)";
         try {
-            PreparedStatement ps = connection.prepareStatement(query);
+            PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setInt(1, transaction.getOrderID());
             ps.setInt(2, transaction.getBookID());
             ps.setInt(3, transaction.getQuantity());
-            ps.executeUpdate();
+            setUnitPrice(ps, 4, transaction.getUnitPrice());
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
+            transaction.setTransactionID(lastGeneratedKey);
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Transaction Added.";
     }
 
     // Load all Transactions
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM transaction");
             while (rs.next()) {
-                TransactionRecords transaction = new TransactionRecords(
-                        rs.getInt("transactionID"),
-                        rs.getInt("orderID"),
-                        rs.getInt("bookID"),
-                        rs.getInt("quantity")
-                );
-                results.add(transaction);
+                results.add(mapRowToTransactionRecord(rs));
             }
             return "Transactions Loaded.";
         } catch (SQLException e) {
@@ -114,21 +120,52 @@ public class TransactionDatabase implements DatabaseInterface {
         }
     }
 
+    // Find all Transactions (line items) for a single Order
+    public ArrayList<TransactionRecords> findByOrderID(int orderID) {
+        return findByOrderIDs(Collections.singletonList(orderID));
+    }
+
+    // Find all Transactions for a set of Orders in one query
+    public ArrayList<TransactionRecords> findByOrderIDs(Collection<Integer> orderIDs) {
+        ArrayList<TransactionRecords> transactions = new ArrayList<>();
+        if (orderIDs == null || orderIDs.isEmpty()) {
+            return transactions;
+        }
+        String placeholders = String.join(",", Collections.nCopies(orderIDs.size(), "?"));
+        String query = "SELECT transactionID, orderID, bookID, quantity, unitPrice FROM transaction " +
+                "WHERE orderID IN (" + placeholders + ") ORDER BY orderID, transactionID";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            int index = 1;
+            for (Integer orderID : orderIDs) {
+                ps.setInt(index++, orderID);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    transactions.add(mapRowToTransactionRecord(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return transactions;
+    }
+
     // Update Transaction
     public String updateTransaction(TransactionRecords transaction) {
-        String query = "UPDATE transaction SET orderID=?, bookID=?, quantity=? WHERE transactionID=?";
+        String query = "UPDATE transaction SET orderID=?, bookID=?, quantity=?, unitPrice=? WHERE transactionID=?";
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setInt(1, transaction.getOrderID());
             ps.setInt(2, transaction.getBookID());
             ps.setInt(3, transaction.getQuantity());
-            ps.setInt(4, transaction.getTransactionID());
-            ps.executeUpdate();
+            setUnitPrice(ps, 4, transaction.getUnitPrice());
+            ps.setInt(5, transaction.getTransactionID());
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Transaction Updated.";
     }
 
@@ -138,12 +175,31 @@ public class TransactionDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setInt(1, transactionID);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Transaction Deleted.";
     }
+
+    static void setUnitPrice(PreparedStatement ps, int index, Double unitPrice) throws SQLException {
+        if (unitPrice != null) {
+            ps.setDouble(index, unitPrice);
+        } else {
+            ps.setNull(index, Types.DOUBLE);
+        }
+    }
+
+    private TransactionRecords mapRowToTransactionRecord(ResultSet rs) throws SQLException {
+        double unitPrice = rs.getDouble("unitPrice");
+        return new TransactionRecords(
+                rs.getInt("transactionID"),
+                rs.getInt("orderID"),
+                rs.getInt("bookID"),
+                rs.getInt("quantity"),
+                rs.wasNull() ? null : unitPrice
+        );
+    }
 }
@@ -2,8 +2,6 @@ package com.bookstore.db;
 
 import java.sql.*;
 import java.util.*;
-import java.io.InputStream;
-import java.util.Properties;
 import com.bookstore.records.UserRecords;
 
 public class UserDatabase implements DatabaseInterface {
@@ -12,6 +10,11 @@ public class UserDatabase implements DatabaseInterface {
     private ArrayList<UserRecords> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     // Constructor
     public UserDatabase() {
@@ -23,20 +26,7 @@ public class UserDatabase implements DatabaseInterface {
     @Override
     public boolean connectDb() {
         try {
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) {
-                System.out.println("Sorry, unable to find db.properties");
-                return false;
-            }
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -62,9 +52,22 @@ public class UserDatabase implements DatabaseInterface {
 
     // Getter and setter for results
     public ArrayList<UserRecords> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
 
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
     public void setResults(ArrayList<UserRecords> results) {
         this.results = results;
     }
@@ -74,7 +77,7 @@ public class UserDatabase implements DatabaseInterface {
         String query = "INSERT INTO Users (firstName, lastName, email, password, phone, status, enrollForPromotions, userTypeID) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
         try {
-            PreparedStatement ps = connection.prepareStatement(query);
+            PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, user.getFirstName());
             ps.setString(2, user.getLastName());
             ps.setString(3, user.getEmail());
@@ -83,12 +86,16 @@ public class UserDatabase implements DatabaseInterface {
             ps.setString(6, user.getStatus());
             ps.setBoolean(7, user.isEnrollForPromotions());
             ps.setInt(8, user.getUserTypeID());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
+            user.setUserID(lastGeneratedKey);
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "User Added.";
     }
 
@@ -127,6 +134,7 @@ public class UserDatabase implements DatabaseInterface {
     // READ or Load All Users
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM Users");
@@ -166,12 +174,12 @@ public class UserDatabase implements DatabaseInterface {
             ps.setBoolean(7, user.isEnrollForPromotions());
             ps.setInt(8, user.getUserTypeID());
             ps.setInt(9, user.getUserID());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "User Updated.";
     }
 
@@ -181,21 +189,24 @@ public class UserDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setInt(1, userId);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "User Deleted.";
     }
 
-    // Get users enrolled for promotions
-    public ArrayList<UserRecords> getUsersEnrolledForPromotions() {
+    // Get one page of users enrolled for promotions, in userID order, starting after afterUserID;
+    // pass the last userID of a page to get the next one
+    public ArrayList<UserRecords> getUsersEnrolledForPromotions(int afterUserID, int limit) {
         ArrayList<UserRecords> promotionUsers = new ArrayList<>();
-        try {
-            String query = "SELECT * FROM Users WHERE enrollForPromotions = true AND status = 'active'";
-            PreparedStatement ps = connection.prepareStatement(query);
+        String query = "SELECT * FROM Users WHERE enrollForPromotions = true AND status = 'active' AND userID > ? "
+                + "ORDER BY userID LIMIT ?";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, afterUserID);
+            ps.setInt(2, limit);
             ResultSet rs = ps.executeQuery();
             
             while (rs.next()) {
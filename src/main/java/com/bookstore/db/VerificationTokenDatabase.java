@@ -2,8 +2,8 @@ package com.bookstore.db;
 
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.Properties;
-import java.io.InputStream;
+
+import com.bookstore.records.EmailOutboxRecords;
 
 public class VerificationTokenDatabase implements DatabaseInterface {
 
@@ -11,6 +11,11 @@ public class VerificationTokenDatabase implements DatabaseInterface {
     private ArrayList<VerificationTokenRecords> results;
     private ResultSet rs;
     Boolean connected = false;
+    // Outcome of the most recent write, so callers never need to reload the table
+    private int lastAffectedRows = 0;
+    private int lastGeneratedKey = -1;
+    // Set by writes; results is re-read lazily on the next getResults()
+    private boolean resultsStale = false;
 
     // Constructor
     public VerificationTokenDatabase() {
@@ -26,20 +31,7 @@ public class VerificationTokenDatabase implements DatabaseInterface {
                 connected = true;
                 return true;
             }
-            Properties props = new Properties();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("db.properties");
-            if (input == null) {
-                System.out.println("Sorry, unable to find db.properties");
-                return false;
-            }
-            props.load(input);
-
-            String url = props.getProperty("db.url");
-            String username = props.getProperty("db.username");
-            String password = props.getProperty("db.password");
-
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(url, username, password);
+            connection = DatabaseFactory.getDataSource().getConnection();
             connected = true;
         } catch (Exception e) {
             System.out.println("Connection failed: " + e.getMessage());
@@ -74,9 +66,22 @@ public class VerificationTokenDatabase implements DatabaseInterface {
         return connected;
     }
         public ArrayList<VerificationTokenRecords> getResults() {
+        if (resultsStale) {
+            loadResults();
+        }
         return results;
     }
 
+    // Rows changed by the most recent successful write
+    public int getLastAffectedRows() {
+        return lastAffectedRows;
+    }
+
+    // Auto-generated key from the most recent successful insert, or -1 if none
+    public int getLastGeneratedKey() {
+        return lastGeneratedKey;
+    }
+
     public void setResults(ArrayList<VerificationTokenRecords> results) {
         this.results = results;
     }
@@ -85,23 +90,62 @@ public class VerificationTokenDatabase implements DatabaseInterface {
     public String addToken(VerificationTokenRecords token) {
         String query = "INSERT INTO VerificationToken (user_id, token, expiry_date, token_type) VALUES (?, ?, ?, ?)";
         try {
-            PreparedStatement ps = connection.prepareStatement(query);
+            PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setInt(1, token.getUserId());
             ps.setString(2, token.getToken());
             ps.setTimestamp(3, token.getExpiryDate());
             ps.setString(4, token.getTokenType());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+            }
+            token.setTokenId(lastGeneratedKey);
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
+        return "Token Added.";
+    }
+
+    //Add new token and the email that delivers it in one transaction, so neither exists without the other
+    public String addTokenWithEmail(VerificationTokenRecords token, EmailOutboxRecords email) {
+        String query = "INSERT INTO VerificationToken (user_id, token, expiry_date, token_type) VALUES (?, ?, ?, ?)";
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+                    ps.setInt(1, token.getUserId());
+                    ps.setString(2, token.getToken());
+                    ps.setTimestamp(3, token.getExpiryDate());
+                    ps.setString(4, token.getTokenType());
+                    lastAffectedRows = ps.executeUpdate();
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        lastGeneratedKey = keys.next() ? keys.getInt(1) : -1;
+                    }
+                }
+                EmailOutboxDatabase.addEmail(connection, email);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            token.setTokenId(lastGeneratedKey);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        resultsStale = true;
         return "Token Added.";
     }
 
     //Load all tokens or Read
     public String loadResults() {
         results.clear();
+        resultsStale = false;
         try {
             Statement stmt = connection.createStatement();
             rs = stmt.executeQuery("SELECT * FROM VerificationToken");
@@ -132,12 +176,12 @@ public class VerificationTokenDatabase implements DatabaseInterface {
             ps.setTimestamp(3, token.getExpiryDate());
             ps.setString(4, token.getTokenType());
             ps.setInt(5, token.getTokenId());
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Token Updated.";
     }
 
@@ -147,12 +191,12 @@ public class VerificationTokenDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setInt(1, tokenId);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Token Deleted.";
     }
 
@@ -197,7 +241,8 @@ public class VerificationTokenDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             int deletedCount = ps.executeUpdate();
-            loadResults();
+            lastAffectedRows = deletedCount;
+            resultsStale = true;
             return "Deleted " + deletedCount + " expired tokens.";
         } catch (SQLException e) {
             e.printStackTrace();
@@ -211,12 +256,53 @@ public class VerificationTokenDatabase implements DatabaseInterface {
         try {
             PreparedStatement ps = connection.prepareStatement(query);
             ps.setString(1, token);
-            ps.executeUpdate();
+            lastAffectedRows = ps.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             return e.toString();
         }
-        loadResults();
+        resultsStale = true;
         return "Token Deleted.";
     }
+
+    //Use up a password reset token and save the new password hash in one transaction.
+    //The token is deleted only if it is an unexpired password reset token, so of two
+    //requests with the same token only one can succeed; lastAffectedRows is 0 for the other.
+    public String resetPassword(String token, int userId, String passwordHash) {
+        String deleteQuery = "DELETE FROM VerificationToken WHERE token = ? AND user_id = ? AND token_type = 'password_reset' AND expiry_date > NOW()";
+        String updateQuery = "UPDATE Users SET password=? WHERE userID=?";
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = connection.prepareStatement(deleteQuery)) {
+                    ps.setString(1, token);
+                    ps.setInt(2, userId);
+                    lastAffectedRows = ps.executeUpdate();
+                }
+                if (lastAffectedRows == 0) {
+                    connection.rollback();
+                    return "Token Not Found.";
+                }
+                try (PreparedStatement ps = connection.prepareStatement(updateQuery)) {
+                    ps.setString(1, passwordHash);
+                    ps.setInt(2, userId);
+                    if (ps.executeUpdate() == 0) {
+                        throw new SQLException("No user with userID " + userId);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        resultsStale = true;
+        return "Password Reset.";
+    }
 }
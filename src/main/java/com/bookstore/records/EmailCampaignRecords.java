@@ -0,0 +1,99 @@
+package com.bookstore.records;
+
+import java.sql.Timestamp;
+
+/*
+ * A promotional email campaign and its progress; lastUserID is the highest
+ * userID already sent to
+ */
+public class EmailCampaignRecords {
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private int campaignID;
+    private Integer promoID;
+    private String subject;
+    private String message;
+    private String status;
+    private int lastUserID;
+    private int sentCount;
+    private int failedCount;
+    private Timestamp createdAt;
+    private Timestamp updatedAt;
+
+    public EmailCampaignRecords(int campaignID, Integer promoID, String subject, String message, String status,
+                                int lastUserID, int sentCount, int failedCount, Timestamp createdAt, Timestamp updatedAt) {
+        this.campaignID = campaignID;
+        this.promoID = promoID;
+        this.subject = subject;
+        this.message = message;
+        this.status = status;
+        this.lastUserID = lastUserID;
+        this.sentCount = sentCount;
+        this.failedCount = failedCount;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+
+    // New campaign, before it is saved
+    public EmailCampaignRecords(Integer promoID, String subject, String message) {
+        this(0, promoID, subject, message, STATUS_RUNNING, 0, 0, 0, null, null);
+    }
+
+    // Getters and setters
+    public int getCampaignID() {
+        return campaignID;
+    }
+    public void setCampaignID(int campaignID) {
+        this.campaignID = campaignID;
+    }
+
+    public Integer getPromoID() {
+        return promoID;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getLastUserID() {
+        return lastUserID;
+    }
+    public void setLastUserID(int lastUserID) {
+        this.lastUserID = lastUserID;
+    }
+
+    public int getSentCount() {
+        return sentCount;
+    }
+    public void setSentCount(int sentCount) {
+        this.sentCount = sentCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+    public void setFailedCount(int failedCount) {
+        this.failedCount = failedCount;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public Timestamp getUpdatedAt() {
+        return updatedAt;
+    }
+}
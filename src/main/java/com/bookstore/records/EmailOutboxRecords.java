@@ -0,0 +1,105 @@
+package com.bookstore.records;
+
+import java.sql.Timestamp;
+
+/*
+ * One email in the outbox: a fully rendered message plus its delivery state
+ */
+public class EmailOutboxRecords {
+    public static final String TYPE_VERIFICATION = "verification";
+    public static final String TYPE_PASSWORD_RESET = "password_reset";
+    public static final String TYPE_ORDER_CONFIRMATION = "order_confirmation";
+    public static final String TYPE_PROMOTIONAL = "promotional";
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_SENDING = "SENDING";
+    public static final String STATUS_SENT = "SENT";
+    public static final String STATUS_DEAD = "DEAD";
+
+    private long outboxID;
+    private String emailType;
+    private String recipient;
+    private String subject;
+    private String body;
+    private String status;
+    private int attempts;
+    private Timestamp nextAttemptAt;
+    private String lastError;
+    private Timestamp createdAt;
+    private Timestamp sentAt;
+
+    public EmailOutboxRecords(long outboxID, String emailType, String recipient, String subject, String body,
+                              String status, int attempts, Timestamp nextAttemptAt, String lastError,
+                              Timestamp createdAt, Timestamp sentAt) {
+        this.outboxID = outboxID;
+        this.emailType = emailType;
+        this.recipient = recipient;
+        this.subject = subject;
+        this.body = body;
+        this.status = status;
+        this.attempts = attempts;
+        this.nextAttemptAt = nextAttemptAt;
+        this.lastError = lastError;
+        this.createdAt = createdAt;
+        this.sentAt = sentAt;
+    }
+
+    // New email, before it is saved
+    public EmailOutboxRecords(String emailType, String recipient, String subject, String body) {
+        this(0, emailType, recipient, subject, body, STATUS_PENDING, 0, null, null, null, null);
+    }
+
+    // Getters and setters
+    public long getOutboxID() {
+        return outboxID;
+    }
+    public void setOutboxID(long outboxID) {
+        this.outboxID = outboxID;
+    }
+
+    public String getEmailType() {
+        return emailType;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Timestamp getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public Timestamp getSentAt() {
+        return sentAt;
+    }
+}
@@ -0,0 +1,87 @@
+package com.bookstore.records;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Read-only view of an order together with its line items and the
+ * book details shown on the order history page
+ */
+public class OrderHistoryRecords {
+    private int orderID;
+    private double grandTotal;
+    private Timestamp orderDateTime;
+    private List<Item> items;
+
+    // Constructor
+    public OrderHistoryRecords(int orderID, double grandTotal, Timestamp orderDateTime) {
+        this.orderID = orderID;
+        this.grandTotal = grandTotal;
+        this.orderDateTime = orderDateTime;
+        this.items = new ArrayList<>();
+    }
+
+    // Getters
+    public int getOrderID() {
+        return orderID;
+    }
+
+    public double getGrandTotal() {
+        return grandTotal;
+    }
+
+    public Timestamp getOrderDateTime() {
+        return orderDateTime;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public void addItem(Item item) {
+        items.add(item);
+    }
+
+    /*
+     * One line item (transaction row) joined with its book. price is the unit
+     * price paid; available is false if the book is no longer in the catalog
+     */
+    public static class Item {
+        public static final String UNAVAILABLE_TITLE = "Unavailable";
+
+        private int bookID;
+        private String title;
+        private int quantity;
+        private double price;
+        private boolean available;
+
+        public Item(int bookID, String title, int quantity, double price, boolean available) {
+            this.bookID = bookID;
+            this.title = title;
+            this.quantity = quantity;
+            this.price = price;
+            this.available = available;
+        }
+
+        public int getBookID() {
+            return bookID;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+    }
+}
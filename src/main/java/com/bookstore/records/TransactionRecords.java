@@ -5,13 +5,20 @@ public class TransactionRecords {
     private int orderID;
     private int bookID;
     private int quantity;
+    // Price of one unit when the order was placed; null for rows saved before prices were recorded
+    private Double unitPrice;
 
     // Constructor
     public TransactionRecords(int transactionID, int orderID, int bookID, int quantity) {
+        this(transactionID, orderID, bookID, quantity, null);
+    }
+
+    public TransactionRecords(int transactionID, int orderID, int bookID, int quantity, Double unitPrice) {
         this.transactionID = transactionID;
         this.orderID = orderID;
         this.bookID = bookID;
         this.quantity = quantity;
+        this.unitPrice = unitPrice;
     }
 
     // Getters and Setters
@@ -42,4 +49,11 @@ public class TransactionRecords {
     public void setQuantity(int quantity) {
         this.quantity = quantity;
     }
+
+    public Double getUnitPrice() {
+        return unitPrice;
+    }
+    public void setUnitPrice(Double unitPrice) {
+        this.unitPrice = unitPrice;
+    }
 }
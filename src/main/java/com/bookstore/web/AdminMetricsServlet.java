@@ -0,0 +1,211 @@
+/**
+ * REST endpoint reporting the runtime metrics of the store's pools, caches
+ * and background workers; admin only
+ * Following javadoc shows format and examples of endpoints
+ * currently in use
+ *
+ * Base URL: http://localhost:8080/api/admin/metrics
+ *
+ * Current endpoints:
+ *
+ *  GET /api/admin/metrics
+ *    Returns: One object per component:
+ *             emailDispatcher  queue depth, active sends, sent/failed/rejected counts and send latency
+ *             emailOutbox      sent/retried/dead counts, sends per second, delivery lag, pending
+ *                              and dead-letter backlog (read from the outbox table, -1 if unreadable)
+ *             emailCampaigns   active campaign, queued campaigns and sent/failed counts
+ *             smtpTransports   pooled SMTP connections and reconnects
+ *             connectionPool   open, idle and borrowed connections, waiting threads and reclaimed leaks
+ *             catalogCache     hits, misses and rebuilds of the in-memory catalog
+ *             promotionIndex   hits, misses and reloads of the promotion cache
+ *             inventoryHolds   active cart holds and how holds ended
+ *             passwordHasher   queue depth and hashing/verification latency
+ *             A component that cannot be reached is reported as {"error": "..."}
+ *    Example: GET http://localhost:8080/api/admin/metrics
+ */
+
+package com.bookstore.web;
+
+import com.bookstore.CampaignEngine;
+import com.bookstore.Email;
+import com.bookstore.EmailDispatcher;
+import com.bookstore.EmailOutboxSender;
+import com.bookstore.PasswordHasher;
+import com.bookstore.SmtpTransportPool;
+import com.bookstore.db.CatalogCache;
+import com.bookstore.db.InventoryReservations;
+import com.bookstore.db.PooledDataSource;
+import com.bookstore.db.PromotionIndex;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+
+public class AdminMetricsServlet extends AdminSecuredServlet {
+
+    private final Gson gson = new Gson();
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        setCorsHeaders(response);
+
+        if (!verifyAdminAccess(request, response)) {
+            return;
+        }
+
+        JsonObject metrics = new JsonObject();
+        metrics.add("emailDispatcher", emailDispatcherMetrics());
+        metrics.add("emailOutbox", emailOutboxMetrics());
+        metrics.add("emailCampaigns", emailCampaignMetrics());
+        metrics.add("smtpTransports", smtpTransportMetrics());
+        metrics.add("connectionPool", connectionPoolMetrics());
+        metrics.add("catalogCache", catalogCacheMetrics());
+        metrics.add("promotionIndex", promotionIndexMetrics());
+        metrics.add("inventoryHolds", inventoryHoldMetrics());
+        metrics.add("passwordHasher", passwordHasherMetrics());
+
+        PrintWriter out = response.getWriter();
+        out.print(gson.toJson(metrics));
+        out.flush();
+    }
+
+    @Override
+    protected void doOptions(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        setCorsHeaders(response);
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    private JsonObject emailDispatcherMetrics() {
+        EmailDispatcher dispatcher = EmailDispatcher.getInstance();
+        JsonObject obj = new JsonObject();
+        obj.addProperty("queueDepth", dispatcher.getQueueDepth());
+        obj.addProperty("activeSends", dispatcher.getActiveSends());
+        obj.addProperty("submitted", dispatcher.getSubmittedCount());
+        obj.addProperty("rejected", dispatcher.getRejectedCount());
+        obj.addProperty("sent", dispatcher.getSentCount());
+        obj.addProperty("failed", dispatcher.getFailedCount());
+        obj.addProperty("averageSendMillis", dispatcher.getAverageSendMillis());
+        obj.addProperty("maxSendMillis", dispatcher.getMaxSendMillis());
+        obj.addProperty("averageQueueMillis", dispatcher.getAverageQueueMillis());
+        return obj;
+    }
+
+    private JsonObject emailOutboxMetrics() {
+        EmailOutboxSender sender = EmailOutboxSender.getInstance();
+        JsonObject obj = new JsonObject();
+        obj.addProperty("claimed", sender.getClaimedCount());
+        obj.addProperty("sent", sender.getSentCount());
+        obj.addProperty("sendsPerSecond", sender.getSendsPerSecond());
+        obj.addProperty("retried", sender.getRetryCount());
+        obj.addProperty("deadLettered", sender.getDeadLetterCount());
+        obj.addProperty("pollFailures", sender.getPollFailureCount());
+        obj.addProperty("averageLagMillis", sender.getAverageLagMillis());
+        obj.addProperty("maxLagMillis", sender.getMaxLagMillis());
+        obj.addProperty("lastLagMillis", sender.getLastLagMillis());
+        obj.addProperty("pendingBacklog", sender.getPendingBacklog());
+        obj.addProperty("oldestPendingAgeMillis", sender.getOldestPendingAgeMillis());
+        obj.addProperty("deadLetterBacklog", sender.getDeadLetterBacklog());
+        return obj;
+    }
+
+    private JsonObject emailCampaignMetrics() {
+        CampaignEngine engine = CampaignEngine.getInstance();
+        JsonObject obj = new JsonObject();
+        obj.addProperty("activeCampaignID", engine.getActiveCampaignID());
+        obj.addProperty("queuedCampaigns", engine.getQueuedCampaignCount());
+        obj.addProperty("activeSends", engine.getActiveSends());
+        obj.addProperty("started", engine.getStartedCount());
+        obj.addProperty("completed", engine.getCompletedCount());
+        obj.addProperty("failedCampaigns", engine.getFailedCampaignCount());
+        obj.addProperty("sent", engine.getSentCount());
+        obj.addProperty("failedSends", engine.getFailedSendCount());
+        obj.addProperty("throttledMillis", engine.getThrottledMillis());
+        return obj;
+    }
+
+    private JsonObject smtpTransportMetrics() {
+        SmtpTransportPool transports = Email.getTransportPool();
+        JsonObject obj = new JsonObject();
+        obj.addProperty("idle", transports.getIdleCount());
+        obj.addProperty("inUse", transports.getInUseCount());
+        obj.addProperty("opened", transports.getOpenedCount());
+        obj.addProperty("sent", transports.getSentCount());
+        obj.addProperty("reconnects", transports.getReconnectCount());
+        return obj;
+    }
+
+    private JsonObject connectionPoolMetrics() {
+        JsonObject obj = new JsonObject();
+        PooledDataSource pool;
+        try {
+            pool = PooledDataSource.getInstance();
+        } catch (SQLException e) {
+            obj.addProperty("error", e.getMessage());
+            return obj;
+        }
+        obj.addProperty("total", pool.getTotalConnections());
+        obj.addProperty("idle", pool.getIdleConnections());
+        obj.addProperty("borrowed", pool.getBorrowedConnections());
+        obj.addProperty("maxSize", pool.getMaxSize());
+        obj.addProperty("threadsAwaiting", pool.getThreadsAwaitingConnection());
+        obj.addProperty("reclaimed", pool.getReclaimedConnections());
+        return obj;
+    }
+
+    private JsonObject catalogCacheMetrics() {
+        CatalogCache cache = CatalogCache.getInstance();
+        JsonObject obj = new JsonObject();
+        obj.addProperty("hits", cache.getHitCount());
+        obj.addProperty("misses", cache.getMissCount());
+        obj.addProperty("rebuilds", cache.getRebuildCount());
+        obj.addProperty("lastRebuildMillis", cache.getLastRebuildMillis());
+        return obj;
+    }
+
+    private JsonObject promotionIndexMetrics() {
+        PromotionIndex index = PromotionIndex.getInstance();
+        JsonObject obj = new JsonObject();
+        obj.addProperty("hits", index.getHitCount());
+        obj.addProperty("misses", index.getMissCount());
+        obj.addProperty("loads", index.getLoadCount());
+        obj.addProperty("expired", index.getExpiredCount());
+        obj.addProperty("invalidations", index.getInvalidationCount());
+        return obj;
+    }
+
+    private JsonObject inventoryHoldMetrics() {
+        InventoryReservations reservations = InventoryReservations.getInstance();
+        JsonObject obj = new JsonObject();
+        obj.addProperty("active", reservations.getActiveHolds());
+        obj.addProperty("placed", reservations.getPlacedCount());
+        obj.addProperty("rejected", reservations.getRejectedCount());
+        obj.addProperty("expired", reservations.getExpiredCount());
+        obj.addProperty("released", reservations.getReleasedCount());
+        obj.addProperty("converted", reservations.getConvertedCount());
+        return obj;
+    }
+
+    private JsonObject passwordHasherMetrics() {
+        PasswordHasher hasher = PasswordHasher.getInstance();
+        JsonObject obj = new JsonObject();
+        obj.addProperty("queueDepth", hasher.getQueueDepth());
+        obj.addProperty("active", hasher.getActiveCount());
+        obj.addProperty("submitted", hasher.getSubmittedCount());
+        obj.addProperty("rejected", hasher.getRejectedCount());
+        obj.addProperty("expired", hasher.getExpiredCount());
+        obj.addProperty("hashes", hasher.getHashCount());
+        obj.addProperty("averageHashMillis", hasher.getAverageHashMillis());
+        obj.addProperty("maxHashMillis", hasher.getMaxHashMillis());
+        obj.addProperty("verifications", hasher.getVerifyCount());
+        obj.addProperty("averageVerifyMillis", hasher.getAverageVerifyMillis());
+        obj.addProperty("maxVerifyMillis", hasher.getMaxVerifyMillis());
+        obj.addProperty("averageQueueMillis", hasher.getAverageQueueMillis());
+        obj.addProperty("maxQueueMillis", hasher.getMaxQueueMillis());
+        return obj;
+    }
+}
@@ -0,0 +1,40 @@
+package com.bookstore.web;
+
+import com.bookstore.CampaignEngine;
+import com.bookstore.Email;
+import com.bookstore.EmailDispatcher;
+import com.bookstore.EmailOutboxSender;
+import com.bookstore.PasswordHasher;
+import com.bookstore.db.DatabaseFactory;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+/**
+ * Starts and releases process wide resources with the web application.
+ * On startup, the email outbox sender starts polling and promotional email
+ * campaigns interrupted by the last shutdown are resumed. On shutdown, the
+ * password hashing pool stops taking logins first. Then the campaign in
+ * progress is checkpointed, the outbox batch in flight is finished and
+ * queued emails are drained, since all of them still use the database and
+ * SMTP, then pooled SMTP connections are closed, and the database connection
+ * pool is closed last.
+ */
+public class AppLifecycleListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        EmailOutboxSender.getInstance().start();
+        CampaignEngine.getInstance().resumeIncomplete();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        PasswordHasher.shutdownInstance();
+        CampaignEngine.shutdownInstance();
+        EmailOutboxSender.shutdownInstance();
+        EmailDispatcher.shutdownInstance();
+        Email.shutdown();
+        DatabaseFactory.shutdown();
+    }
+}
@@ -16,21 +16,60 @@
  *    Example: GET http://localhost:8080/api/books?display=featured
  * 
  *  GET /api/books?display=comingsoon
- *    Returns: Array of upcoming releases (books with future release dates)
+ *    Returns: Array of upcoming releases (books with future release dates), soonest first
  *    Example: GET http://localhost:8080/api/books?display=comingsoon
  * 
  *  GET /api/books?search={term}
- *    Returns: Array of books matching search term (searches title, author, category, ISBN)
+ *    Returns: Array of books matching every word of the search term, best match first
+ *             (searches ISBN, title, author, category, publisher, edition and year;
+ *             words also match the start of longer words). Runs on the backend chosen by
+ *             db.search.backend: the in-memory index (default) or MySQL FULLTEXT, which
+ *             does not index the year and never fills in didYouMean
  *    Example: GET http://localhost:8080/api/books?search=fantasy
  * 
+ *  GET /api/books?sort={key}&order={asc|desc}&offset={n}&limit={n}
+ *    sort: price, rating, releaseDate or title (rating defaults to desc, the rest to asc);
+ *    limit defaults to 20, max 100. Works with display, search and the facet filters below.
+ *    Returns: {books: array, total: number, offset: number, limit: number}
+ *    Example: GET http://localhost:8080/api/books?sort=price&offset=20&limit=20
+ * 
+ *  GET /api/books?category={c}&year={y}&price={band}&rating={n+}&featured={bool}&availability={a}&facets
+ *    Any of these parameters switches to a filtered query; all are optional and may be repeated.
+ *    Values within one parameter are ORed, different parameters are ANDed, and search may be added.
+ *      price: 0-10, 10-20, 20-30, 30-50, 50+      rating: 4+, 3+, 2+, 1+
+ *      availability: inStock, outOfStock, comingSoon
+ *    Returns: {books: array, total: number, facets: {facet: {value: count}}} where each facet's
+ *             counts apply every other facet's filter, so they show what selecting that value gives
+ *    Example: GET http://localhost:8080/api/books?category=Fantasy&price=10-20&price=20-30
+ * 
+ *  GET /api/books/suggest?q={prefix}&limit={n}
+ *    Returns: Array of up to n (default 8, max 20) {text, type, bookId} typeahead suggestions
+ *             for titles, authors and categories starting with the prefix, best rated first;
+ *             type is title, author or category and bookId is -1 unless type is title
+ *    Example: GET http://localhost:8080/api/books/suggest?q=four
+ * 
+ *  GET /api/books?search={term}&fuzzy=true
+ *    Typo-tolerant search: words that match nothing are replaced by catalog words one or
+ *    two edits away (e.g. "Freida McFaden" finds Freida McFadden)
+ *    Returns: {books: array, didYouMean: string} where didYouMean, the corrected query,
+ *             is only present when a word was replaced
+ *    Example: GET http://localhost:8080/api/books?search=rebbeca%20yarros&fuzzy=true
+ * 
  *  GET /api/books/{id}
  *    Returns: Single book object with complete details including description
  *    Example: GET http://localhost:8080/api/books/1
  * 
- *  POST /api/books/calculate
+ *  Catalog GETs (everything except search) carry a strong ETag and
+ *  Cache-Control, are gzipped when the client accepts it, and answer
+ *  If-None-Match with 304 Not Modified.
+ * 
+ *  POST /api/books/calculate?promoCode={code}
  *    Body: Array of {id: number, quantity: number}
- *    Returns: Checkout calculation with subtotal, tax, and total
- *    Example: POST http://localhost:8080/api/books/calculate
+ *    Returns: {subtotal, discount, total} priced on the server from catalog prices and,
+ *             when promoCode is given, the promotion active today (discount is 0 without one)
+ *             400 if the promo code is unknown or expired, or a quantity is not positive
+ *             404 {error, bookIDs} listing every requested book that does not exist
+ *    Example: POST http://localhost:8080/api/books/calculate?promoCode=SUMMER20
  *             Body: [{"id": 1, "quantity": 2}, {"id": 3, "quantity": 1}]
  * 
  *
@@ -40,12 +79,18 @@ package com.bookstore.web;
 
 import com.bookstore.db.BookActions;
 import com.bookstore.db.BookDatabase;
+import com.bookstore.db.BookSuggester;
+import com.bookstore.db.CatalogCache;
+import com.bookstore.db.CatalogFacets;
+import com.bookstore.db.CatalogSort;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;
+import com.bookstore.db.InvalidPromotionException;
 import com.bookstore.records.BookRecords;
 import com.bookstore.db.BookNotFoundException;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
@@ -56,13 +101,23 @@ import jakarta.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.File;
-import java.util.ArrayList;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class BookServlet extends AdminSecuredServlet {
     // Fix: Set Gson to use yyyy-MM-dd for SQL Date
     private final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd").create();
+    // Encoded catalog responses for the current catalog version
+    private final CatalogResponseCache responses = new CatalogResponseCache();
+
+    private static final int DEFAULT_SUGGESTIONS = 8;
+    private static final int MAX_SUGGESTIONS = 20;
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
@@ -81,6 +136,8 @@ public class BookServlet extends AdminSecuredServlet {
                 return;
             }
             // Allow any authenticated user to access checkout calculation
+            handleCalculate(req, resp);
+            return;
         } else {
             // For book creation operations, require admin access
             if (!verifyAdminAccess(req, resp)) {
@@ -95,12 +152,7 @@ public class BookServlet extends AdminSecuredServlet {
             try {
                 String requestBody = req.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
                 
-                if (pathInfo != null && pathInfo.equals("/calculate")) {
-                    // Handle checkout calculation
-                    CartItem[] cartItems = gson.fromJson(requestBody, CartItem[].class);
-                    Map<String, Double> result = BookActions.calculateCheckout(bookDb.getConnection(), cartItems);
-                    out.print(gson.toJson(result));
-                } else if (pathInfo == null || pathInfo.equals("/")) {
+                if (pathInfo == null || pathInfo.equals("/")) {
                     // Handle adding a new book
                     BookRecords newBook = gson.fromJson(requestBody, BookRecords.class);
                     String result = ((BookDatabase) bookDb).addBook(newBook);
@@ -117,9 +169,6 @@ public class BookServlet extends AdminSecuredServlet {
                     out.print("{\"error\": \"Invalid endpoint for POST request. Use /calculate for checkout or root for adding books.\"}");
                 }
 
-            } catch (BookNotFoundException e) {
-                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                out.print("{\"error\": \"" + e.getMessage() + "\"}");
             } catch (Exception e) {
                 resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 out.print("{\"error\": \"Error processing the request: " + e.getMessage() + "\"}");
@@ -134,64 +183,324 @@ public class BookServlet extends AdminSecuredServlet {
         out.flush();
     }
 
+    /*
+     * Price a cart for checkout. Prices come from the catalog cache, so no
+     * connection is taken here; PricingEngine borrows one only for books the
+     * cache does not have.
+     */
+    private void handleCalculate(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        PrintWriter out = resp.getWriter();
+        try {
+            String requestBody = req.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
+            CartItem[] cartItems = gson.fromJson(requestBody, CartItem[].class);
+            Map<String, Double> result = BookActions.calculateCheckout(null, cartItems, req.getParameter("promoCode"));
+            out.print(gson.toJson(result));
+        } catch (InvalidPromotionException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print("{\"error\": \"Invalid or expired promo code\"}");
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print("{\"error\": \"" + e.getMessage() + "\"}");
+        } catch (BookNotFoundException e) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            JsonObject errorObj = new JsonObject();
+            errorObj.addProperty("error", e.getMessage());
+            errorObj.add("bookIDs", gson.toJsonTree(e.getBookIDs()));
+            out.print(gson.toJson(errorObj));
+        } catch (Exception e) {
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print("{\"error\": \"Error processing the request: " + e.getMessage() + "\"}");
+            e.printStackTrace();
+        }
+        out.flush();
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         setCorsHeaders(resp);
         
-        DatabaseInterface bookDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.BOOK);
-        PrintWriter out = resp.getWriter();
+        String pathInfo = req.getPathInfo();
+        String searchTerm = req.getParameter("search");
 
-        if (bookDb.connectDb()) {
-            String pathInfo = req.getPathInfo();
+        boolean rootPath = pathInfo == null || pathInfo.equals("/");
 
-            if (pathInfo != null && !pathInfo.equals("/")) {
-                try {
-                    int bookId = Integer.parseInt(pathInfo.substring(1));
-                    BookRecords book = BookActions.getBookById(bookDb.getConnection(), bookId);
+        // sort, order, offset and limit turn list responses into {books, total, offset, limit}
+        PageRequest page = null;
+        if (rootPath && PageRequest.isRequested(req)) {
+            page = PageRequest.parse(req);
+            if (page == null) {
+                sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid sort, order, offset or limit");
+                return;
+            }
+        }
 
-                    if (book != null) {
-                        out.print(gson.toJson(book));
-                    } else {
-                        resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                        out.print("{\"error\": \"Book not found\"}");
-                    }
-                } catch (NumberFormatException e) {
-                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                    out.print("{\"error\": \"Invalid book ID\"}");
+        // Filtered queries (optionally combined with search) go through the facet bitsets
+        if (rootPath && isFacetedQuery(req)) {
+            handleFaceted(req, resp, searchTerm, page);
+            return;
+        }
+
+        // Search is answered by the configured backend (in-memory index or MySQL FULLTEXT)
+        if (rootPath && searchTerm != null && !searchTerm.isEmpty()) {
+            boolean fuzzy = "true".equals(req.getParameter("fuzzy"));
+            CatalogCache.SearchResult result;
+            JsonObject body = null;
+            try {
+                result = DatabaseFactory.getSearchBackend().search(searchTerm, 0, fuzzy);
+                if (page != null) {
+                    body = page.toJson(gson, CatalogCache.getInstance().getSnapshot(), result.getBooks());
+                } else if (fuzzy) {
+                    body = new JsonObject();
+                    body.add("books", gson.toJsonTree(result.getBooks()));
                 }
-            } else {
-                String searchTerm = req.getParameter("search");
-                String display = req.getParameter("display");
-                ArrayList<BookRecords> books;
-
-                if (searchTerm != null && !searchTerm.isEmpty()) {
-                    books = BookActions.searchBooks(bookDb.getConnection(), searchTerm);
-                } else if (display != null) {
-                    switch (display) {
-                        case "featured":
-                            books = BookActions.getFeaturedBooks(bookDb.getConnection());
-                            break;
-                        case "comingsoon":
-                            books = BookActions.getComingSoonBooks(bookDb.getConnection());
-                            break;
-                        default:
-                            ((BookDatabase) bookDb).loadResults();
-                            books = ((BookDatabase) bookDb).getResults();
-                            break;
-                    }
-                } else {
-                    ((BookDatabase) bookDb).loadResults();
-                    books = ((BookDatabase) bookDb).getResults();
+                if (fuzzy) {
+                    body.addProperty("didYouMean", result.getDidYouMean());
                 }
-                
-                String booksJson = gson.toJson(books);
-                out.print(booksJson);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to connect to the database");
+                return;
+            }
+            PrintWriter out = resp.getWriter();
+            out.print(body != null ? gson.toJson(body) : gson.toJson(result.getBooks()));
+            out.flush();
+            return;
+        }
+
+        if ("/suggest".equals(pathInfo)) {
+            handleSuggest(req, resp);
+            return;
+        }
+
+        // Everything else is served from the in-memory catalog as pre-encoded bytes
+        CatalogCache.Snapshot catalog;
+        try {
+            catalog = CatalogCache.getInstance().getSnapshot();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to connect to the database");
+            return;
+        }
+
+        if (page != null) {
+            // Pages are small and their combinations many, so they are serialized per request
+            String display = req.getParameter("display");
+            List<BookRecords> listed = "featured".equals(display) ? catalog.getFeatured()
+                    : "comingsoon".equals(display) ? catalog.getComingSoon()
+                    : null;
+            JsonObject paged = listed != null ? page.toJson(gson, catalog, listed) : page.catalogPage(gson, catalog);
+            PrintWriter out = resp.getWriter();
+            out.print(gson.toJson(paged));
+            out.flush();
+            return;
+        }
+
+        CatalogResponseCache.Entry entry;
+        if (pathInfo != null && !pathInfo.equals("/")) {
+            BookRecords book;
+            try {
+                book = catalog.getBook(Integer.parseInt(pathInfo.substring(1)));
+            } catch (NumberFormatException e) {
+                sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid book ID");
+                return;
             }
-            bookDb.disconnectDb();
+            if (book == null) {
+                sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Book not found");
+                return;
+            }
+            entry = responses.get(catalog.getVersion(), "book:" + book.getId(), () -> gson.toJson(book));
         } else {
-            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"error\": \"Failed to connect to the database\"}");
+            String display = req.getParameter("display");
+            if ("featured".equals(display)) {
+                entry = responses.get(catalog.getVersion(), "featured", () -> gson.toJson(catalog.getFeatured()));
+            } else if ("comingsoon".equals(display)) {
+                // The coming-soon list also changes when the date does
+                entry = responses.get(catalog.getVersion(), "comingsoon:" + LocalDate.now(),
+                        () -> gson.toJson(catalog.getComingSoon()));
+            } else {
+                entry = responses.get(catalog.getVersion(), "all", () -> gson.toJson(catalog.getBooks()));
+            }
+        }
+        CatalogResponseCache.send(req, resp, entry);
+    }
+
+    private static boolean isFacetedQuery(HttpServletRequest req) {
+        if (req.getParameter("facets") != null) {
+            return true;
         }
+        for (String facet : CatalogFacets.FACETS) {
+            if (req.getParameter(facet) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void handleFaceted(HttpServletRequest req, HttpServletResponse resp, String searchTerm, PageRequest page) throws IOException {
+        Map<String, List<String>> selected = new HashMap<>();
+        for (String facet : CatalogFacets.FACETS) {
+            String[] values = req.getParameterValues(facet);
+            if (values != null) {
+                selected.put(facet, Arrays.asList(values));
+            }
+        }
+
+        List<BookRecords> books;
+        CatalogFacets.Result result;
+        CatalogCache.Snapshot catalog;
+        String didYouMean = null;
+        try {
+            CatalogCache cache = CatalogCache.getInstance();
+            catalog = cache.getSnapshot();
+            if (searchTerm != null && !searchTerm.isEmpty()) {
+                // Facets narrow the search hits, which keep their rank order
+                CatalogCache.SearchResult search = DatabaseFactory.getSearchBackend().search(searchTerm, 0, "true".equals(req.getParameter("fuzzy")));
+                List<BookRecords> hits = search.getBooks();
+                didYouMean = search.getDidYouMean();
+                List<Integer> hitIds = hits.stream().map(BookRecords::getId).collect(Collectors.toList());
+                result = catalog.getFacets().filter(selected, hitIds);
+                Set<Integer> matching = result.getBooks().stream().map(BookRecords::getId).collect(Collectors.toSet());
+                books = hits.stream().filter(book -> matching.contains(book.getId())).collect(Collectors.toList());
+            } else {
+                result = catalog.getFacets().filter(selected, null);
+                books = result.getBooks();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to connect to the database");
+            return;
+        }
+
+        JsonObject responseObj;
+        if (page != null) {
+            responseObj = page.toJson(gson, catalog, books);
+        } else {
+            responseObj = new JsonObject();
+            responseObj.add("books", gson.toJsonTree(books));
+            responseObj.addProperty("total", books.size());
+        }
+        responseObj.add("facets", gson.toJsonTree(result.getCounts()));
+        if (didYouMean != null) {
+            responseObj.addProperty("didYouMean", didYouMean);
+        }
+        PrintWriter out = resp.getWriter();
+        out.print(gson.toJson(responseObj));
+        out.flush();
+    }
+
+    private void handleSuggest(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String query = req.getParameter("q");
+        int limit = DEFAULT_SUGGESTIONS;
+        String limitParam = req.getParameter("limit");
+        if (limitParam != null) {
+            try {
+                limit = Math.max(1, Math.min(MAX_SUGGESTIONS, Integer.parseInt(limitParam)));
+            } catch (NumberFormatException e) {
+                sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid limit");
+                return;
+            }
+        }
+
+        List<BookSuggester.Suggestion> suggestions;
+        try {
+            suggestions = query == null ? List.of() : CatalogCache.getInstance().suggest(query, limit);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to connect to the database");
+            return;
+        }
+        PrintWriter out = resp.getWriter();
+        out.print(gson.toJson(suggestions));
+        out.flush();
+    }
+
+    /*
+     * Sort and page parameters of a list request. Sorting uses the catalog's
+     * precomputed orders, so a page of the full catalog costs only its own size.
+     */
+    private static final class PageRequest {
+        static final int DEFAULT_LIMIT = 20;
+        static final int MAX_LIMIT = 100;
+
+        final String sortKey;
+        final boolean descending;
+        final int offset;
+        final int limit;
+
+        private PageRequest(String sortKey, boolean descending, int offset, int limit) {
+            this.sortKey = sortKey;
+            this.descending = descending;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        static boolean isRequested(HttpServletRequest req) {
+            return req.getParameter("sort") != null || req.getParameter("offset") != null
+                    || req.getParameter("limit") != null;
+        }
+
+        // Null if any parameter is invalid
+        static PageRequest parse(HttpServletRequest req) {
+            String sortKey = req.getParameter("sort");
+            if (sortKey != null && !CatalogSort.KEYS.contains(sortKey)) {
+                return null;
+            }
+            // Best rated first by default; everything else ascending
+            boolean descending = CatalogSort.RATING.equals(sortKey);
+            String order = req.getParameter("order");
+            if (order != null) {
+                if (!order.equals("asc") && !order.equals("desc")) {
+                    return null;
+                }
+                descending = order.equals("desc");
+            }
+            try {
+                int offset = req.getParameter("offset") == null ? 0 : Integer.parseInt(req.getParameter("offset"));
+                int limit = req.getParameter("limit") == null ? DEFAULT_LIMIT : Integer.parseInt(req.getParameter("limit"));
+                if (offset < 0 || limit < 1) {
+                    return null;
+                }
+                return new PageRequest(sortKey, descending, offset, Math.min(limit, MAX_LIMIT));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        // Sort (if asked) and slice a list of books from the snapshot
+        JsonObject toJson(Gson gson, CatalogCache.Snapshot catalog, List<BookRecords> books) {
+            List<BookRecords> ordered = sortKey == null ? books : catalog.getSort(sortKey).sort(books, descending);
+            int from = Math.min(offset, ordered.size());
+            int to = Math.min(ordered.size(), from + limit);
+            return build(gson, ordered.subList(from, to), ordered.size());
+        }
+
+        // A page of the whole catalog, read straight from the precomputed order
+        JsonObject catalogPage(Gson gson, CatalogCache.Snapshot catalog) {
+            List<BookRecords> books = catalog.getBooks();
+            List<BookRecords> slice;
+            if (sortKey == null) {
+                int from = Math.min(offset, books.size());
+                slice = books.subList(from, Math.min(books.size(), from + limit));
+            } else {
+                slice = catalog.getSort(sortKey).page(descending, offset, limit);
+            }
+            return build(gson, slice, books.size());
+        }
+
+        private JsonObject build(Gson gson, List<BookRecords> slice, int total) {
+            JsonObject page = new JsonObject();
+            page.add("books", gson.toJsonTree(slice));
+            page.addProperty("total", total);
+            page.addProperty("offset", offset);
+            page.addProperty("limit", limit);
+            return page;
+        }
+    }
+
+    private void sendError(HttpServletResponse resp, int status, String message) throws IOException {
+        resp.setStatus(status);
+        PrintWriter out = resp.getWriter();
+        out.print("{\"error\": \"" + message + "\"}");
         out.flush();
     }
 
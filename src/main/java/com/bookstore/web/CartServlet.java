@@ -11,12 +11,16 @@
  * 
  *  POST /api/cart
  *    Body: {bookID: number, quantity: number}
- *    Action: Adds item to cart or updates quantity if item exists
+ *    Action: Adds item to cart or updates quantity if item exists, and holds
+ *            that stock for the cart for a limited time
+ *    Returns: 409 with {error, available} if other carts already hold the remaining stock
  *    Requires: Active session
  * 
  *  PUT /api/cart
  *    Body: {bookID: number, quantity: number}
- *    Action: Updates quantity of existing cart item
+ *    Action: Updates quantity of existing cart item and its stock hold
+ *    Returns: 409 with {error, available} if other carts already hold the remaining stock,
+ *             404 if the book is not in the cart
  *    Requires: Active session
  * 
  *  DELETE /api/cart/{bookID}
@@ -29,16 +33,20 @@
  * 
  *  POST /api/cart/merge
  *    Body: Array of {bookID: number, quantity: number}
- *    Action: Merges guest cart with user cart on login
+ *    Action: Merges guest cart with user cart on login and holds the stock for
+ *            every merged line
+ *    Returns: 409 with {error, bookIDs} if other carts already hold the remaining
+ *             stock of those books; nothing is merged then
  *    Requires: Active session
  */
 
 package com.bookstore.web;
 
+import com.bookstore.db.BookActions;
 import com.bookstore.db.CartDatabase;
-import com.bookstore.db.BookDatabase;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;
+import com.bookstore.db.InventoryReservations;
 import com.bookstore.records.CartRecord;
 import com.bookstore.records.BookRecords;
 import com.google.gson.Gson;
@@ -56,6 +64,8 @@ import java.io.PrintWriter;
 import java.util.stream.Collectors;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
 
 public class CartServlet extends HttpServlet {
     private final Gson gson = new Gson();
@@ -97,27 +107,25 @@ public class CartServlet extends HttpServlet {
 
         DatabaseInterface cartDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.CART);
         DatabaseInterface bookDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.BOOK);
-        
-        if (!cartDb.connectDb() || !bookDb.connectDb()) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"error\": \"Database connection failed\"}");
-            return;
-        }
 
         try {
-            ((CartDatabase) cartDb).loadResults();
-            List<CartRecord> userCartItems = ((CartDatabase) cartDb).getResults().stream()
-                .filter(cart -> cart.getUserID() == userId)
-                .collect(Collectors.toList());
+            // The finally block returns whichever connection did open
+            if (!cartDb.connectDb() || !bookDb.connectDb()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.print("{\"error\": \"Database connection failed\"}");
+                return;
+            }
+
+            List<CartRecord> userCartItems = ((CartDatabase) cartDb).findByUserID(userId);
 
-            // Get book details for each cart item
-            ((BookDatabase) bookDb).loadResults();
+            // Get book details for only the books in this cart
+            List<Integer> bookIds = userCartItems.stream()
+                .map(CartRecord::getBookID)
+                .collect(Collectors.toList());
+            Map<Integer, BookRecords> books = BookActions.getBooksByIds(bookDb.getConnection(), bookIds);
             JsonArray cartArray = new JsonArray();
             for (CartRecord cartItem : userCartItems) {
-                // Find book by ID from loaded results
-                BookRecords book = ((BookDatabase) bookDb).getResults().stream()
-                    .filter(b -> b.getId() == cartItem.getBookID())
-                    .findFirst().orElse(null);
+                BookRecords book = books.get(cartItem.getBookID());
                 
                 if (book != null) {
                     JsonObject cartItemJson = new JsonObject();
@@ -172,9 +180,9 @@ public class CartServlet extends HttpServlet {
     }
 
     private void handleMergeCart(Integer userId, String body, HttpServletResponse response, PrintWriter out) {
+        DatabaseInterface cartDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.CART);
         try {
             JsonArray guestCartArray = gson.fromJson(body, JsonArray.class);
-            DatabaseInterface cartDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.CART);
             
             if (!cartDb.connectDb()) {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -182,80 +190,120 @@ public class CartServlet extends HttpServlet {
                 return;
             }
 
-            ((CartDatabase) cartDb).loadResults();
-            
+            List<CartRecord> guestItems = new ArrayList<>();
             for (JsonElement element : guestCartArray) {
                 JsonObject guestItem = element.getAsJsonObject();
                 int bookId = guestItem.get("bookID").getAsInt();
                 int quantity = guestItem.get("quantity").getAsInt();
-                
-                // Check if item already exists in user's cart
-                boolean exists = ((CartDatabase) cartDb).getResults().stream()
-                    .anyMatch(cart -> cart.getUserID() == userId && cart.getBookID() == bookId);
-                
-                if (exists) {
-                    // Update existing item (add quantities)
-                    CartRecord existing = ((CartDatabase) cartDb).getResults().stream()
-                        .filter(cart -> cart.getUserID() == userId && cart.getBookID() == bookId)
-                        .findFirst().orElse(null);
-                    if (existing != null) {
-                        existing.setQuantity(existing.getQuantity() + quantity);
-                        ((CartDatabase) cartDb).updateCartRecord(existing);
+                guestItems.add(new CartRecord(userId, bookId, quantity));
+            }
+            
+            // Add quantities to existing lines or create new ones in one batched round trip,
+            // and hold stock for the merged lines before the merge commits
+            InventoryReservations reservations = InventoryReservations.getInstance();
+            List<Integer> shortBooks = new ArrayList<>();
+            // The hold each merged line replaced (null if it had none), by book
+            Map<Integer, InventoryReservations.Hold> replaced = new HashMap<>();
+            String result = ((CartDatabase) cartDb).upsertCartRecords(guestItems, saved -> {
+                for (CartRecord line : saved) {
+                    BookRecords book = BookActions.getBookById(cartDb.getConnection(), line.getBookID());
+                    InventoryReservations.Hold previous = reservations.getHold(userId, line.getBookID());
+                    if (book != null && reservations.reserve(userId, line.getBookID(), line.getQuantity(), book.getQuantityInStock())) {
+                        replaced.put(line.getBookID(), previous);
+                    } else {
+                        shortBooks.add(line.getBookID());
                     }
-                } else {
-                    // Add new item
-                    CartRecord newItem = new CartRecord(userId, bookId, quantity);
-                    ((CartDatabase) cartDb).addCartRecord(newItem);
                 }
-            }
+                if (shortBooks.isEmpty()) {
+                    return true;
+                }
+                // The merge is rolled back, so put back exactly the holds it replaced
+                replaced.forEach((bookId, previous) -> reservations.restore(userId, bookId, previous));
+                return false;
+            });
             
-            cartDb.disconnectDb();
-            out.print("{\"success\": \"Cart merged successfully\"}");
+            if (result.equals("Cart records saved.")) {
+                out.print("{\"success\": \"Cart merged successfully\"}");
+            } else if (result.equals("Cart records rejected.")) {
+                JsonObject errorObj = new JsonObject();
+                errorObj.addProperty("error", "Not enough stock available for one or more books");
+                errorObj.add("bookIDs", gson.toJsonTree(shortBooks));
+                response.setStatus(HttpServletResponse.SC_CONFLICT);
+                out.print(gson.toJson(errorObj));
+            } else {
+                // The merge failed after the holds were placed, e.g. on commit
+                replaced.forEach((bookId, previous) -> reservations.restore(userId, bookId, previous));
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.print("{\"error\": \"Error merging cart\"}");
+            }
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print("{\"error\": \"Error merging cart: " + e.getMessage() + "\"}");
             e.printStackTrace();
+        } finally {
+            cartDb.disconnectDb();
         }
     }
 
     private void handleAddToCart(Integer userId, String body, HttpServletResponse response, PrintWriter out) {
+        DatabaseInterface cartDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.CART);
         try {
             JsonObject requestData = gson.fromJson(body, JsonObject.class);
             int bookId = requestData.get("bookID").getAsInt();
             int quantity = requestData.get("quantity").getAsInt();
             
-            DatabaseInterface cartDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.CART);
-            
             if (!cartDb.connectDb()) {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 out.print("{\"error\": \"Database connection failed\"}");
                 return;
             }
 
-            ((CartDatabase) cartDb).loadResults();
+            // Add to the line, then hold stock for the quantity the saved line now has
+            // before it commits, so concurrent adds of the same book cannot leave the
+            // hold smaller than the cart
+            List<CartRecord> line = List.of(new CartRecord(userId, bookId, quantity));
+            String result = ((CartDatabase) cartDb).upsertCartRecords(line,
+                saved -> reserveStock(cartDb, userId, bookId, saved.get(0).getQuantity(), response, out));
             
-            // Check if item already exists
-            CartRecord existing = ((CartDatabase) cartDb).getResults().stream()
-                .filter(cart -> cart.getUserID() == userId && cart.getBookID() == bookId)
-                .findFirst().orElse(null);
-            
-            if (existing != null) {
-                // Update existing item
-                existing.setQuantity(existing.getQuantity() + quantity);
-                ((CartDatabase) cartDb).updateCartRecord(existing);
+            if (result.equals("Cart records saved.")) {
+                out.print("{\"success\": \"Item added to cart\"}");
+            } else if (result.equals("Cart records rejected.")) {
+                // reserveStock has already answered 404 or 409
+                return;
             } else {
-                // Add new item
-                CartRecord newItem = new CartRecord(userId, bookId, quantity);
-                ((CartDatabase) cartDb).addCartRecord(newItem);
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.print("{\"error\": \"Error adding to cart\"}");
             }
-            
-            cartDb.disconnectDb();
-            out.print("{\"success\": \"Item added to cart\"}");
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print("{\"error\": \"Error adding to cart: " + e.getMessage() + "\"}");
             e.printStackTrace();
+        } finally {
+            cartDb.disconnectDb();
+        }
+    }
+
+    /*
+     * Hold quantity units of a book for this user's cart. Writes a 404 or 409
+     * response and returns false if the book is unknown or other carts already
+     * hold the stock that is left.
+     */
+    private boolean reserveStock(DatabaseInterface db, Integer userId, int bookId, int quantity,
+            HttpServletResponse response, PrintWriter out) {
+        BookRecords book = BookActions.getBookById(db.getConnection(), bookId);
+        if (book == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            out.print("{\"error\": \"Book not found\"}");
+            return false;
         }
+        InventoryReservations reservations = InventoryReservations.getInstance();
+        if (!reservations.reserve(userId, bookId, quantity, book.getQuantityInStock())) {
+            int available = Math.max(0, book.getQuantityInStock() - reservations.heldByOthers(userId, List.of(bookId)).getOrDefault(bookId, 0));
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            out.print("{\"error\": \"Not enough stock available\", \"available\": " + available + "}");
+            return false;
+        }
+        return true;
     }
 
     @Override
@@ -271,14 +319,13 @@ public class CartServlet extends HttpServlet {
             return;
         }
 
+        DatabaseInterface cartDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.CART);
         try {
             String body = request.getReader().lines().collect(Collectors.joining());
             JsonObject requestData = gson.fromJson(body, JsonObject.class);
             int bookId = requestData.get("bookID").getAsInt();
             int quantity = requestData.get("quantity").getAsInt();
             
-            DatabaseInterface cartDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.CART);
-            
             if (!cartDb.connectDb()) {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 out.print("{\"error\": \"Database connection failed\"}");
@@ -287,18 +334,38 @@ public class CartServlet extends HttpServlet {
 
             if (quantity <= 0) {
                 ((CartDatabase) cartDb).deleteCartRecord(userId, bookId);
+                InventoryReservations.getInstance().release(userId, bookId);
                 out.print("{\"success\": \"Item removed from cart\"}");
             } else {
+                // Hold stock for the new quantity while the update has the line locked, so the
+                // hold only changes if the cart does
+                InventoryReservations reservations = InventoryReservations.getInstance();
+                InventoryReservations.Hold previous = reservations.getHold(userId, bookId);
                 CartRecord cartItem = new CartRecord(userId, bookId, quantity);
-                ((CartDatabase) cartDb).updateCartRecord(cartItem);
-                out.print("{\"success\": \"Cart updated\"}");
+                String result = ((CartDatabase) cartDb).updateCartRecord(cartItem,
+                    line -> reserveStock(cartDb, userId, bookId, quantity, response, out));
+
+                if (result.equals("Cart record updated.")) {
+                    out.print("{\"success\": \"Cart updated\"}");
+                } else if (result.equals("Cart record rejected.")) {
+                    // reserveStock has already answered 404 or 409
+                    return;
+                } else if (result.equals("Cart record not found.")) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    out.print("{\"error\": \"Item not in cart\"}");
+                } else {
+                    // The update failed, possibly after the hold was placed
+                    reservations.restore(userId, bookId, previous);
+                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    out.print("{\"error\": \"Error updating cart\"}");
+                }
             }
-            
-            cartDb.disconnectDb();
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print("{\"error\": \"Error updating cart: " + e.getMessage() + "\"}");
             e.printStackTrace();
+        } finally {
+            cartDb.disconnectDb();
         }
     }
 
@@ -317,24 +384,21 @@ public class CartServlet extends HttpServlet {
 
         String path = request.getPathInfo();
         DatabaseInterface cartDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.CART);
-        
-        if (!cartDb.connectDb()) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"error\": \"Database connection failed\"}");
-            return;
-        }
 
         try {
+            if (!cartDb.connectDb()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.print("{\"error\": \"Database connection failed\"}");
+                return;
+            }
+
             if (path == null || path.equals("/")) {
-                // Clear entire cart
-                ((CartDatabase) cartDb).loadResults();
-                List<CartRecord> userItems = ((CartDatabase) cartDb).getResults().stream()
-                    .filter(cart -> cart.getUserID() == userId)
+                // Clear entire cart and give back its stock holds
+                List<Integer> bookIds = ((CartDatabase) cartDb).findByUserID(userId).stream()
+                    .map(CartRecord::getBookID)
                     .collect(Collectors.toList());
-                
-                for (CartRecord item : userItems) {
-                    ((CartDatabase) cartDb).deleteCartRecord(userId, item.getBookID());
-                }
+                ((CartDatabase) cartDb).deleteCartByUserID(userId);
+                InventoryReservations.getInstance().release(userId, bookIds);
                 
                 out.print("{\"success\": \"Cart cleared\"}");
             } else {
@@ -342,14 +406,15 @@ public class CartServlet extends HttpServlet {
                 String bookIdStr = path.substring(1); // Remove leading "/"
                 int bookId = Integer.parseInt(bookIdStr);
                 ((CartDatabase) cartDb).deleteCartRecord(userId, bookId);
+                InventoryReservations.getInstance().release(userId, bookId);
                 out.print("{\"success\": \"Item removed from cart\"}");
             }
-            
-            cartDb.disconnectDb();
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print("{\"error\": \"Error removing from cart: " + e.getMessage() + "\"}");
             e.printStackTrace();
+        } finally {
+            cartDb.disconnectDb();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.bookstore.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Catalog responses kept as ready-to-send bytes, plain and gzipped, for the
+ * current catalog version.
+ *
+ * Entries are keyed by a short name for the view ("all", "featured",
+ * "book:12", ...) together with the catalog version they were built from, so
+ * a body serialized from an older snapshot can never be served for a newer
+ * one. When a request arrives with a newer catalog version every entry is
+ * dropped. ETags are derived from the response bytes, which keeps them valid
+ * across restarts; the gzipped body has its own ETag since it is a different
+ * representation.
+ */
+class CatalogResponseCache {
+
+    static final String CACHE_CONTROL = "public, max-age=30";
+
+    private volatile long version = -1;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    static final class Entry {
+        final byte[] body;
+        final byte[] gzipBody;
+        final String etag;
+        final String gzipEtag;
+
+        private Entry(String json) {
+            this.body = json.getBytes(StandardCharsets.UTF_8);
+            this.gzipBody = gzip(body);
+            String hash = digest(body);
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gz\"";
+        }
+    }
+
+    /**
+     * Encoded response for one view at a catalog version, serializing it only on first use
+     * @param catalogVersion version of the snapshot the JSON comes from
+     * @param key view name, unique per distinct response body
+     * @param json produces the JSON text when the view is not cached yet
+     */
+    Entry get(long catalogVersion, String key, Supplier<String> json) {
+        long current = version;
+        if (catalogVersion > current) {
+            synchronized (this) {
+                if (catalogVersion > version) {
+                    entries.clear();
+                    version = catalogVersion;
+                }
+            }
+        } else if (catalogVersion < current) {
+            // A request still holding an older snapshot; answer it but do not cache
+            return new Entry(json.get());
+        }
+        String versionedKey = catalogVersion + "/" + key;
+        Entry entry = entries.computeIfAbsent(versionedKey, k -> new Entry(json.get()));
+        if (version != catalogVersion) {
+            // A newer version arrived while this one was being built; do not keep it around
+            entries.remove(versionedKey, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Write an entry, or 304 if the client already has it
+     */
+    static void send(HttpServletRequest req, HttpServletResponse resp, Entry entry) throws IOException {
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        String etag = gzip ? entry.gzipEtag : entry.etag;
+
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Cache-Control", CACHE_CONTROL);
+        resp.setHeader("Vary", "Accept-Encoding");
+
+        if (matches(req.getHeader("If-None-Match"), etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] payload = entry.body;
+        if (gzip) {
+            resp.setHeader("Content-Encoding", "gzip");
+            payload = entry.gzipBody;
+        }
+        resp.setContentLength(payload.length);
+        OutputStream out = resp.getOutputStream();
+        out.write(payload);
+        out.flush();
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // If-None-Match uses weak comparison
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException("gzip of an in-memory buffer failed", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String digest(byte[] body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder hex = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
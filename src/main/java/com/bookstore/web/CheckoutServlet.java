@@ -10,8 +10,12 @@
  *    Requires: Active session
  * 
  *  POST /api/checkout/process
- *    Body: {cartItems: array, paymentInfo: object, billingAddress: object, shippingAddress: object}
- *    Action: Processes checkout and sends confirmation email
+ *    Body: {cartItems: array, paymentInfo: object, billingAddress: object, shippingAddress: object,
+ *           appliedPromo: {promoCode} (or promoCode: string)}
+ *    Action: Prices the cart on the server; the confirmation email is sent by POST /api/orders
+ *            once the order is saved
+ *    Returns: {success, message, subtotal, discount, total}
+ *             400 if the promo code is unknown or expired, 404 {error, bookIDs} for unknown books
  *    Requires: Active session
  */
 
@@ -21,7 +25,6 @@ import com.bookstore.db.*;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;import com.bookstore.records.*;
 import com.bookstore.Email;
-import com.bookstore.SecUtils;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonArray;
@@ -37,6 +40,9 @@ import java.io.PrintWriter;
 import java.util.stream.Collectors;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class CheckoutServlet extends HttpServlet {
     private final Gson gson = new Gson();
@@ -50,6 +56,20 @@ public class CheckoutServlet extends HttpServlet {
         response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
     }
 
+    // Promo code from {promoCode: "..."} or the applied promotion object {appliedPromo: {promoCode: "..."}}
+    private static String promoCodeOf(JsonObject requestData) {
+        if (requestData.has("promoCode") && !requestData.get("promoCode").isJsonNull()) {
+            return requestData.get("promoCode").getAsString();
+        }
+        if (requestData.has("appliedPromo") && requestData.get("appliedPromo").isJsonObject()) {
+            JsonObject appliedPromo = requestData.getAsJsonObject("appliedPromo");
+            if (appliedPromo.has("promoCode") && !appliedPromo.get("promoCode").isJsonNull()) {
+                return appliedPromo.get("promoCode").getAsString();
+            }
+        }
+        return null;
+    }
+
     @Override
     protected void doOptions(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
@@ -84,34 +104,49 @@ public class CheckoutServlet extends HttpServlet {
             return;
         }
 
+        // Get user's stored payment cards, billing addresses, and shipping addresses.
+        // Each is read on its own connection in turn, so the request never holds more than one
         try {
- 
-            // Get user's stored payment cards, billing addresses, and shipping addresses
+            ArrayList<PaymentCardRecords> paymentCards;
             DatabaseInterface cardDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.PAYMENT_CARD);
-            DatabaseInterface billingDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.BILLING_ADDRESS);
-            DatabaseInterface shippingDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.SHIPPING_ADDRESS);
-            DatabaseInterface userDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
+            try {
+                if (!cardDb.connectDb()) {
+                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    out.print("{\"error\": \"Database connection failed\"}");
+                    return;
+                }
+                paymentCards = ((PaymentCardDatabase) cardDb).getCardsByUserID(userId);
+            } finally {
+                cardDb.disconnectDb();
+            }
 
- 
-            
-            if (!cardDb.connectDb() || !billingDb.connectDb() || !shippingDb.connectDb() || !userDb.connectDb()) {
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"error\": \"Database connection failed\"}");
-                return;
+            ArrayList<ShippingAddressRecords> shippingAddresses;
+            DatabaseInterface shippingDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.SHIPPING_ADDRESS);
+            try {
+                if (!shippingDb.connectDb()) {
+                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    out.print("{\"error\": \"Database connection failed\"}");
+                    return;
+                }
+                shippingAddresses = ((ShippingAddressDatabase) shippingDb).getAddressesByUserID(userId);
+            } finally {
+                shippingDb.disconnectDb();
             }
 
- 
-            // Get user's payment cards
-            ArrayList<PaymentCardRecords> paymentCards = ((PaymentCardDatabase) cardDb).getCardsByUserID(userId);
-            
-            // Get user's shipping addresses
-            ArrayList<ShippingAddressRecords> shippingAddresses = ((ShippingAddressDatabase) shippingDb).getAddressesByUserID(userId);
-            
             // Get all billing addresses (cards reference billing addresses by ID)
-            ArrayList<BillingAddressRecords> allBillingAddresses = ((BillingAddressDatabase) billingDb).getAllAddresses();
+            ArrayList<BillingAddressRecords> allBillingAddresses;
+            DatabaseInterface billingDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.BILLING_ADDRESS);
+            try {
+                if (!billingDb.connectDb()) {
+                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    out.print("{\"error\": \"Database connection failed\"}");
+                    return;
+                }
+                allBillingAddresses = ((BillingAddressDatabase) billingDb).getAllAddresses();
+            } finally {
+                billingDb.disconnectDb();
+            }
 
-            
-            
             JsonObject responseObj = new JsonObject();
             JsonArray paymentCardsArray = new JsonArray();
             JsonArray shippingAddressesArray = new JsonArray();
@@ -154,11 +189,6 @@ public class CheckoutServlet extends HttpServlet {
             
             out.print(gson.toJson(responseObj));
             
-            cardDb.disconnectDb();
-            billingDb.disconnectDb();
-            shippingDb.disconnectDb();
-            userDb.disconnectDb();
-            
         } catch (Exception e) {
             e.printStackTrace();
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -192,125 +222,150 @@ public class CheckoutServlet extends HttpServlet {
             JsonObject requestData = gson.fromJson(body, JsonObject.class);
 
             JsonArray cartItems = requestData.getAsJsonArray("cartItems");
-            JsonObject paymentInfo = requestData.getAsJsonObject("paymentInfo");
-            JsonObject billingAddress = requestData.getAsJsonObject("billingAddress");
-            JsonObject shippingAddress = requestData.has("shippingAddress") ? requestData.getAsJsonObject("shippingAddress") : null;
-            double totalAmount = requestData.get("totalAmount").getAsDouble();
- 
-            
-            // Get user information for email
-            DatabaseInterface userDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
 
-
-            if (!userDb.connectDb()) {
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"error\": \"Database connection failed\"}");
-                return;
+            // Price the cart on the server; any totalAmount sent by the client is ignored
+            Map<Integer, Integer> quantities = new LinkedHashMap<>();
+            for (JsonElement item : cartItems) {
+                JsonObject itemObj = item.getAsJsonObject();
+                quantities.merge(itemObj.get("id").getAsInt(), itemObj.get("quantity").getAsInt(), Integer::sum);
             }
- 
-            
-            UserRecords user = SecUtils.findUserByID((UserDatabase) userDb, userId);
-
-            if (user == null) {
+            PricingEngine.PriceQuote quote;
+            try {
+                quote = PricingEngine.quote(quantities, promoCodeOf(requestData), null);
+            } catch (InvalidPromotionException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print("{\"error\": \"Invalid or expired promo code\"}");
+                return;
+            } catch (IllegalArgumentException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print("{\"error\": \"" + e.getMessage() + "\"}");
+                return;
+            } catch (BookNotFoundException e) {
+                JsonObject errorObj = new JsonObject();
+                errorObj.addProperty("error", e.getMessage());
+                errorObj.add("bookIDs", gson.toJsonTree(e.getBookIDs()));
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                out.print("{\"error\": \"User not found\"}");
-                userDb.disconnectDb();
+                out.print(gson.toJson(errorObj));
                 return;
             }
 
-            StringBuilder orderDetails = new StringBuilder();
-            for (JsonElement item : cartItems) {
-                JsonObject itemObj = item.getAsJsonObject();
-                orderDetails.append("- ").append(itemObj.get("title").getAsString())
-                           .append(" x ").append(itemObj.get("quantity").getAsInt())
-                           .append(" - $").append(String.format("%.2f", itemObj.get("sellingPrice").getAsDouble() * itemObj.get("quantity").getAsInt()))
-                           .append("\n");
-            }
-
-            // ----------- FIXED payment info parsing -----------
-            String paymentInfoStr = "";
-            String billingAddressStr = "";
+            JsonObject responseObj = new JsonObject();
+            responseObj.addProperty("success", true);
+            responseObj.addProperty("subtotal", quote.getSubtotal());
+            responseObj.addProperty("discount", quote.getDiscount());
+            responseObj.addProperty("total", quote.getTotal());
+            responseObj.addProperty("message", "Order processed successfully");
 
-            if (paymentInfo.has("cardID")) {
-                String maskedCardNo = paymentInfo.has("maskedCardNo")
-                    ? paymentInfo.get("maskedCardNo").getAsString()
-                    : "**** **** **** ";
-                String type = paymentInfo.has("type") ? paymentInfo.get("type").getAsString() : "";
-                String expirationDate = paymentInfo.has("expirationDate") ? paymentInfo.get("expirationDate").getAsString() : "";
+            out.print(gson.toJson(responseObj));
 
-                paymentInfoStr = "Card: " + maskedCardNo +
-                                 "\nType: " + type +
-                                 "\nExpiry: " + expirationDate;
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print("{\"error\": \"Failed to process checkout: " + e.getMessage() + "\"}");
+        }
+    }
 
-                if (billingAddress != null) {
-                    String billingStreet = billingAddress.get("street").getAsString();
-                    String billingCity = billingAddress.get("city").getAsString();
-                    String billingState = billingAddress.get("state").getAsString();
-                    String billingZipCode = billingAddress.get("zipCode").getAsString();
-                    billingAddressStr = billingStreet + "\n" +
-                                        billingCity + ", " +
-                                        billingState + " " +
-                                        billingZipCode;
-                }
-            } else if (paymentInfo.has("cardNumber")) {
-                String cardNo = paymentInfo.get("cardNumber").getAsString().replaceAll("\\s", "");
-                String maskedCardNo = "**** **** **** " + cardNo.substring(Math.max(0, cardNo.length() - 4));
-                String cardType = paymentInfo.get("cardType").getAsString();
-                String expirationDate = paymentInfo.get("expirationDate").getAsString();
-                paymentInfoStr = "Card: " + maskedCardNo +
-                                 "\nType: " + cardType +
-                                 "\nExpiry: " + expirationDate;
+    /*
+     * Build the order confirmation email for a priced cart from the payment, billing and
+     * shipping details of a checkout request body. Titles the client sent stand in for
+     * books the quote has no title for. OrdersServlet adds it to the outbox in the order's
+     * own transaction, so it is only sent for an order that was saved.
+     */
+    static EmailOutboxRecords orderConfirmationEmail(UserRecords user, PricingEngine.PriceQuote quote,
+                                                     JsonObject requestData) {
+        JsonObject paymentInfo = requestData.has("paymentInfo") && requestData.get("paymentInfo").isJsonObject()
+            ? requestData.getAsJsonObject("paymentInfo") : new JsonObject();
+        JsonObject billingAddress = requestData.has("billingAddress") && requestData.get("billingAddress").isJsonObject()
+            ? requestData.getAsJsonObject("billingAddress") : null;
+        JsonObject shippingAddress = requestData.has("shippingAddress") && requestData.get("shippingAddress").isJsonObject()
+            ? requestData.getAsJsonObject("shippingAddress") : null;
 
-                if (billingAddress != null) {
-                    String billingStreet = billingAddress.get("street").getAsString();
-                    String billingCity = billingAddress.get("city").getAsString();
-                    String billingState = billingAddress.get("state").getAsString();
-                    String billingZipCode = billingAddress.get("zipCode").getAsString();
-                    billingAddressStr = billingStreet + "\n" +
-                                        billingCity + ", " +
-                                        billingState + " " +
-                                        billingZipCode;
+        Map<Integer, String> titles = new HashMap<>();
+        if (requestData.has("cartItems")) {
+            for (JsonElement item : requestData.getAsJsonArray("cartItems")) {
+                JsonObject itemObj = item.getAsJsonObject();
+                if (itemObj.has("title") && !itemObj.get("title").isJsonNull()) {
+                    titles.putIfAbsent(itemObj.get("id").getAsInt(), itemObj.get("title").getAsString());
                 }
-            } else {
-                paymentInfoStr = "Unknown payment info format";
-                billingAddressStr = "";
             }
+        }
 
-            String shippingAddressStr = "";
-            if (shippingAddress != null) {
-                String shippingStreet = shippingAddress.get("street").getAsString();
-                String shippingCity = shippingAddress.get("city").getAsString();
-                String shippingState = shippingAddress.get("state").getAsString();
-                String shippingZipCode = shippingAddress.get("zipCode").getAsString();
-                shippingAddressStr = shippingStreet + "\n" +
-                                      shippingCity + ", " +
-                                      shippingState + " " +
-                                      shippingZipCode;
-            }
+        StringBuilder orderDetails = new StringBuilder();
+        for (PricingEngine.Line line : quote.getLines()) {
+            String title = line.getTitle() != null ? line.getTitle() : titles.getOrDefault(line.getBookID(), "Book #" + line.getBookID());
+            orderDetails.append("- ").append(title)
+                       .append(" x ").append(line.getQuantity())
+                       .append(" - $").append(String.format("%.2f", line.getLineTotal()))
+                       .append("\n");
+        }
+        if (quote.getPromotion() != null) {
+            orderDetails.append("- Promotion ").append(quote.getPromotion().getPromoCode())
+                       .append(" - -$").append(String.format("%.2f", quote.getDiscount()))
+                       .append("\n");
+        }
 
-            boolean emailSent = Email.sendOrderConfirmationEmail(
-                user.getEmail(),
-                user.getFirstName(),
-                orderDetails.toString(),
-                paymentInfoStr,
-                billingAddressStr,
-                shippingAddressStr,
-                totalAmount
-            );
+        // ----------- FIXED payment info parsing -----------
+        String paymentInfoStr = "";
+        String billingAddressStr = "";
 
-            JsonObject responseObj = new JsonObject();
-            responseObj.addProperty("success", true);
-            responseObj.addProperty("emailSent", emailSent);
-            responseObj.addProperty("message", "Order processed successfully");
+        if (paymentInfo.has("cardID")) {
+            String maskedCardNo = paymentInfo.has("maskedCardNo")
+                ? paymentInfo.get("maskedCardNo").getAsString()
+                : "**** **** **** ";
+            String type = paymentInfo.has("type") ? paymentInfo.get("type").getAsString() : "";
+            String expirationDate = paymentInfo.has("expirationDate") ? paymentInfo.get("expirationDate").getAsString() : "";
 
-            out.print(gson.toJson(responseObj));
+            paymentInfoStr = "Card: " + maskedCardNo +
+                             "\nType: " + type +
+                             "\nExpiry: " + expirationDate;
 
-            userDb.disconnectDb();
+            if (billingAddress != null) {
+                String billingStreet = billingAddress.get("street").getAsString();
+                String billingCity = billingAddress.get("city").getAsString();
+                String billingState = billingAddress.get("state").getAsString();
+                String billingZipCode = billingAddress.get("zipCode").getAsString();
+                billingAddressStr = billingStreet + "\n" +
+                                    billingCity + ", " +
+                                    billingState + " " +
+                                    billingZipCode;
+            }
+        } else if (paymentInfo.has("cardNumber")) {
+            String cardNo = paymentInfo.get("cardNumber").getAsString().replaceAll("\\s", "");
+            String maskedCardNo = "**** **** **** " + cardNo.substring(Math.max(0, cardNo.length() - 4));
+            String cardType = paymentInfo.get("cardType").getAsString();
+            String expirationDate = paymentInfo.get("expirationDate").getAsString();
+            paymentInfoStr = "Card: " + maskedCardNo +
+                             "\nType: " + cardType +
+                             "\nExpiry: " + expirationDate;
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"error\": \"Failed to process checkout: " + e.getMessage() + "\"}");
+            if (billingAddress != null) {
+                String billingStreet = billingAddress.get("street").getAsString();
+                String billingCity = billingAddress.get("city").getAsString();
+                String billingState = billingAddress.get("state").getAsString();
+                String billingZipCode = billingAddress.get("zipCode").getAsString();
+                billingAddressStr = billingStreet + "\n" +
+                                    billingCity + ", " +
+                                    billingState + " " +
+                                    billingZipCode;
+            }
+        } else {
+            paymentInfoStr = "Unknown payment info format";
+            billingAddressStr = "";
         }
+
+        String shippingAddressStr = "";
+        if (shippingAddress != null) {
+            String shippingStreet = shippingAddress.get("street").getAsString();
+            String shippingCity = shippingAddress.get("city").getAsString();
+            String shippingState = shippingAddress.get("state").getAsString();
+            String shippingZipCode = shippingAddress.get("zipCode").getAsString();
+            shippingAddressStr = shippingStreet + "\n" +
+                                  shippingCity + ", " +
+                                  shippingState + " " +
+                                  shippingZipCode;
+        }
+
+        return Email.orderConfirmationEmail(user.getEmail(), user.getFirstName(),
+            orderDetails.toString(), paymentInfoStr, billingAddressStr, shippingAddressStr, quote.getTotal());
     }
 }
\ No newline at end of file
@@ -25,6 +25,7 @@ import com.bookstore.db.ShippingAddressDatabase;
 import com.bookstore.records.ShippingAddressRecords;
 import com.bookstore.SecUtils;
 import com.bookstore.Email;
+import com.bookstore.EmailDispatcher;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;
 
@@ -123,38 +124,43 @@ public class EditUserServlet extends HttpServlet {
             DatabaseInterface billingDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.BILLING_ADDRESS);
             DatabaseInterface cardDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.PAYMENT_CARD);
             DatabaseInterface shippingDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.SHIPPING_ADDRESS);
-            userDb.connectDb();
-            billingDb.connectDb();
-            cardDb.connectDb();
-            shippingDb.connectDb();
-            ((PaymentCardDatabase) cardDb).loadResults(); // <-- Load payment cards from DB
-            UserRecords user = com.bookstore.SecUtils.findUserByID((UserDatabase) userDb, userID);
-            // Get all billing addresses referenced by user's payment cards (direct mapping, DB fetch)
+            UserRecords user;
             java.util.List<com.bookstore.records.BillingAddressRecords> billingAddresses = new java.util.ArrayList<>();
-            java.util.Set<Integer> addedBillingAddressIDs = new java.util.HashSet<>();
-            for (com.bookstore.records.PaymentCardRecords card : ((PaymentCardDatabase) cardDb).getResults()) {
-                if (card.getUserID() == userID) {
-                    int billingAddressID = card.getBillingAddressID();
-                    if (!addedBillingAddressIDs.contains(billingAddressID)) {
-                        com.bookstore.records.BillingAddressRecords addr = ((BillingAddressDatabase) billingDb).findByAddressID(billingAddressID);
-                        if (addr != null) {
-                            billingAddresses.add(addr);
-                            addedBillingAddressIDs.add(billingAddressID);
+            java.util.List<com.bookstore.records.PaymentCardRecords> paymentCards = new java.util.ArrayList<>();
+            com.bookstore.records.ShippingAddressRecords shippingAddress;
+            try {
+                userDb.connectDb();
+                billingDb.connectDb();
+                cardDb.connectDb();
+                shippingDb.connectDb();
+                ((PaymentCardDatabase) cardDb).loadResults(); // <-- Load payment cards from DB
+                user = com.bookstore.SecUtils.findUserByID((UserDatabase) userDb, userID);
+                // Get all billing addresses referenced by user's payment cards (direct mapping, DB fetch)
+                java.util.Set<Integer> addedBillingAddressIDs = new java.util.HashSet<>();
+                for (com.bookstore.records.PaymentCardRecords card : ((PaymentCardDatabase) cardDb).getResults()) {
+                    if (card.getUserID() == userID) {
+                        int billingAddressID = card.getBillingAddressID();
+                        if (!addedBillingAddressIDs.contains(billingAddressID)) {
+                            com.bookstore.records.BillingAddressRecords addr = ((BillingAddressDatabase) billingDb).findByAddressID(billingAddressID);
+                            if (addr != null) {
+                                billingAddresses.add(addr);
+                                addedBillingAddressIDs.add(billingAddressID);
+                            }
                         }
                     }
                 }
+                // Get all payment cards for user
+                for (com.bookstore.records.PaymentCardRecords card : ((PaymentCardDatabase) cardDb).getResults()) {
+                    if (card.getUserID() == userID) paymentCards.add(card);
+                }
+                // Get shipping address
+                shippingAddress = ((ShippingAddressDatabase) shippingDb).findFirstByUserID(userID);
+            } finally {
+                userDb.disconnectDb();
+                billingDb.disconnectDb();
+                cardDb.disconnectDb();
+                shippingDb.disconnectDb();
             }
-            // Get all payment cards for user
-            java.util.List<com.bookstore.records.PaymentCardRecords> paymentCards = new java.util.ArrayList<>();
-            for (com.bookstore.records.PaymentCardRecords card : ((PaymentCardDatabase) cardDb).getResults()) {
-                if (card.getUserID() == userID) paymentCards.add(card);
-            }
-            userDb.disconnectDb();
-            billingDb.disconnectDb();
-            cardDb.disconnectDb();
-            // Get shipping address
-            com.bookstore.records.ShippingAddressRecords shippingAddress = ((ShippingAddressDatabase) shippingDb).findFirstByUserID(userID);
-            shippingDb.disconnectDb();
             if (user == null) {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 jsonResponse.addProperty("error", "User not found");
@@ -233,21 +239,21 @@ public class EditUserServlet extends HttpServlet {
         String lastName = req.get("lastName").getAsString();
         
         DatabaseInterface db = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
-        db.connectDb();
-        String result = updateUserName((UserDatabase) db, userID, firstName, lastName);
+        String result;
+        try {
+            db.connectDb();
+            result = updateUserName((UserDatabase) db, userID, firstName, lastName);
+        } finally {
+            db.disconnectDb();
+        }
         
         // Send email notification if update was successful
         if (result.contains("successfully")) {
-            try {
-                Email.sendProfileChangeNotification(userID);
-            } catch (Exception e) {
-                // Log error but don't fail the request
-                System.err.println("Failed to send email notification: " + e.getMessage());
-            }
+            // Sent by an email worker thread; a full queue is logged, not a request failure
+            EmailDispatcher.getInstance().submit("profile change notification for user " + userID,
+                () -> Email.sendProfileChangeNotification(userID));
         }
         
-        db.disconnectDb();
-        
         res.addProperty("message", result);
     }
 
@@ -258,9 +264,13 @@ public class EditUserServlet extends HttpServlet {
         String state = req.get("state").getAsString();
         String zipCode = req.get("zipCode").getAsString();
         BillingAddressDatabase db = new BillingAddressDatabase();
-        db.connectDb();
-        String result = updateBillingAddress(db, addressID, street, city, state, zipCode);
-        db.disconnectDb();
+        String result;
+        try {
+            db.connectDb();
+            result = updateBillingAddress(db, addressID, street, city, state, zipCode);
+        } finally {
+            db.disconnectDb();
+        }
         res.addProperty("message", result);
     }
 
@@ -273,20 +283,20 @@ public class EditUserServlet extends HttpServlet {
         int billingAddressID = req.get("billingAddressID").getAsInt();
 
         PaymentCardDatabase db = new PaymentCardDatabase();
-        db.connectDb();
-        String result = updatePaymentCard(db, userID, cardID, cardNo, type, expirationDate, billingAddressID);
+        String result;
+        try {
+            db.connectDb();
+            result = updatePaymentCard(db, userID, cardID, cardNo, type, expirationDate, billingAddressID);
+        } finally {
+            db.disconnectDb();
+        }
         
         // Send email notification if update was successful
         if (result.contains("successfully")) {
-            try {
-                Email.sendProfileChangeNotification(userID);
-            } catch (Exception e) {
-                // Log error but don't fail the request
-                System.err.println("Failed to send email notification: " + e.getMessage());
-            }
+            // Sent by an email worker thread; a full queue is logged, not a request failure
+            EmailDispatcher.getInstance().submit("profile change notification for user " + userID,
+                () -> Email.sendProfileChangeNotification(userID));
         }
-        
-        db.disconnectDb();
 
         res.addProperty("message", result);
     }
@@ -303,20 +313,20 @@ public class EditUserServlet extends HttpServlet {
         String newPassword = req.get("newPassword").getAsString();
 
         DatabaseInterface db = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
-        db.connectDb();
-        String result = SecUtils.updatePassword((UserDatabase) db, userID, currentPassword, newPassword);
+        String result;
+        try {
+            db.connectDb();
+            result = SecUtils.updatePassword((UserDatabase) db, userID, currentPassword, newPassword);
+        } finally {
+            db.disconnectDb();
+        }
         
         // Send email notification if update was successful
         if (result.contains("successfully")) {
-            try {
-                Email.sendProfileChangeNotification(userID);
-            } catch (Exception e) {
-                // Log error but don't fail the request
-                System.err.println("Failed to send email notification: " + e.getMessage());
-            }
+            // Sent by an email worker thread; a full queue is logged, not a request failure
+            EmailDispatcher.getInstance().submit("profile change notification for user " + userID,
+                () -> Email.sendProfileChangeNotification(userID));
         }
-        
-        db.disconnectDb();
 
         res.addProperty("message", result);
     }
@@ -325,13 +335,12 @@ public class EditUserServlet extends HttpServlet {
         int userID = req.get("userID").getAsInt();
         boolean enrollForPromotions = req.get("enrollForPromotions").getAsBoolean();
         DatabaseInterface db = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
-        db.connectDb();
         String result;
         try {
+            db.connectDb();
             UserRecords user = com.bookstore.SecUtils.findUserByID((UserDatabase) db, userID);
             if (user == null) {
                 res.addProperty("error", "User not found");
-                db.disconnectDb();
                 return;
             }
             user.setEnrollForPromotions(enrollForPromotions);
@@ -343,8 +352,9 @@ public class EditUserServlet extends HttpServlet {
             }
         } catch (Exception e) {
             result = "Error updating promotions: " + e.getMessage();
+        } finally {
+            db.disconnectDb();
         }
-        db.disconnectDb();
         res.addProperty("message", result);
     }
 
@@ -360,9 +370,13 @@ public class EditUserServlet extends HttpServlet {
         System.out.println("DEBUG: Address details - street: " + street + ", city: " + city + ", state: " + state + ", zipCode: " + zipCode);
 
         ShippingAddressDatabase db = new ShippingAddressDatabase();
-        db.connectDb();
-        String result = updateShippingAddress(db, userID, addressID, street, city, state, zipCode);
-        db.disconnectDb();
+        String result;
+        try {
+            db.connectDb();
+            result = updateShippingAddress(db, userID, addressID, street, city, state, zipCode);
+        } finally {
+            db.disconnectDb();
+        }
         
         System.out.println("DEBUG: updateShipping result: " + result);
         res.addProperty("message", result);
@@ -433,9 +447,13 @@ public class EditUserServlet extends HttpServlet {
         }
         int cardID = req.get("cardID").getAsInt();
         PaymentCardDatabase db = new PaymentCardDatabase();
-        db.connectDb();
-        String result = db.deleteCard(cardID);
-        db.disconnectDb();
+        String result;
+        try {
+            db.connectDb();
+            result = db.deleteCard(cardID);
+        } finally {
+            db.disconnectDb();
+        }
         res.addProperty("message", result);
     }
 
@@ -448,9 +466,13 @@ public class EditUserServlet extends HttpServlet {
             String zipCode = req.get("zipCode").getAsString();
 
             ShippingAddressDatabase db = new ShippingAddressDatabase();
-            db.connectDb();
-            int newAddressID = db.insertAddress(userID, street, city, state, zipCode);
-            db.disconnectDb();
+            int newAddressID;
+            try {
+                db.connectDb();
+                newAddressID = db.insertAddress(userID, street, city, state, zipCode);
+            } finally {
+                db.disconnectDb();
+            }
 
             if (newAddressID > 0) {
                 res.addProperty("message", "Shipping address added successfully.");
@@ -21,8 +21,6 @@ import com.bookstore.db.DatabaseInterface;
  * Method: GET
  */
 public class EmailVerificationServlet extends HttpServlet {
-    private VerificationTokenDatabase tokenDB = new VerificationTokenDatabase();
-    private DatabaseInterface userDB = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
     private Gson gson = new Gson();
 
     @Override
@@ -32,6 +30,9 @@ public class EmailVerificationServlet extends HttpServlet {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         
+        // One pair of connections per request, returned in the finally block
+        VerificationTokenDatabase tokenDB = new VerificationTokenDatabase();
+        DatabaseInterface userDB = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
         try {
             // Get the verification token from the request
             String token = request.getParameter("token");
@@ -49,7 +50,6 @@ public class EmailVerificationServlet extends HttpServlet {
             
             // Validate the token
             if (!tokenDB.isTokenValid(token)) {
-                tokenDB.disconnectDb();
                 sendErrorResponse(response, 400, "Invalid or expired verification token");
                 return;
             }
@@ -57,7 +57,6 @@ public class EmailVerificationServlet extends HttpServlet {
             // Get the token record
             VerificationTokenRecords tokenRecord = tokenDB.findTokenByToken(token);
             if (tokenRecord == null) {
-                tokenDB.disconnectDb();
                 sendErrorResponse(response, 400, "Verification token not found");
                 return;
             }
@@ -66,7 +65,6 @@ public class EmailVerificationServlet extends HttpServlet {
             
             // Connect to user database
             if (!userDB.connectDb()) {
-                tokenDB.disconnectDb();
                 sendErrorResponse(response, 500, "Failed to connect to user database");
                 return;
             }
@@ -74,16 +72,12 @@ public class EmailVerificationServlet extends HttpServlet {
             // Get the user record
             UserRecords user = SecUtils.findUserForVerification((UserDatabase) userDB, userId);
             if (user == null) {
-                tokenDB.disconnectDb();
-                userDB.disconnectDb();
                 sendErrorResponse(response, 400, "User not found");
                 return;
             }
             
             // Check if user is already active
             if ("active".equals(user.getStatus())) {
-                tokenDB.disconnectDb();
-                userDB.disconnectDb();
                 sendErrorResponse(response, 400, "Account is already activated");
                 return;
             }
@@ -103,8 +97,6 @@ public class EmailVerificationServlet extends HttpServlet {
             
             String updateResult = ((UserDatabase) userDB).updateUser(updatedUser);
             if (!updateResult.contains("Updated")) {
-                tokenDB.disconnectDb();
-                userDB.disconnectDb();
                 sendErrorResponse(response, 500, "Failed to activate account: " + updateResult);
                 return;
             }
@@ -115,10 +107,6 @@ public class EmailVerificationServlet extends HttpServlet {
             // Clean up expired tokens
             tokenDB.deleteExpiredTokens();
             
-            // Disconnect from databases
-            tokenDB.disconnectDb();
-            userDB.disconnectDb();
-            
             jakarta.servlet.http.HttpSession session = request.getSession(true);
             session.setAttribute("userID", user.getUserID());
             session.setAttribute("user_email", user.getEmail());
@@ -134,6 +122,9 @@ public class EmailVerificationServlet extends HttpServlet {
         } catch (Exception e) {
             e.printStackTrace();
             sendErrorResponse(response, 500, "Internal server error: " + e.getMessage());
+        } finally {
+            tokenDB.disconnectDb();
+            userDB.disconnectDb();
         }
     }
     
@@ -7,6 +7,8 @@
  *  - GET /api/auth/check-session: Checks if a valid session exists for the user.
  *  Supports loging via either providing both email and password
  *  or just providing userID
+ *  Email logins check the password on the PasswordHasher pool and answer
+ *  asynchronously; 503 with Retry-After when that pool is full
  */
 
 package com.bookstore.web;
@@ -45,7 +47,12 @@ public class LoginServlet extends HttpServlet {
             JsonObject req = gson.fromJson(body, JsonObject.class);
             
             switch (path) {
-                case "/login": login(request, req, json, response); break;
+                case "/login":
+                    if (login(request, req, json, response)) {
+                        // Answered asynchronously once the password is checked
+                        return;
+                    }
+                    break;
                 case "/logout": logout(request, json); break;
                 default:
                     response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -92,7 +99,12 @@ public class LoginServlet extends HttpServlet {
         response.setHeader("Access-Control-Allow-Credentials", "true");
     }
     
-    private void login(HttpServletRequest request, JsonObject req, 
+    /**
+     * Log in by Account ID, or by email and password
+     * @return true if the password check was handed to the hashing pool, in which case
+     *         the response is written there and json is unused
+     */
+    private boolean login(HttpServletRequest request, JsonObject req, 
                       JsonObject json, HttpServletResponse response) {
         
         String identifier = null;
@@ -108,7 +120,7 @@ public class LoginServlet extends HttpServlet {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             json.addProperty("success", false);
             json.addProperty("error", "Email or Account ID is required");
-            return;
+            return false;
         }
         
         boolean isAccountId = identifier.trim().matches("\\d+");
@@ -116,7 +128,7 @@ public class LoginServlet extends HttpServlet {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             json.addProperty("success", false);
             json.addProperty("error", "Password is required for email login");
-            return;
+            return false;
         }
         
         DatabaseInterface db = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
@@ -126,54 +138,25 @@ public class LoginServlet extends HttpServlet {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 json.addProperty("success", false);
                 json.addProperty("error", "Database connection failed");
-                return;
+                return false;
             }
             
             UserRecords user = SecUtils.findUserForLoginFlexible((UserDatabase) db, identifier);
             
-            boolean authenticated = false;
-            if (user != null) {
-                if (isAccountId) {
-                    // Login by Account ID (loginUserID), no password required
-                    authenticated = true;
-                } else if (SecUtils.verifyPassword(password, user.getPassword())) {
-                    // Login by email + password
-                    authenticated = true;
-                }
+            if (user != null && !isAccountId) {
+                // Login by email + password; BCrypt runs on the hashing pool, the
+                // database connection is released by the finally block meanwhile
+                PasswordHashing.run(request, response, hasher -> hasher.verify(password, user.getPassword()),
+                        matched -> {
+                            JsonObject result = new JsonObject();
+                            completeLogin(request, response, result, user, matched, false);
+                            response.getWriter().print(gson.toJson(result));
+                        });
+                return true;
             }
             
-            if (authenticated) {
-                String role = SecUtils.getUserRoleName(user.getUserTypeID());
-                String name = user.getFirstName() + " " + user.getLastName();
-                
-                HttpSession session = request.getSession(true);
-                session.setAttribute("userID", user.getUserID());
-                session.setAttribute("user_email", user.getEmail());
-                session.setAttribute("user_name", name);
-                session.setAttribute("user_role", role.toLowerCase());
-                session.setMaxInactiveInterval(30 * 60);
-                
-                json.addProperty("success", true);
-                json.addProperty("message", "Login successful");
-                json.addProperty("user_id", user.getUserID());
-                json.addProperty("user_name", name);
-                json.addProperty("user_email", user.getEmail());
-                json.addProperty("user_role", role.toLowerCase());
-            } else {
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-                json.addProperty("success", false);
-
-                if (isAccountId) {
-                    json.addProperty("errorType", "account");
-                    json.addProperty("error", "Invalid Account ID");
-                } else if (user == null) {
-                    json.addProperty("errorType", "both");
-                    json.addProperty("error", "Invalid email and password. Please enter valid credentials.");
-                } else {
-                    json.addProperty("errorType", "password");
-                    json.addProperty("error", "Invalid password. Please try again or reset your password.");
-                }
-            }
+            // Login by Account ID (loginUserID), no password required
+            completeLogin(request, response, json, user, user != null, isAccountId);
             
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -182,6 +165,43 @@ public class LoginServlet extends HttpServlet {
         } finally {
             db.disconnectDb();
         }
+        return false;
+    }
+    
+    private void completeLogin(HttpServletRequest request, HttpServletResponse response, JsonObject json,
+                               UserRecords user, boolean authenticated, boolean isAccountId) {
+        if (authenticated) {
+            String role = SecUtils.getUserRoleName(user.getUserTypeID());
+            String name = user.getFirstName() + " " + user.getLastName();
+            
+            HttpSession session = request.getSession(true);
+            session.setAttribute("userID", user.getUserID());
+            session.setAttribute("user_email", user.getEmail());
+            session.setAttribute("user_name", name);
+            session.setAttribute("user_role", role.toLowerCase());
+            session.setMaxInactiveInterval(30 * 60);
+            
+            json.addProperty("success", true);
+            json.addProperty("message", "Login successful");
+            json.addProperty("user_id", user.getUserID());
+            json.addProperty("user_name", name);
+            json.addProperty("user_email", user.getEmail());
+            json.addProperty("user_role", role.toLowerCase());
+        } else {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            json.addProperty("success", false);
+
+            if (isAccountId) {
+                json.addProperty("errorType", "account");
+                json.addProperty("error", "Invalid Account ID");
+            } else if (user == null) {
+                json.addProperty("errorType", "both");
+                json.addProperty("error", "Invalid email and password. Please enter valid credentials.");
+            } else {
+                json.addProperty("errorType", "password");
+                json.addProperty("error", "Invalid password. Please try again or reset your password.");
+            }
+        }
     }
     
     private void logout(HttpServletRequest request, JsonObject json) {
@@ -6,12 +6,25 @@
  * Endpoints:
  *  
  *  GET /api/orders
- *    Returns: Array of user's orders with order details
+ *    Returns: Array of user's orders with order details, newest first. Each item has
+ *             the unit price paid and available: false, with title "Unavailable",
+ *             if its book has since been removed from the catalog
+ *    Requires: Active session
+ * 
+ *  GET /api/orders?limit={n}&cursor={nextCursor}
+ *    Returns: {orders: array, nextCursor: string|null} with at most n orders (max 100)
+ *    Pass the nextCursor of one page to get the next; omit cursor for the first page
  *    Requires: Active session
  * 
  *  POST /api/orders
- *    Body: {cartItems: array, totalAmount: number, appliedPromo: object}
- *    Action: Saves order to database
+ *    Body: {cartItems: array, appliedPromo: {promoCode}} (or promoCode: string),
+ *          plus the paymentInfo, billingAddress and shippingAddress of POST /api/checkout/process
+ *    Action: Prices the cart on the server, saves the order with that total,
+ *            takes the ordered quantities out of stock and, in the same transaction,
+ *            adds the order confirmation email to the outbox
+ *    Returns: {success, orderId, subtotal, discount, total}
+ *             400 if the promo code is unknown or expired, 404 {error, bookIDs} for unknown books,
+ *             409 with {error, bookIDs} if any book no longer has enough stock
  *    Requires: Active session
  */
 
@@ -21,6 +34,7 @@ import com.bookstore.db.*;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;
 import com.bookstore.records.*;
+import com.bookstore.EmailOutboxSender;
 import com.bookstore.SecUtils;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -37,9 +51,15 @@ import java.io.PrintWriter;
 import java.util.stream.Collectors;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 
 public class OrdersServlet extends HttpServlet {
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
     private final Gson gson = new Gson();
 
     private void setupResponse(HttpServletResponse response) {
@@ -51,6 +71,20 @@ public class OrdersServlet extends HttpServlet {
         response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
     }
 
+    // Promo code from {promoCode: "..."} or the applied promotion object {appliedPromo: {promoCode: "..."}}
+    private static String promoCodeOf(JsonObject requestData) {
+        if (requestData.has("promoCode") && !requestData.get("promoCode").isJsonNull()) {
+            return requestData.get("promoCode").getAsString();
+        }
+        if (requestData.has("appliedPromo") && requestData.get("appliedPromo").isJsonObject()) {
+            JsonObject appliedPromo = requestData.getAsJsonObject("appliedPromo");
+            if (appliedPromo.has("promoCode") && !appliedPromo.get("promoCode").isJsonNull()) {
+                return appliedPromo.get("promoCode").getAsString();
+            }
+        }
+        return null;
+    }
+
     @Override
     protected void doOptions(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
@@ -77,69 +111,87 @@ public class OrdersServlet extends HttpServlet {
             return;
         }
 
+        String limitParam = request.getParameter("limit");
+        String cursorParam = request.getParameter("cursor");
+        boolean paged = limitParam != null || cursorParam != null;
+        int limit = 0;
+        Timestamp cursorDateTime = null;
+        Integer cursorOrderId = null;
         try {
-            // Get user's orders from database
-            DatabaseInterface ordersDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.ORDERS);
-            DatabaseInterface userDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
-            DatabaseInterface bookDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.BOOK);
-            DatabaseInterface transactionDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.TRANSACTION);
-            
-            if (!ordersDb.connectDb() || !userDb.connectDb() || !bookDb.connectDb() || !transactionDb.connectDb()) {
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"error\": \"Database connection failed\"}");
-                return;
+            if (paged) {
+                limit = limitParam != null ? Integer.parseInt(limitParam) : DEFAULT_PAGE_SIZE;
+                limit = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
             }
+            if (cursorParam != null && !cursorParam.isEmpty()) {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursorParam), StandardCharsets.UTF_8).split(":");
+                cursorDateTime = new Timestamp(Long.parseLong(parts[0]));
+                cursorOrderId = Integer.parseInt(parts[1]);
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print("{\"error\": \"Invalid limit or cursor\"}");
+            return;
+        }
 
-            // Load all orders and filter by user ID
-            ((OrdersDatabase) ordersDb).loadResults();
-            ArrayList<OrdersRecords> allOrders = ((OrdersDatabase) ordersDb).getResults();
+        DatabaseInterface ordersDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.ORDERS);
+        if (!ordersDb.connectDb()) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print("{\"error\": \"Database connection failed\"}");
+            return;
+        }
+
+        try {
+            // Orders, line items and book details come back from a single joined query.
+            // One extra order is requested to find out whether another page exists.
+            ArrayList<OrderHistoryRecords> history = ((OrdersDatabase) ordersDb)
+                .findOrderHistory(userId, cursorDateTime, cursorOrderId, paged ? limit + 1 : 0);
+            String nextCursor = null;
+            if (paged && history.size() > limit) {
+                history = new ArrayList<>(history.subList(0, limit));
+                OrderHistoryRecords last = history.get(history.size() - 1);
+                String raw = last.getOrderDateTime().getTime() + ":" + last.getOrderID();
+                nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+            }
             
             JsonArray ordersArray = new JsonArray();
             
-            for (OrdersRecords order : allOrders) {
-                if (order.getUserID() == userId) {
-                    JsonObject orderObj = new JsonObject();
-                    orderObj.addProperty("id", order.getOrderID());
-                    orderObj.addProperty("total", order.getGrandTotal());
-                    orderObj.addProperty("date", order.getOrderDateTime().toString());
-                    orderObj.addProperty("status", "Processed"); // Default status
-                    
-                    // Get transaction items for this order
-                    ((TransactionDatabase) transactionDb).loadResults();
-                    ArrayList<TransactionRecords> allTransactions = ((TransactionDatabase) transactionDb).getResults();
-                    JsonArray itemsArray = new JsonArray();
-                    
-                    for (TransactionRecords transaction : allTransactions) {
-                        if (transaction.getOrderID() == order.getOrderID()) {
-                            // Get book details
-                            BookRecords book = BookActions.getBookById(bookDb.getConnection(), transaction.getBookID());
-                            if (book != null) {
-                                JsonObject itemObj = new JsonObject();
-                                itemObj.addProperty("id", book.getId());
-                                itemObj.addProperty("title", book.getTitle());
-                                itemObj.addProperty("quantity", transaction.getQuantity());
-                                itemObj.addProperty("price", book.getSellingPrice());
-                                itemsArray.add(itemObj);
-                            }
-                        }
-                    }
-                    
-                    orderObj.add("items", itemsArray);
-                    ordersArray.add(orderObj);
+            for (OrderHistoryRecords order : history) {
+                JsonObject orderObj = new JsonObject();
+                orderObj.addProperty("id", order.getOrderID());
+                orderObj.addProperty("total", order.getGrandTotal());
+                orderObj.addProperty("date", order.getOrderDateTime().toString());
+                orderObj.addProperty("status", "Processed"); // Default status
+                
+                JsonArray itemsArray = new JsonArray();
+                for (OrderHistoryRecords.Item item : order.getItems()) {
+                    JsonObject itemObj = new JsonObject();
+                    itemObj.addProperty("id", item.getBookID());
+                    itemObj.addProperty("title", item.getTitle());
+                    itemObj.addProperty("quantity", item.getQuantity());
+                    itemObj.addProperty("price", item.getPrice());
+                    itemObj.addProperty("available", item.isAvailable());
+                    itemsArray.add(itemObj);
                 }
+                
+                orderObj.add("items", itemsArray);
+                ordersArray.add(orderObj);
             }
             
-            out.print(gson.toJson(ordersArray));
-            
-            ordersDb.disconnectDb();
-            userDb.disconnectDb();
-            bookDb.disconnectDb();
-            transactionDb.disconnectDb();
+            if (paged) {
+                JsonObject page = new JsonObject();
+                page.add("orders", ordersArray);
+                page.addProperty("nextCursor", nextCursor);
+                out.print(gson.toJson(page));
+            } else {
+                out.print(gson.toJson(ordersArray));
+            }
             
         } catch (Exception e) {
             e.printStackTrace();
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print("{\"error\": \"Failed to retrieve orders: " + e.getMessage() + "\"}");
+        } finally {
+            ordersDb.disconnectDb();
         }
     }
 
@@ -156,87 +208,139 @@ public class OrdersServlet extends HttpServlet {
             return;
         }
 
+        DatabaseInterface ordersDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.ORDERS);
         try {
             // Read request body
             String body = request.getReader().lines().collect(Collectors.joining("\n"));
             JsonObject requestData = gson.fromJson(body, JsonObject.class);
             
             JsonArray cartItems = requestData.getAsJsonArray("cartItems");
-            double totalAmount = requestData.get("totalAmount").getAsDouble();
-            JsonObject appliedPromo = requestData.has("appliedPromo") && !requestData.get("appliedPromo").isJsonNull() 
-                                     ? requestData.getAsJsonObject("appliedPromo") : null;
             
-            // Connect to databases
-            DatabaseInterface ordersDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.ORDERS);
-            DatabaseInterface transactionDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.TRANSACTION);
+            // The total is computed here from catalog prices and the promotion index;
+            // any totalAmount sent by the client is ignored
+            Map<Integer, Integer> quantities = new LinkedHashMap<>();
+            for (JsonElement item : cartItems) {
+                JsonObject itemObj = item.getAsJsonObject();
+                quantities.merge(itemObj.get("id").getAsInt(), itemObj.get("quantity").getAsInt(), Integer::sum);
+            }
+            PricingEngine.PriceQuote quote;
+            try {
+                quote = PricingEngine.quote(quantities, promoCodeOf(requestData), null);
+            } catch (InvalidPromotionException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print("{\"error\": \"Invalid or expired promo code\"}");
+                return;
+            } catch (IllegalArgumentException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print("{\"error\": \"" + e.getMessage() + "\"}");
+                return;
+            } catch (BookNotFoundException e) {
+                JsonObject errorObj = new JsonObject();
+                errorObj.addProperty("error", e.getMessage());
+                errorObj.add("bookIDs", gson.toJsonTree(e.getBookIDs()));
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print(gson.toJson(errorObj));
+                return;
+            }
             
-            if (!ordersDb.connectDb() || !transactionDb.connectDb()) {
+            // The confirmation email goes to the outbox with the order, so it is only sent if the order commits
+            UserRecords user;
+            DatabaseInterface userDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
+            try {
+                if (!userDb.connectDb()) {
+                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    out.print("{\"error\": \"Database connection failed\"}");
+                    return;
+                }
+                user = SecUtils.findUserByID((UserDatabase) userDb, userId);
+            } finally {
+                userDb.disconnectDb();
+            }
+            if (user == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print("{\"error\": \"User not found\"}");
+                return;
+            }
+            EmailOutboxRecords confirmationEmail = CheckoutServlet.orderConfirmationEmail(user, quote, requestData);
+
+            // Connect only once the user lookup has returned its connection, so a
+            // request never holds two pooled connections at once
+            if (!ordersDb.connectDb()) {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 out.print("{\"error\": \"Database connection failed\"}");
                 return;
             }
             
             // Create order record
-            Integer promoId = null;
-            if (appliedPromo != null && appliedPromo.has("id")) {
-                promoId = appliedPromo.get("id").getAsInt();
-            }
+            Integer promoId = quote.getPromotion() != null ? quote.getPromotion().getPromoID() : null;
             
             OrdersRecords order = new OrdersRecords(
                 0, // orderID (auto-generated)
                 userId,
                 1, // Default cardID - this should ideally come from payment info
                 promoId,
-                totalAmount,
+                quote.getTotal(),
                 new Timestamp(System.currentTimeMillis())
             );
             
-            // Add order to database
-            String orderResult = ((OrdersDatabase) ordersDb).addOrder(order);
-            if (!orderResult.equals("Order Added.")) {
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"error\": \"Failed to save order: " + orderResult + "\"}");
-                return;
+            // Create transaction records for each priced line
+            List<TransactionRecords> transactions = new ArrayList<>();
+            for (PricingEngine.Line line : quote.getLines()) {
+                transactions.add(new TransactionRecords(
+                    0, // transactionID (auto-generated)
+                    0, // orderID (set once the order is inserted)
+                    line.getBookID(),
+                    line.getQuantity(),
+                    line.getUnitPrice()
+                ));
             }
             
-            // Get the order ID of the newly created order
-            ((OrdersDatabase) ordersDb).loadResults();
-            ArrayList<OrdersRecords> orders = ((OrdersDatabase) ordersDb).getResults();
-            int newOrderId = orders.get(orders.size() - 1).getOrderID(); // Get last order ID
-            
-            // Create transaction records for each cart item
-            for (JsonElement item : cartItems) {
-                JsonObject itemObj = item.getAsJsonObject();
-                int bookId = itemObj.get("id").getAsInt();
-                int quantity = itemObj.get("quantity").getAsInt();
-                
-                TransactionRecords transaction = new TransactionRecords(
-                    0, // transactionID (auto-generated)
-                    newOrderId,
-                    bookId,
-                    quantity
-                );
-                
-                String transactionResult = ((TransactionDatabase) transactionDb).addTransaction(transaction);
-                if (!transactionResult.equals("Transaction Added.")) {
-                    System.err.println("Failed to add transaction: " + transactionResult);
-                }
+            // Insert the order and its items in one database transaction, leaving
+            // behind whatever other carts currently hold of the same books
+            InventoryReservations reservations = InventoryReservations.getInstance();
+            List<Integer> bookIds = transactions.stream()
+                .map(TransactionRecords::getBookID)
+                .collect(Collectors.toList());
+            int newOrderId;
+            try {
+                newOrderId = ((OrdersDatabase) ordersDb).placeOrder(order, transactions,
+                    reservations.heldByOthers(userId, bookIds), confirmationEmail);
+                reservations.convert(userId, bookIds);
+                EmailOutboxSender.getInstance().wakeUp();
+            } catch (InsufficientStockException e) {
+                JsonObject errorObj = new JsonObject();
+                errorObj.addProperty("error", "Insufficient stock for one or more books");
+                errorObj.add("bookIDs", gson.toJsonTree(e.getBookIDs()));
+                response.setStatus(HttpServletResponse.SC_CONFLICT);
+                out.print(gson.toJson(errorObj));
+                return;
+            } catch (IllegalArgumentException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print("{\"error\": \"" + e.getMessage() + "\"}");
+                return;
+            } catch (java.sql.SQLException e) {
+                e.printStackTrace();
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.print("{\"error\": \"Failed to save order: " + e.getMessage() + "\"}");
+                return;
             }
             
             JsonObject responseObj = new JsonObject();
             responseObj.addProperty("success", true);
             responseObj.addProperty("orderId", newOrderId);
+            responseObj.addProperty("subtotal", quote.getSubtotal());
+            responseObj.addProperty("discount", quote.getDiscount());
+            responseObj.addProperty("total", quote.getTotal());
             responseObj.addProperty("message", "Order saved successfully");
             
             out.print(gson.toJson(responseObj));
             
-            ordersDb.disconnectDb();
-            transactionDb.disconnectDb();
-            
         } catch (Exception e) {
             e.printStackTrace();
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print("{\"error\": \"Failed to save order: " + e.getMessage() + "\"}");
+        } finally {
+            ordersDb.disconnectDb();
         }
     }
 }
\ No newline at end of file
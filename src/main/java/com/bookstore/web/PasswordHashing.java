@@ -0,0 +1,129 @@
+package com.bookstore.web;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import com.bookstore.PasswordHasher;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Asynchronous request handling around PasswordHasher, for servlets that hash
+ * or verify passwords. The request thread goes back to Jetty while the BCrypt
+ * work waits and runs on the hashing pool; the rest of the request then runs
+ * on a container thread. When the hashing pool is full the client gets
+ * 503 with Retry-After instead of waiting. The servlet must be registered with
+ * async support.
+ */
+final class PasswordHashing {
+
+    // Async requests still open after this long are answered with 503
+    private static final long ASYNC_TIMEOUT_MS = 30_000L;
+    private static final String RETRY_AFTER_SECONDS = "2";
+
+    interface Continuation<T> {
+        void resume(T result) throws Exception;
+    }
+
+    private PasswordHashing() {
+    }
+
+    /**
+     * Start async handling of the request, run work on the shared PasswordHasher and
+     * then call next with its result on a container thread. The response is complete
+     * when next returns; the caller must not write to it after calling run
+     * @param work submits the hash or verification, e.g. hasher -> hasher.hash(password)
+     * @param next writes the response from the result
+     */
+    static <T> void run(HttpServletRequest request, HttpServletResponse response,
+                        Function<PasswordHasher, CompletableFuture<T>> work, Continuation<T> next) {
+        AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(ASYNC_TIMEOUT_MS);
+        // Set by whichever of the result and the async timeout comes first
+        AtomicBoolean answered = new AtomicBoolean();
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (answered.compareAndSet(false, true)) {
+                    sendBusy(response);
+                    async.complete();
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        CompletableFuture<T> future;
+        try {
+            future = work.apply(PasswordHasher.getInstance());
+        } catch (RejectedExecutionException e) {
+            answered.set(true);
+            sendBusy(response);
+            async.complete();
+            return;
+        }
+
+        future.whenComplete((result, error) -> {
+            if (!answered.compareAndSet(false, true)) {
+                return;
+            }
+            async.start(() -> {
+                try {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (cause instanceof RejectedExecutionException) {
+                        sendBusy(response);
+                    } else if (cause != null) {
+                        throw cause;
+                    } else {
+                        next.resume(result);
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    if (!response.isCommitted()) {
+                        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        writeQuietly(response, "{\"success\": false, \"error\": \"Internal server error\"}");
+                    }
+                } finally {
+                    async.complete();
+                }
+            });
+        });
+    }
+
+    private static void sendBusy(HttpServletResponse response) {
+        if (response.isCommitted()) {
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+        response.setContentType("application/json");
+        writeQuietly(response, "{\"success\": false, \"error\": \"Server is busy, please try again shortly\"}");
+    }
+
+    private static void writeQuietly(HttpServletResponse response, String body) {
+        try {
+            response.getWriter().write(body);
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+}
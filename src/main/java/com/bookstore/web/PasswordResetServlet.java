@@ -6,6 +6,8 @@
  *  which supports different functions
  * depending on the parameters
  * methods are POST
+ * The new password is hashed on the PasswordHasher pool and saved
+ * asynchronously; 503 with Retry-After when that pool is full
  */
 
 
@@ -16,6 +18,8 @@ import com.bookstore.db.VerificationTokenDatabase;
 import com.bookstore.db.VerificationTokenRecords;
 import com.bookstore.records.UserRecords;
 import com.bookstore.Email;
+import com.bookstore.EmailOutboxSender;
+import com.bookstore.records.EmailOutboxRecords;
 import com.bookstore.SecUtils;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;
@@ -29,7 +33,7 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.UUID;
 
-@WebServlet("/password-reset")
+@WebServlet(urlPatterns = "/password-reset", asyncSupported = true)
 public class PasswordResetServlet extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
@@ -42,59 +46,95 @@ public class PasswordResetServlet extends HttpServlet {
         if (email != null && token == null && newPassword == null) {
             // generate token and send email
             DatabaseInterface userDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
-            userDb.connectDb();
-            UserRecords user = ((UserDatabase) userDb).findUserByEmail(email);
-            if (user == null) {
+            VerificationTokenDatabase tokenDb = new VerificationTokenDatabase();
+            String tokenResult;
+            try {
+                if (!userDb.connectDb() || !tokenDb.connectDb()) {
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    resp.getWriter().write("{\"error\":\"Failed to connect to database\"}");
+                    return;
+                }
+                UserRecords user = ((UserDatabase) userDb).findUserByEmail(email);
+                if (user == null) {
+                    resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    resp.getWriter().write("{\"error\":\"User not found\"}");
+                    return;
+                }
+                String resetToken = UUID.randomUUID().toString();
+                Timestamp expiry = new Timestamp(System.currentTimeMillis() + 60 * 60 * 1000); // 1 hour
+                VerificationTokenRecords tokenRecord = new VerificationTokenRecords(0, user.getUserID(), resetToken, expiry, "password_reset");
+                // Construct frontend reset link
+                String scheme = req.getScheme();
+                String serverName = req.getServerName();
+                String frontendPort = "3000"; // Change to your frontend port if needed
+                String baseUrl = scheme + "://" + serverName + ":" + frontendPort;
+                // The token and its email are committed together; the outbox sender delivers the email
+                EmailOutboxRecords resetEmail = Email.passwordResetEmail(user.getEmail(), user.getFirstName(), resetToken, baseUrl);
+                tokenResult = tokenDb.addTokenWithEmail(tokenRecord, resetEmail);
+            } finally {
+                tokenDb.disconnectDb();
                 userDb.disconnectDb();
-                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                resp.getWriter().write("{\"error\":\"User not found\"}");
+            }
+            if (!tokenResult.contains("Added")) {
+                resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                resp.getWriter().write("{\"error\":\"Failed to create reset token\"}");
                 return;
             }
-            VerificationTokenDatabase tokenDb = new VerificationTokenDatabase();
-            tokenDb.connectDb();
-            String resetToken = UUID.randomUUID().toString();
-            Timestamp expiry = new Timestamp(System.currentTimeMillis() + 60 * 60 * 1000); // 1 hour
-            VerificationTokenRecords tokenRecord = new VerificationTokenRecords(0, user.getUserID(), resetToken, expiry, "password_reset");
-            tokenDb.addToken(tokenRecord);
-            // Construct frontend reset link
-            String scheme = req.getScheme();
-            String serverName = req.getServerName();
-            int serverPort = req.getServerPort();
-            String frontendPort = "3000"; // Change to your frontend port if needed
-            String resetLink = scheme + "://" + serverName + ":" + frontendPort + "/reset-password?token=" + resetToken;
-            String baseUrl = scheme + "://" + serverName + ":" + frontendPort;
-            Email.sendPasswordResetEmail(user.getEmail(), user.getFirstName(), resetToken, baseUrl);
-            tokenDb.disconnectDb();
-            userDb.disconnectDb();
+            EmailOutboxSender.getInstance().wakeUp();
             resp.getWriter().write("{\"message\":\"Reset email sent\"}");
         } else if (token != null && newPassword != null) {
             // Step 2: Reset password - validate token and update password
             VerificationTokenDatabase tokenDb = new VerificationTokenDatabase();
-            tokenDb.connectDb();
-            VerificationTokenRecords tokenRecord = tokenDb.findTokenByToken(token);
-            if (tokenRecord == null || tokenRecord.getExpiryDate().before(new Timestamp(System.currentTimeMillis()))) {
-                tokenDb.disconnectDb();
-                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                resp.getWriter().write("{\"error\":\"Invalid or expired token\"}");
-                return;
-            }
             DatabaseInterface userDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
-            userDb.connectDb();
-            UserRecords user = SecUtils.findUserByID((UserDatabase) userDb, tokenRecord.getUserId());
-            if (user == null) {
-                userDb.disconnectDb();
+            UserRecords user;
+            try {
+                if (!tokenDb.connectDb() || !userDb.connectDb()) {
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    resp.getWriter().write("{\"error\":\"Failed to connect to database\"}");
+                    return;
+                }
+                VerificationTokenRecords tokenRecord = tokenDb.findTokenByToken(token);
+                if (tokenRecord == null || tokenRecord.getExpiryDate().before(new Timestamp(System.currentTimeMillis()))) {
+                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    resp.getWriter().write("{\"error\":\"Invalid or expired token\"}");
+                    return;
+                }
+                user = SecUtils.findUserByID((UserDatabase) userDb, tokenRecord.getUserId());
+                if (user == null) {
+                    resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    resp.getWriter().write("{\"error\":\"User not found\"}");
+                    return;
+                }
+            } finally {
                 tokenDb.disconnectDb();
-                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                resp.getWriter().write("{\"error\":\"User not found\"}");
-                return;
+                userDb.disconnectDb();
             }
-            String hashed = SecUtils.hashPassword(newPassword);
-            user.setPassword(hashed);
-            ((UserDatabase) userDb).updateUser(user);
-            tokenDb.deleteTokenByToken(token);
-            tokenDb.disconnectDb();
-            userDb.disconnectDb();
-            resp.getWriter().write("{\"message\":\"Password reset successful\"}");
+            // Hash on the hashing pool without holding a connection, then use up the
+            // token and save the hash in one transaction; a second request with the
+            // same token finds it gone and is refused
+            PasswordHashing.run(req, resp, hasher -> hasher.hash(newPassword), hashed -> {
+                VerificationTokenDatabase resetDb = new VerificationTokenDatabase();
+                String result;
+                try {
+                    if (!resetDb.connectDb()) {
+                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        resp.getWriter().write("{\"error\":\"Failed to connect to database\"}");
+                        return;
+                    }
+                    result = resetDb.resetPassword(token, user.getUserID(), hashed);
+                } finally {
+                    resetDb.disconnectDb();
+                }
+                if (result.contains("Not Found")) {
+                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    resp.getWriter().write("{\"error\":\"Invalid or expired token\"}");
+                } else if (!result.contains("Password Reset")) {
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    resp.getWriter().write("{\"error\":\"Failed to reset password\"}");
+                } else {
+                    resp.getWriter().write("{\"message\":\"Password reset successful\"}");
+                }
+            });
         } else {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             resp.getWriter().write("{\"error\":\"Invalid request\"}");
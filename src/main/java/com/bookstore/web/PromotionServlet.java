@@ -15,6 +15,12 @@
  *    Returns: Single promotion object
  *    Example: GET http://localhost:8080/api/promotions/1
  * 
+ *  GET /api/promotions/validate?code={promoCode}
+ *    Returns: The promotion if the code (case-insensitive) exists and is active today,
+ *             404 otherwise. Answered from the promotion cache, which is refreshed after
+ *             every add, update and delete and at least every db.promotion.cacheTtlSeconds
+ *    Example: GET http://localhost:8080/api/promotions/validate?code=SUMMER20
+ * 
  *  POST /api/promotions
  *    Body: PromotionRecords object
  *    Returns: Success/error message
@@ -29,15 +35,35 @@
  *  DELETE /api/promotions/{id}
  *    Returns: Success/error message
  *    Example: DELETE http://localhost:8080/api/promotions/1
+ * 
+ *  POST /api/promotions/push/{id}
+ *    Body: {"message": "..."}
+ *    Returns: 202 with {"message", "campaignId", "status"}; the promotion is emailed to every
+ *             enrolled user in the background and marked as pushed once the campaign completes
+ *             409 with {"error", "campaignId"} if a push of this promotion is still running
+ *    Example: POST http://localhost:8080/api/promotions/push/1
+ * 
+ *  POST /api/promotions/send-email
+ *    Body: {"subject": "...", "message": "..."}
+ *    Returns: 202 with {"message", "campaignId", "status"}, as for push
+ *    Example: POST http://localhost:8080/api/promotions/send-email
+ * 
+ *  GET /api/promotions/campaigns/{campaignId}
+ *    Returns: The campaign with its status (RUNNING, COMPLETED or FAILED), sentCount,
+ *             failedCount and lastUserID (the resume checkpoint); admin only
+ *    Example: GET http://localhost:8080/api/promotions/campaigns/3
  */
 
 package com.bookstore.web;
 
 import com.bookstore.db.PromotionDatabase;
+import com.bookstore.db.PromotionIndex;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;
+import com.bookstore.db.EmailCampaignDatabase;
+import com.bookstore.records.EmailCampaignRecords;
 import com.bookstore.records.PromotionRecords;
-import com.bookstore.Email;
+import com.bookstore.CampaignEngine;
 import com.google.gson.Gson;
 
 import jakarta.servlet.ServletException;
@@ -47,11 +73,16 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.Date;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.stream.Collectors;
 
 public class PromotionServlet extends AdminSecuredServlet {
+    // Held while checking for a running push and starting a new one, so two pushes cannot both start
+    private static final Object PUSH_LOCK = new Object();
+
     private final Gson gson = new Gson();
 
     @Override
@@ -59,10 +90,26 @@ public class PromotionServlet extends AdminSecuredServlet {
         System.out.println("DEBUG: GET request received for promotions");
         setCorsHeaders(resp);
         
-        DatabaseInterface promotionDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.PROMOTION);
-        
         PrintWriter out = resp.getWriter();
 
+        // Promo code validation is answered from the promotion cache, without a connection
+        if ("/validate".equals(req.getPathInfo())) {
+            handleValidate(req, resp, out);
+            out.flush();
+            return;
+        }
+
+        // Campaign progress is admin only, unlike the promotions themselves
+        if (req.getPathInfo() != null && req.getPathInfo().startsWith("/campaigns/")) {
+            if (verifyAdminAccess(req, resp)) {
+                handleCampaignStatus(req, resp, out);
+                out.flush();
+            }
+            return;
+        }
+
+        DatabaseInterface promotionDb = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.PROMOTION);
+
         if (promotionDb.connectDb()) {
             try {
                 String pathInfo = req.getPathInfo();
@@ -71,13 +118,7 @@ public class PromotionServlet extends AdminSecuredServlet {
                     // Get specific promotion by ID
                     try {
                         int promoId = Integer.parseInt(pathInfo.substring(1));
-                        ((PromotionDatabase) promotionDb).loadResults();
-                        ArrayList<PromotionRecords> promotions = ((PromotionDatabase) promotionDb).getResults();
-                        
-                        PromotionRecords promotion = promotions.stream()
-                                .filter(p -> p.getPromoID() == promoId)
-                                .findFirst()
-                                .orElse(null);
+                        PromotionRecords promotion = ((PromotionDatabase) promotionDb).findPromotionByID(promoId);
                         
                         if (promotion != null) {
                             out.print(gson.toJson(promotion));
@@ -305,7 +346,63 @@ public class PromotionServlet extends AdminSecuredServlet {
     }
 
     /**
-     * Handles push promotion requests - sends targeted promotional email for a specific promotion
+     * Handles promo code validation: the promotion if its code exists and is active today
+     */
+    private void handleValidate(HttpServletRequest req, HttpServletResponse resp, PrintWriter out) {
+        String code = req.getParameter("code");
+        if (code == null || code.trim().isEmpty()) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print("{\"error\": \"Promo code is required\"}");
+            return;
+        }
+        try {
+            PromotionRecords promotion = PromotionIndex.getInstance().getSnapshot().findActive(code, LocalDate.now());
+            if (promotion != null) {
+                out.print(gson.toJson(promotion));
+            } else {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print("{\"error\": \"Invalid or expired promo code\"}");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print("{\"error\": \"Failed to connect to the database\"}");
+        }
+    }
+
+    /**
+     * Handles campaign status requests: progress of a promotional email campaign
+     */
+    private void handleCampaignStatus(HttpServletRequest req, HttpServletResponse resp, PrintWriter out) {
+        int campaignId;
+        try {
+            campaignId = Integer.parseInt(req.getPathInfo().substring("/campaigns/".length()));
+        } catch (NumberFormatException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print("{\"error\": \"Invalid campaign ID\"}");
+            return;
+        }
+        EmailCampaignDatabase campaignDb = (EmailCampaignDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_CAMPAIGN);
+        if (!campaignDb.connectDb()) {
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print("{\"error\": \"Failed to connect to the database\"}");
+            return;
+        }
+        try {
+            EmailCampaignRecords campaign = campaignDb.findCampaignByID(campaignId);
+            if (campaign != null) {
+                out.print(gson.toJson(campaign));
+            } else {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print("{\"error\": \"Campaign not found\"}");
+            }
+        } finally {
+            campaignDb.disconnectDb();
+        }
+    }
+
+    /**
+     * Handles push promotion requests - starts a campaign emailing a specific promotion to enrolled users
      */
     private void handlePushPromotion(HttpServletRequest req, HttpServletResponse resp, PrintWriter out) throws IOException {
         try {
@@ -333,13 +430,7 @@ public class PromotionServlet extends AdminSecuredServlet {
             }
             
             try {
-                ((PromotionDatabase) promotionDb).loadResults();
-                ArrayList<PromotionRecords> promotions = ((PromotionDatabase) promotionDb).getResults();
-                
-                PromotionRecords promotion = promotions.stream()
-                        .filter(p -> p.getPromoID() == promoId)
-                        .findFirst()
-                        .orElse(null);
+                PromotionRecords promotion = ((PromotionDatabase) promotionDb).findPromotionByID(promoId);
                 
                 if (promotion == null) {
                     resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -357,23 +448,30 @@ public class PromotionServlet extends AdminSecuredServlet {
                         "Valid until: " + dateFormat.format(promotion.getEndDate()) + "\n\n" +
                         "Use this code at checkout to save!";
                 
-                // Send the promotional email
-                boolean success = Email.sendPromotionalEmails(emailMessage, emailSubject);
-                
-                if (success) {
-                    // Mark promotion as pushed
-                    String updateResult = ((PromotionDatabase) promotionDb).updatePromotionPushedStatus(promoId, true);
-                    if (updateResult.equals("Promotion push status updated.")) {
-                        resp.setStatus(HttpServletResponse.SC_OK);
-                        out.print("{\"message\": \"Promotion pushed successfully\"}");
-                    } else {
-                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                        out.print("{\"error\": \"Email sent but failed to update promotion status\"}");
+                // Send in the background; the campaign marks the promotion as pushed when it completes
+                int campaignId;
+                synchronized (PUSH_LOCK) {
+                    EmailCampaignDatabase campaignDb = (EmailCampaignDatabase) DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.EMAIL_CAMPAIGN);
+                    EmailCampaignRecords running;
+                    try {
+                        if (!campaignDb.connectDb()) {
+                            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                            out.print("{\"error\": \"Failed to connect to database\"}");
+                            return;
+                        }
+                        running = campaignDb.findRunningCampaignByPromoID(promoId);
+                    } finally {
+                        campaignDb.disconnectDb();
                     }
-                } else {
-                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                    out.print("{\"error\": \"Failed to send promotional emails\"}");
+                    if (running != null) {
+                        resp.setStatus(HttpServletResponse.SC_CONFLICT);
+                        out.print("{\"error\": \"This promotion is already being pushed\", \"campaignId\": "
+                                + running.getCampaignID() + "}");
+                        return;
+                    }
+                    campaignId = CampaignEngine.getInstance().start(promoId, emailSubject, emailMessage);
                 }
+                writeCampaignStarted(resp, out, campaignId, "Promotion push started");
                 
             } finally {
                 promotionDb.disconnectDb();
@@ -409,15 +507,8 @@ public class PromotionServlet extends AdminSecuredServlet {
                 return;
             }
             
-            boolean success = Email.sendPromotionalEmails(emailRequest.message, emailRequest.subject);
-            
-            if (success) {
-                resp.setStatus(HttpServletResponse.SC_OK);
-                out.print("{\"message\": \"Promotional emails sent successfully\"}");
-            } else {
-                resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"error\": \"Failed to send some or all promotional emails\"}");
-            }
+            int campaignId = CampaignEngine.getInstance().start(null, emailRequest.subject, emailRequest.message);
+            writeCampaignStarted(resp, out, campaignId, "Promotional email campaign started");
             
         } catch (Exception e) {
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -426,6 +517,18 @@ public class PromotionServlet extends AdminSecuredServlet {
         }
     }
 
+    // 202 with the new campaign's ID, or 500 if it could not be started
+    private static void writeCampaignStarted(HttpServletResponse resp, PrintWriter out, int campaignId, String message) {
+        if (campaignId < 0) {
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print("{\"error\": \"Failed to start the email campaign\"}");
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        out.print("{\"message\": \"" + message + "\", \"campaignId\": " + campaignId
+                + ", \"status\": \"" + EmailCampaignRecords.STATUS_RUNNING + "\"}");
+    }
+
     // Helper class for parsing JSON requests
     private static class PromotionRequest {
         String promoCode;
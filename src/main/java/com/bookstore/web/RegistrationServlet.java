@@ -5,6 +5,8 @@
  * to move them to here for cohesion
  * /api/register/ endpoint
  * Post Method
+ * The password is hashed on the PasswordHasher pool and the account is
+ * created asynchronously; 503 with Retry-After when that pool is full
  */
 
 package com.bookstore.web;
@@ -21,17 +23,15 @@ import com.bookstore.db.*;
 import com.bookstore.records.*;
 import com.bookstore.SecUtils;
 import com.bookstore.Email;
+import com.bookstore.EmailOutboxSender;
 import com.bookstore.db.DatabaseFactory;
 import com.bookstore.db.DatabaseInterface;
 import java.sql.Timestamp;
 import java.util.UUID;
 
+// DAOs are created per request: each holds its own pooled connection, and the
+// token insert runs a transaction that must not share a connection across requests
 public class RegistrationServlet extends HttpServlet {
-    private DatabaseInterface userDB = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
-    private ShippingAddressDatabase shippingDB = new ShippingAddressDatabase();
-    private BillingAddressDatabase billingDB = new BillingAddressDatabase();
-    private PaymentCardDatabase paymentDB = new PaymentCardDatabase();
-    private VerificationTokenDatabase tokenDB = new VerificationTokenDatabase();
     private Gson gson = new Gson();
 
     // Email validation pattern
@@ -75,9 +75,19 @@ public class RegistrationServlet extends HttpServlet {
                 return;
             }
             
-            // Hash password
-            String hashedPassword = SecUtils.hashPassword(password);
+            // Hash the password on the hashing pool, then create the account
+            PasswordHashing.run(request, response, hasher -> hasher.hash(password),
+                    hashedPassword -> createAccount(response, requestData, firstName, lastName, email, phone, hashedPassword));
             
+        } catch (Exception e) {
+            e.printStackTrace();
+            sendErrorResponse(response, 500, "Internal server error: " + e.getMessage());
+        }
+    }
+    
+    private void createAccount(HttpServletResponse response, JsonObject requestData, String firstName, String lastName,
+                               String email, String phone, String hashedPassword) throws IOException {
+        try {
             // Create user record
             UserRecords newUser = new UserRecords(
                 0, // userID will be auto-generated
@@ -92,30 +102,29 @@ public class RegistrationServlet extends HttpServlet {
             );
             
             // Connect to database and insert user
-            if (!userDB.connectDb()) {
-                sendErrorResponse(response, 500, "Failed to connect to database");
-                return;
-            }
-            
-            String userResult = ((UserDatabase) userDB).addUser(newUser);
-            userDB.disconnectDb();
-            
-            if (!userResult.contains("Added")) {
-                sendErrorResponse(response, 500, "Failed to create user account: " + userResult);
-                return;
-            }
-            
-            // Get the newly created user ID
-            if (!userDB.connectDb()) {
-                sendErrorResponse(response, 500, "Failed to reconnect to database to retrieve user ID");
-                return;
+            DatabaseInterface userDB = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
+            UserRecords createdUser;
+            try {
+                if (!userDB.connectDb()) {
+                    sendErrorResponse(response, 500, "Failed to connect to database");
+                    return;
+                }
+                
+                String userResult = ((UserDatabase) userDB).addUser(newUser);
+                
+                if (!userResult.contains("Added")) {
+                    sendErrorResponse(response, 500, "Failed to create user account: " + userResult);
+                    return;
+                }
+                
+                // Get the newly created user ID
+                System.out.println("DEBUG: Looking for user with email: " + email);
+                createdUser = ((UserDatabase) userDB).findUserByEmail(email);
+                System.out.println("DEBUG: Found user: " + (createdUser != null ? "Yes (ID: " + createdUser.getUserID() + ")" : "No"));
+            } finally {
+                userDB.disconnectDb();
             }
             
-            System.out.println("DEBUG: Looking for user with email: " + email);
-            UserRecords createdUser = ((UserDatabase) userDB).findUserByEmail(email);
-            System.out.println("DEBUG: Found user: " + (createdUser != null ? "Yes (ID: " + createdUser.getUserID() + ")" : "No"));
-            userDB.disconnectDb();
-            
             if (createdUser == null) {
                 sendErrorResponse(response, 500, "User created but could not retrieve user ID");
                 return;
@@ -136,7 +145,7 @@ public class RegistrationServlet extends HttpServlet {
             // Handle optional payment information
             if (requestData.has("paymentCard")) {
                 JsonObject paymentData = requestData.getAsJsonObject("paymentCard");
-                String paymentResult = addPaymentCard(userId, paymentData, billingDB, paymentDB);
+                String paymentResult = addPaymentCard(userId, paymentData, new BillingAddressDatabase(), new PaymentCardDatabase());
                 if (paymentResult != null) {
                     sendErrorResponse(response, 500, "User created but payment card failed: " + paymentResult);
                     return;
@@ -200,8 +209,16 @@ public class RegistrationServlet extends HttpServlet {
     }
     
     private boolean isEmailTaken(String email) {
-        UserRecords existingUser = SecUtils.findUserForLogin((UserDatabase) userDB, email, false);
-        return existingUser != null;
+        DatabaseInterface userDB = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
+        try {
+            if (!userDB.connectDb()) {
+                return false;
+            }
+            UserRecords existingUser = SecUtils.findUserForLogin((UserDatabase) userDB, email, false);
+            return existingUser != null;
+        } finally {
+            userDB.disconnectDb();
+        }
     }
     
     private String addShippingAddress(int userId, JsonObject shippingData) {
@@ -224,13 +241,17 @@ public class RegistrationServlet extends HttpServlet {
                 zipCode
             );
             
-            if (!shippingDB.connectDb()) {
-                return "Failed to connect to shipping database";
+            ShippingAddressDatabase shippingDB = new ShippingAddressDatabase();
+            String result;
+            try {
+                if (!shippingDB.connectDb()) {
+                    return "Failed to connect to shipping database";
+                }
+                result = shippingDB.addAddress(shippingAddress);
+            } finally {
+                shippingDB.disconnectDb();
             }
             
-            String result = shippingDB.addAddress(shippingAddress);
-            shippingDB.disconnectDb();
-            
             if (!result.contains("Added")) {
                 return result;
             }
@@ -269,25 +290,21 @@ public class RegistrationServlet extends HttpServlet {
                 state,
                 zipCode
             );
-            if (!billingDB.connectDb()) {
-                return "Failed to connect to billing database";
-            }
-            String billingResult = billingDB.addAddress(billingAddress);
-            if (!billingResult.contains("Added")) {
-                billingDB.disconnectDb();
-                return "Failed to add billing address: " + billingResult;
-            }
-            // Get the billing address ID by matching all fields
-            billingDB.loadResults();
-            BillingAddressRecords createdBilling = null;
-            for (BillingAddressRecords addr : billingDB.getResults()) {
-                if (addr.getStreet().equals(street) && addr.getCity().equals(city) && addr.getState().equals(state) && addr.getZipCode().equals(zipCode)) {
-                    createdBilling = addr;
-                    break;
+            int billingAddressID;
+            try {
+                if (!billingDB.connectDb()) {
+                    return "Failed to connect to billing database";
+                }
+                String billingResult = billingDB.addAddress(billingAddress);
+                if (!billingResult.contains("Added")) {
+                    return "Failed to add billing address: " + billingResult;
                 }
+                // Get the billing address ID generated by the insert
+                billingAddressID = billingDB.getLastGeneratedKey();
+            } finally {
+                billingDB.disconnectDb();
             }
-            billingDB.disconnectDb();
-            if (createdBilling == null) {
+            if (billingAddressID <= 0) {
                 return "Billing address created but could not retrieve ID";
             }
             // Encrypt card number with simple encryption (no external keys needed)
@@ -308,13 +325,17 @@ public class RegistrationServlet extends HttpServlet {
                 userId,
                 cardType,
                 expirationDate,
-                createdBilling.getAddressID()
+                billingAddressID
             );
-            if (!paymentDB.connectDb()) {
-                return "Failed to connect to payment database";
+            String paymentResult;
+            try {
+                if (!paymentDB.connectDb()) {
+                    return "Failed to connect to payment database";
+                }
+                paymentResult = paymentDB.addCard(paymentCard);
+            } finally {
+                paymentDB.disconnectDb();
             }
-            String paymentResult = paymentDB.addCard(paymentCard);
-            paymentDB.disconnectDb();
             if (!paymentResult.contains("Added")) {
                 return "Failed to add payment card: " + paymentResult;
             }
@@ -336,7 +357,8 @@ public class RegistrationServlet extends HttpServlet {
     /**
      * Generates a verification token and sends verification email
      * tokens are temporary
-     * and stored in database
+     * and stored in database together with the email,
+     * which the outbox sender delivers once they commit
      */
     private String generateAndSendVerificationEmail(int userId, String userEmail, String userName) {
         try {
@@ -351,38 +373,43 @@ public class RegistrationServlet extends HttpServlet {
                 "email_verification"
             );
             
-            if (!tokenDB.connectDb()) {
-                return "Failed to connect to token database";
-            }
-            
-            // Add token to database
-            String tokenResult = tokenDB.addToken(tokenRecord);
-            if (!tokenResult.contains("Added")) {
-                tokenDB.disconnectDb();
-                return "Failed to create verification token: " + tokenResult;
-            }
-            
-            tokenDB.disconnectDb();
-            
             // Retrieve the user to get the loginUserID (which was auto-assigned by the database trigger)
-            if (!userDB.connectDb()) {
-                return "Failed to connect to user database";
+            DatabaseInterface userDB = DatabaseFactory.createDatabase(DatabaseFactory.DatabaseType.USER);
+            UserRecords createdUser;
+            try {
+                if (!userDB.connectDb()) {
+                    return "Failed to connect to user database";
+                }
+                createdUser = ((UserDatabase) userDB).findUserByEmail(userEmail);
+            } finally {
+                userDB.disconnectDb();
             }
             
-            UserRecords createdUser = ((UserDatabase) userDB).findUserByEmail(userEmail);
-            userDB.disconnectDb();
-            
             if (createdUser == null) {
                 return "Failed to retrieve created user";
             }
             
             // url for verification so that clicking actually verifies
             String baseUrl = "http://localhost:8080"; 
+            EmailOutboxRecords verificationEmail = Email.verificationEmail(userEmail, userName,
+                verificationToken, baseUrl, createdUser.getLoginUserID());
             
-            boolean emailSent = Email.sendVerificationEmail(userEmail, userName, verificationToken, baseUrl, createdUser.getLoginUserID());
-            if (!emailSent) {
-                return "Failed to send verification email";
+            // This request's own connection, so the token and email transaction is not shared
+            VerificationTokenDatabase tokenDB = new VerificationTokenDatabase();
+            String tokenResult;
+            try {
+                if (!tokenDB.connectDb()) {
+                    return "Failed to connect to token database";
+                }
+                // Add token and its email to database; SMTP problems only delay the email
+                tokenResult = tokenDB.addTokenWithEmail(tokenRecord, verificationEmail);
+            } finally {
+                tokenDB.disconnectDb();
+            }
+            if (!tokenResult.contains("Added")) {
+                return "Failed to create verification token: " + tokenResult;
             }
+            EmailOutboxSender.getInstance().wakeUp();
             
             return null; // worked
             
@@ -0,0 +1,7 @@
+USE BookStore;
+
+-- Full-text index used by the MySQL search backend (db.search.backend=fulltext).
+-- Run this once on databases created before the index was added to Books_Table.sql.
+-- The column list must match the MATCH(...) list in MySqlFullTextSearchBackend.
+ALTER TABLE books
+ADD FULLTEXT INDEX ft_books_search (isbn, title, author, category, publisher, edition);
@@ -0,0 +1,7 @@
+USE BookStore;
+
+-- Price of one unit when the order was placed, shown in the order history.
+-- Run this once on databases created before the column was added to Transaction_Table.sql.
+-- Existing rows keep NULL, and the order history shows the book's current price for them.
+ALTER TABLE transaction
+ADD COLUMN unitPrice DOUBLE;
@@ -20,7 +20,8 @@ CREATE TABLE books (
     rating FLOAT,
     featured BOOLEAN DEFAULT FALSE,
     releaseDate DATE,
-    description TEXT
+    description TEXT,
+    FULLTEXT INDEX ft_books_search (isbn, title, author, category, publisher, edition) -- db.search.backend=fulltext
 );
 
 INSERT INTO books (
@@ -0,0 +1,20 @@
+CREATE DATABASE IF NOT EXISTS BookStore;
+USE BookStore;
+
+-- One row per promotional email campaign. lastUserID is the checkpoint:
+-- every enrolled user with a smaller or equal userID has been sent to, so
+-- a campaign interrupted by a restart resumes after it.
+CREATE TABLE IF NOT EXISTS EmailCampaign (
+    campaignID INT AUTO_INCREMENT PRIMARY KEY,
+    promoID INT NULL,
+    subject VARCHAR(255) NOT NULL,
+    message TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'RUNNING',  -- 'RUNNING', 'COMPLETED' or 'FAILED'
+    lastUserID INT NOT NULL DEFAULT 0,
+    sentCount INT NOT NULL DEFAULT 0,
+    failedCount INT NOT NULL DEFAULT 0,
+    createdAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updatedAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    CONSTRAINT fk_campaign_promotion FOREIGN KEY (promoID) REFERENCES promotion(promoID) ON DELETE SET NULL,
+    INDEX idx_campaign_status (status)
+);
@@ -0,0 +1,24 @@
+CREATE DATABASE IF NOT EXISTS BookStore;
+USE BookStore;
+
+-- Emails waiting to be sent. Rows are inserted in the same transaction as the
+-- change they announce (e.g. a verification token) and sent by a background
+-- sender, which retries failures with exponential backoff.
+--   PENDING  waiting for nextAttemptAt
+--   SENDING  claimed by a sender until nextAttemptAt (a lease); reclaimed after it if the sender died
+--   SENT     delivered to the SMTP server
+--   DEAD     gave up after the maximum number of attempts; lastError says why
+CREATE TABLE IF NOT EXISTS EmailOutbox (
+    outboxID BIGINT AUTO_INCREMENT PRIMARY KEY,
+    emailType VARCHAR(40) NOT NULL,  -- 'verification', 'password_reset' or 'order_confirmation'
+    recipient VARCHAR(255) NOT NULL,
+    subject VARCHAR(255) NOT NULL,
+    body TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INT NOT NULL DEFAULT 0,
+    nextAttemptAt TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    lastError VARCHAR(1000) NULL,
+    createdAt TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    sentAt TIMESTAMP(3) NULL,
+    INDEX idx_outbox_due (status, nextAttemptAt)
+);
@@ -8,6 +8,7 @@ CREATE TABLE IF NOT EXISTS orders (
     promoID INT,
     grandTotal DOUBLE,
     orderDateTime DATETIME,
+    INDEX idx_orders_user_date (userID, orderDateTime, orderID), -- per-user order history lookups
     FOREIGN KEY (userID) REFERENCES users(userID),
     FOREIGN KEY (cardID) REFERENCES paymentcard(cardID),
     FOREIGN KEY (promoID) REFERENCES promotion(promoID)
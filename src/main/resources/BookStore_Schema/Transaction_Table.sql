@@ -6,10 +6,11 @@ CREATE TABLE IF NOT EXISTS transaction (
     orderID INT,
     bookID INT,
     quantity INT,
+    unitPrice DOUBLE,
     FOREIGN KEY (orderID) REFERENCES orders(orderID),
     FOREIGN KEY (bookID) REFERENCES books(id)
 );
 
 
-INSERT INTO transaction (orderID, bookID, quantity) VALUES
-(1, 1, 2);
+INSERT INTO transaction (orderID, bookID, quantity, unitPrice) VALUES
+(1, 1, 2, 19.99);
@@ -102,7 +102,7 @@ export default function AdminPromotionsPage() {
       }
       
       setPushModalOpen(false);
-      alert('Promotion pushed successfully!');
+      alert(`Promotion push started (campaign ${data.campaignId}). The promotion is marked as pushed once every email has been sent.`);
       
       // Refresh promotions to update pushed status
       await fetchPromotions();
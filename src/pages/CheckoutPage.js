@@ -205,14 +205,11 @@ export default function CheckoutPage({ cartItems, setCartItems, setOrders }) {
     setPromoLoading(true);
     setPromoError('');
     try {
-      const response = await fetch('http://localhost:8080/api/promotions');
-      if (!response.ok) throw new Error('Failed to fetch promotions');
-      const promotions = await response.json();
-      const validPromo = promotions.find(promo =>
-        promo.promoCode === promoCode.toUpperCase() &&
-        new Date(promo.startDate) <= new Date() &&
-        new Date(promo.endDate) >= new Date()
+      const response = await fetch(
+        'http://localhost:8080/api/promotions/validate?code=' + encodeURIComponent(promoCode.trim())
       );
+      if (!response.ok && response.status !== 404) throw new Error('Failed to validate promo code');
+      const validPromo = response.ok ? await response.json() : null;
       if (validPromo) {
         setAppliedPromo(validPromo);
         setPromoError('');
@@ -272,6 +269,7 @@ export default function CheckoutPage({ cartItems, setCartItems, setOrders }) {
       const checkoutPayload = {
         cartItems: cartItems,
         totalAmount: finalTotal,
+        appliedPromo: appliedPromo,
         paymentInfo: paymentInfoToSend,
         billingAddress: billingAddressToSend,
         ...(shippingAddressToSend !== null && { shippingAddress: shippingAddressToSend })
@@ -290,12 +288,9 @@ export default function CheckoutPage({ cartItems, setCartItems, setOrders }) {
         const result = await response.json();
         console.log('Checkout processed:', result);
 
-        // Save order to database
-        const orderData = {
-          cartItems: cartItems,
-          totalAmount: finalTotal,
-          appliedPromo: appliedPromo
-        };
+        // Save order to database; the confirmation email is sent with the order,
+        // so it needs the same payment and address details
+        const orderData = checkoutPayload;
         const orderResponse = await fetch('http://localhost:8080/api/orders', {
           method: 'POST',
           headers: { 'Content-Type': 'application/json' },